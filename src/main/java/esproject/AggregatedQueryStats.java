@@ -0,0 +1,92 @@
+package esproject;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe counters that aggregate the {@link QueryStats} of many queries, for example
+ * all the queries executed against one index by several threads.
+ */
+public class AggregatedQueryStats {
+
+    /** number of recorded queries */
+    private final LongAdder queries = new LongAdder();
+    /** aggregated number of visited nodes */
+    private final LongAdder nodesVisited = new LongAdder();
+    /** aggregated number of disjoint nodes */
+    private final LongAdder nodesDisjoint = new LongAdder();
+    /** aggregated number of within shortcuts */
+    private final LongAdder withinShortcuts = new LongAdder();
+    /** aggregated number of documents covered by within shortcuts */
+    private final LongAdder withinPoints = new LongAdder();
+    /** aggregated number of scanned leaves */
+    private final LongAdder leavesScanned = new LongAdder();
+    /** aggregated number of tested documents */
+    private final LongAdder pointsTested = new LongAdder();
+    /** aggregated number of matched documents */
+    private final LongAdder pointsMatched = new LongAdder();
+    /** aggregated number of queries executed with each plan */
+    private final LongAdder[] plans = new LongAdder[QueryPlan.values().length];
+
+    /**
+     * Constructor.
+     */
+    public AggregatedQueryStats() {
+        for (int i = 0; i < this.plans.length; i++) {
+            this.plans[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the statistics of one query.
+     *
+     * @param stats the statistics of the query.
+     */
+    public void record(final QueryStats stats) {
+        this.queries.increment();
+        this.nodesVisited.add(stats.nodesVisited);
+        this.nodesDisjoint.add(stats.nodesDisjoint);
+        this.withinShortcuts.add(stats.withinShortcuts);
+        this.withinPoints.add(stats.withinPoints);
+        this.leavesScanned.add(stats.leavesScanned);
+        this.pointsTested.add(stats.pointsTested);
+        this.pointsMatched.add(stats.pointsMatched);
+        for (int i = 0; i < this.plans.length; i++) {
+            this.plans[i].add(stats.plans[i]);
+        }
+    }
+
+    /**
+     * Number of recorded queries.
+     *
+     * @return the number of queries.
+     */
+    public long getQueries() {
+        return this.queries.sum();
+    }
+
+    /**
+     * Returns the sum of the statistics of all recorded queries. The result is not an atomic snapshot
+     * if queries are recorded concurrently.
+     *
+     * @return the aggregated statistics.
+     */
+    public QueryStats getTotals() {
+        QueryStats totals = new QueryStats();
+        totals.nodesVisited = this.nodesVisited.sum();
+        totals.nodesDisjoint = this.nodesDisjoint.sum();
+        totals.withinShortcuts = this.withinShortcuts.sum();
+        totals.withinPoints = this.withinPoints.sum();
+        totals.leavesScanned = this.leavesScanned.sum();
+        totals.pointsTested = this.pointsTested.sum();
+        totals.pointsMatched = this.pointsMatched.sum();
+        for (int i = 0; i < this.plans.length; i++) {
+            totals.plans[i] = this.plans[i].sum();
+        }
+        return totals;
+    }
+
+    @Override
+    public String toString() {
+        return "queries: " + getQueries() + "; " + getTotals();
+    }
+}
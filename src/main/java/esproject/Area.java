@@ -0,0 +1,95 @@
+package esproject;
+
+import java.util.Objects;
+
+/**
+ * Represents an area that can be indexed in an {@link AreaTree}, for example the rectangle served by a
+ * store, defined by its bounding box. The bounding box crosses the dateline when the longitude of its
+ * lower corner is bigger than the longitude of its upper corner.
+ */
+public class Area {
+
+    /** the string data **/
+    final String data;
+    /** the upper corner, longitude and latitude */
+    final double[] upperPoint;
+    /** the lower corner, longitude and latitude */
+    final double[] lowerPoint;
+
+    /**
+     * Creates an area.
+     *
+     * @param data       The string data.
+     * @param upperPoint The upper corner of the bounding box, longitude and latitude.
+     * @param lowerPoint The lower corner of the bounding box, longitude and latitude.
+     * @throws IllegalArgumentException if the bounding box is not valid.
+     */
+    public Area(final String data, final double[] upperPoint, final double[] lowerPoint) {
+        if (upperPoint.length != 2 || !BoundingBoxUtils.checkBoundingBox(upperPoint, lowerPoint)
+                || !BoundingBoxUtils.checkLatitude(upperPoint[1])) {
+            throw new IllegalArgumentException("Not a valid bounding box: " + toString(upperPoint, lowerPoint));
+        }
+        this.data = data;
+        this.upperPoint = upperPoint.clone();
+        this.lowerPoint = lowerPoint.clone();
+    }
+
+    /**
+     * The string data of the area.
+     *
+     * @return the data.
+     */
+    public String getData() {
+        return this.data;
+    }
+
+    /**
+     * The upper corner of the bounding box of the area.
+     *
+     * @return a copy of the upper corner, longitude and latitude.
+     */
+    public double[] getUpperPoint() {
+        return this.upperPoint.clone();
+    }
+
+    /**
+     * The lower corner of the bounding box of the area.
+     *
+     * @return a copy of the lower corner, longitude and latitude.
+     */
+    public double[] getLowerPoint() {
+        return this.lowerPoint.clone();
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hashCode(this.data);
+        for (double value : new double[] {this.upperPoint[0], this.upperPoint[1], this.lowerPoint[0], this.lowerPoint[1]}) {
+            long temp = Double.doubleToLongBits(value);
+            result = 31 * result + (int) (temp ^ (temp >>> 32));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Area)) {
+            return false;
+        }
+        Area other = (Area) obj;
+        return Objects.equals(this.data, other.data)
+                && this.upperPoint[0] == other.upperPoint[0]
+                && this.upperPoint[1] == other.upperPoint[1]
+                && this.lowerPoint[0] == other.lowerPoint[0]
+                && this.lowerPoint[1] == other.lowerPoint[1];
+    }
+
+    @Override
+    public String toString() {
+        return "data: " + this.data + "; box: " + toString(this.upperPoint, this.lowerPoint);
+    }
+
+    private static String toString(final double[] upperPoint, final double[] lowerPoint) {
+        return "[" + lowerPoint[0] + ", " + lowerPoint[1] + "] - [" + upperPoint[0] + ", " + upperPoint[1] + "]";
+    }
+}
@@ -0,0 +1,316 @@
+package esproject;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Implementation of a static tree of areas, built like a {@link KDBTree} with the {@link SplitPolicy#FIXED}
+ * policy: a complete binary tree without pointers between the nodes where the areas are sorted by the longitude
+ * of their centers, each longitude partition is sorted by the latitude of their centers, and each leaf holds a
+ * consecutive run of areas. The bounding box of a leaf covers the bounding boxes of its areas and the bounding
+ * box of a node covers the boxes of its children, so they might overlap.
+ * <p>
+ * Areas and queries can cross the dateline, and so can the bounding box of a node, which covers the longitudes
+ * of its children with the shortest range around the globe.
+ * <p>
+ * Once built it is immutable and can be queried concurrently from several threads.
+ */
+public class AreaTree {
+
+    /**
+     * Default max number of areas on leaf nodes
+     */
+    public static final int DEFAULT_AREAS_PER_LEAF = 64;
+
+    private static final Comparator<Area> BY_CENTER_LONGITUDE = Comparator.comparingDouble(AreaTree::centerLongitude);
+    private static final Comparator<Area> BY_CENTER_LATITUDE = Comparator.comparingDouble(area -> (area.upperPoint[1] + area.lowerPoint[1]) / 2);
+
+    /**
+     * Areas on the tree
+     */
+    private final Area[] areas;
+    /**
+     * Max level of the tree, first level is 1
+     */
+    private final int maxLevel;
+    /**
+     * node id for the first leaf node. It represents as well the number of leaf nodes of the tree
+     */
+    private final int startLeafNodes;
+    /**
+     * minimum current value for areas per leaf
+     */
+    private final int minimumAreasPerLeaf;
+    /**
+     * number of leafs with one extra area.
+     */
+    private final int leafsWithExtraArea;
+    /**
+     * Bounding box of each node of the tree packed as its upper point followed by its lower point. The box of a
+     * node starts at (nodeId - 1) * 4.
+     */
+    private final double[] boxes;
+
+    /**
+     * Constructor that uses the default number of areas per leaf.
+     *
+     * @param areas the areas to index, the array is sorted.
+     */
+    public AreaTree(final Area[] areas) {
+        this(areas, DEFAULT_AREAS_PER_LEAF);
+    }
+
+    /**
+     * Constructor that takes the number of areas per leaf.
+     *
+     * @param areas           the areas to index, the array is sorted.
+     * @param maxAreasPerLeaf maximum number of areas per leaf node.
+     * @throws IllegalArgumentException if there are no areas or the areas per leaf are not positive.
+     */
+    public AreaTree(final Area[] areas, final int maxAreasPerLeaf) {
+        if (areas.length == 0) {
+            throw new IllegalArgumentException("There are no areas to index");
+        }
+        if (maxAreasPerLeaf <= 0) {
+            throw new IllegalArgumentException("The areas per leaf must be positive: " + maxAreasPerLeaf);
+        }
+        this.areas = areas;
+        this.maxLevel = KDBTree.getTreeLevels(areas.length, maxAreasPerLeaf);
+        this.startLeafNodes = 1 << (this.maxLevel - 1);
+        this.minimumAreasPerLeaf = areas.length / this.startLeafNodes;
+        this.leafsWithExtraArea = areas.length % this.startLeafNodes;
+        this.boxes = new double[4 * (2 * this.startLeafNodes - 1)];
+        buildTree();
+    }
+
+    /**
+     * Build the tree. First it sorts the areas by the longitude of their centers and each longitude partition by
+     * the latitude of their centers, then computes the bounding boxes of the leaves from their areas and of the
+     * rest of the nodes upwards.
+     */
+    private void buildTree() {
+        Arrays.sort(this.areas, BY_CENTER_LONGITUDE);
+        final int[] partitions = KDBTree.longitudePartitions(0, this.areas.length, this.maxLevel);
+        for (int i = 0; i < partitions.length - 1; i++) {
+            Arrays.sort(this.areas, partitions[i], partitions[i + 1], BY_CENTER_LATITUDE);
+        }
+        for (int i = 0; i < this.startLeafNodes; i++) {
+            final int box = 4 * (this.startLeafNodes + i - 1);
+            final int end = endAreas(i);
+            for (int j = startAreas(i); j < end; j++) {
+                final Area area = this.areas[j];
+                if (j == startAreas(i)) {
+                    this.boxes[box] = area.upperPoint[0];
+                    this.boxes[box + 1] = area.upperPoint[1];
+                    this.boxes[box + 2] = area.lowerPoint[0];
+                    this.boxes[box + 3] = area.lowerPoint[1];
+                } else {
+                    union(box, area.upperPoint[0], area.upperPoint[1], area.lowerPoint[0], area.lowerPoint[1]);
+                }
+            }
+        }
+        for (int nodeId = this.startLeafNodes - 1; nodeId >= 1; nodeId--) {
+            final int box = 4 * (nodeId - 1);
+            final int left = 4 * (2 * nodeId - 1);
+            final int right = 4 * (2 * nodeId);
+            System.arraycopy(this.boxes, left, this.boxes, box, 4);
+            union(box, this.boxes[right], this.boxes[right + 1], this.boxes[right + 2], this.boxes[right + 3]);
+        }
+    }
+
+    /**
+     * Computes the longitude of the center of an area, taking into account if it crosses the dateline.
+     *
+     * @param area The area.
+     * @return the longitude.
+     */
+    private static double centerLongitude(final Area area) {
+        final double center = area.lowerPoint[0] + width(area.lowerPoint[0], area.upperPoint[0]) / 2;
+        return center > 180 ? center - 360 : center;
+    }
+
+    /**
+     * Computes the width in degrees of a longitude range, which crosses the dateline if the start is bigger
+     * than the end.
+     */
+    private static double width(final double minLongitude, final double maxLongitude) {
+        return maxLongitude >= minLongitude ? maxLongitude - minLongitude : maxLongitude - minLongitude + 360;
+    }
+
+    /**
+     * Extends the bounding box at the provided position of the boxes array to cover a second bounding box. The
+     * longitude range is extended with the shortest range around the globe that covers both ranges. It starts at
+     * the start of one of them and ends at the end farthest from it, chosen by comparing the longitudes so no
+     * rounding is introduced.
+     *
+     * @param box          The position of the bounding box.
+     * @param maxLongitude The upper longitude of the second bounding box.
+     * @param maxLatitude  The upper latitude of the second bounding box.
+     * @param minLongitude The lower longitude of the second bounding box.
+     * @param minLatitude  The lower latitude of the second bounding box.
+     */
+    private void union(final int box, final double maxLongitude, final double maxLatitude, final double minLongitude, final double minLatitude) {
+        this.boxes[box + 1] = Math.max(this.boxes[box + 1], maxLatitude);
+        this.boxes[box + 3] = Math.min(this.boxes[box + 3], minLatitude);
+        final double width1 = width(this.boxes[box + 2], this.boxes[box]);
+        final double width2 = width(minLongitude, maxLongitude);
+        // the range starting at the start of the first range or at the start of the second range
+        final double from1 = Math.max(width1, width(this.boxes[box + 2], minLongitude) + width2);
+        final double from2 = Math.max(width2, width(minLongitude, this.boxes[box + 2]) + width1);
+        if (width1 >= 360 || width2 >= 360 || Math.min(from1, from2) >= 360) {
+            this.boxes[box] = 180;
+            this.boxes[box + 2] = -180;
+        } else {
+            final double start = from1 <= from2 ? this.boxes[box + 2] : minLongitude;
+            this.boxes[box] = farthest(start, this.boxes[box], maxLongitude);
+            this.boxes[box + 2] = start;
+        }
+    }
+
+    /**
+     * Returns the longitude farthest to the east of the provided start, going around the globe.
+     */
+    private static double farthest(final double start, final double longitude1, final double longitude2) {
+        final boolean wraps1 = longitude1 < start;
+        final boolean wraps2 = longitude2 < start;
+        if (wraps1 == wraps2) {
+            return Math.max(longitude1, longitude2);
+        }
+        return wraps1 ? longitude1 : longitude2;
+    }
+
+    /**
+     * Collects the areas that intersect the provided bounding box, including the areas that only touch it.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param collector  The list collector.
+     */
+    public void intersecting(final double[] upperPoint, final double[] lowerPoint, final List<Area> collector) {
+        query(upperPoint, lowerPoint, false, collector);
+    }
+
+    /**
+     * Collects the areas that contain the provided bounding box, including its edges.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param collector  The list collector.
+     */
+    public void containing(final double[] upperPoint, final double[] lowerPoint, final List<Area> collector) {
+        query(upperPoint, lowerPoint, true, collector);
+    }
+
+    /**
+     * Collects the areas that contain the provided point, including the areas with the point on their edges.
+     *
+     * @param point     The point, longitude first.
+     * @param collector The list collector.
+     */
+    public void containing(final double[] point, final List<Area> collector) {
+        query(point, point, true, collector);
+    }
+
+    /**
+     * Collects the areas that intersect or contain the provided bounding box. An area is inside the box of every
+     * node above it, so for containing queries the nodes whose box does not contain the query are skipped, and
+     * for intersecting queries the nodes disjoint with the query are skipped and all the areas of the nodes within
+     * the query are collected without checking them.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param containing true to collect the areas that contain the bounding box, false for the areas that intersect it.
+     * @param collector  The list collector.
+     */
+    private void query(final double[] upperPoint, final double[] lowerPoint, final boolean containing, final List<Area> collector) {
+        //depth first traversal without stack, see KDBTree#nextNode
+        int nodeId = 1;
+        do {
+            final int rel = BoundingBoxUtils.relate(this.boxes, 4 * (nodeId - 1), 2, upperPoint, lowerPoint);
+            if (containing ? rel != BoundingBoxUtils.CONTAINS : rel == BoundingBoxUtils.DISJOINT) {
+                nodeId = KDBTree.nextNode(nodeId);
+                continue;
+            }
+            if (!containing && rel == BoundingBoxUtils.WITHIN) {
+                collector.addAll(Arrays.asList(this.areas).subList(startAreas(startLeafNode(nodeId)), endAreas(endLeafNode(nodeId))));
+            } else if (nodeId >= this.startLeafNodes) {
+                final int end = endAreas(nodeId - this.startLeafNodes);
+                for (int i = startAreas(nodeId - this.startLeafNodes); i < end; i++) {
+                    final int areaRel = BoundingBoxUtils.relate(this.areas[i].upperPoint, this.areas[i].lowerPoint, upperPoint, lowerPoint);
+                    if (containing ? areaRel == BoundingBoxUtils.CONTAINS : areaRel != BoundingBoxUtils.DISJOINT) {
+                        collector.add(this.areas[i]);
+                    }
+                }
+            } else {
+                nodeId = 2 * nodeId;
+                continue;
+            }
+            nodeId = KDBTree.nextNode(nodeId);
+        } while (nodeId != 1);
+    }
+
+    /**
+     * Number of areas in the tree.
+     *
+     * @return the number of areas.
+     */
+    public int size() {
+        return this.areas.length;
+    }
+
+    /**
+     * Computes the start index of the areas for the provided leaf.
+     *
+     * @param positionLeaf the position of the leaf.
+     * @return the start index for the areas for the provided leaf position.
+     */
+    private int startAreas(final int positionLeaf) {
+        return positionLeaf * this.minimumAreasPerLeaf + Math.min(positionLeaf, this.leafsWithExtraArea);
+    }
+
+    /**
+     * Computes the end index of the areas for the provided leaf.
+     *
+     * @param positionLeaf the position of the leaf.
+     * @return the end index for the areas for the provided leaf position.
+     */
+    private int endAreas(final int positionLeaf) {
+        return startAreas(positionLeaf + 1);
+    }
+
+    /**
+     * Return the position of the start leaf node under the provided node with respect the first leaf node.
+     *
+     * @param nodeId The node.
+     * @return index of the start leaf node.
+     */
+    private int startLeafNode(final int nodeId) {
+        return (nodeId << levelsBelow(nodeId)) - this.startLeafNodes;
+    }
+
+    /**
+     * Return the position of the end leaf node under the provided node with respect the first leaf node.
+     *
+     * @param nodeId The node.
+     * @return index of the end leaf node.
+     */
+    private int endLeafNode(final int nodeId) {
+        return ((nodeId + 1) << levelsBelow(nodeId)) - 1 - this.startLeafNodes;
+    }
+
+    /**
+     * Computes the number of levels between the provided node and the leaves.
+     *
+     * @param nodeId The node.
+     * @return the number of levels, 0 for leaf nodes.
+     */
+    private int levelsBelow(final int nodeId) {
+        return Integer.numberOfLeadingZeros(nodeId) - Integer.numberOfLeadingZeros(this.startLeafNodes);
+    }
+
+    @Override
+    public String toString() {
+        return "levels: " + this.maxLevel + "; areas per leaf: " + this.minimumAreasPerLeaf + "; number areas: " + this.areas.length;
+    }
+}
@@ -0,0 +1,130 @@
+package esproject;
+
+import java.util.Arrays;
+
+/**
+ * Ranges over the numeric attributes of the documents that must all be satisfied, for example a
+ * category id or a price band, to be combined with a bounding box query. Trees keep the minimum and
+ * maximum value of each attribute per node so nodes whose values are disjoint with the ranges are
+ * skipped.
+ * <p>
+ * Instances are immutable, new ranges are added with {@link #and(int, double, double)}.
+ */
+public class AttributeFilter {
+
+    /** the attribute of each range */
+    private final int[] attributes;
+    /** the minimum value of each range, inclusive */
+    private final double[] minValues;
+    /** the maximum value of each range, inclusive */
+    private final double[] maxValues;
+
+    private AttributeFilter(final int[] attributes, final double[] minValues, final double[] maxValues) {
+        this.attributes = attributes;
+        this.minValues = minValues;
+        this.maxValues = maxValues;
+    }
+
+    /**
+     * Creates a filter with one range.
+     *
+     * @param attribute the position of the attribute.
+     * @param minValue  the minimum value, inclusive.
+     * @param maxValue  the maximum value, inclusive.
+     * @return the filter.
+     */
+    public static AttributeFilter range(final int attribute, final double minValue, final double maxValue) {
+        return new AttributeFilter(new int[0], new double[0], new double[0]).and(attribute, minValue, maxValue);
+    }
+
+    /**
+     * Creates a filter with the ranges of this filter and the provided range.
+     *
+     * @param attribute the position of the attribute.
+     * @param minValue  the minimum value, inclusive.
+     * @param maxValue  the maximum value, inclusive.
+     * @return the filter.
+     * @throws IllegalArgumentException if the attribute is negative or the range is empty.
+     */
+    public AttributeFilter and(final int attribute, final double minValue, final double maxValue) {
+        if (attribute < 0) {
+            throw new IllegalArgumentException("The attribute must be positive: " + attribute);
+        }
+        if (!(minValue <= maxValue)) {
+            throw new IllegalArgumentException("Not a valid range: [" + minValue + ", " + maxValue + "]");
+        }
+        final int length = this.attributes.length;
+        final int[] attributes = Arrays.copyOf(this.attributes, length + 1);
+        final double[] minValues = Arrays.copyOf(this.minValues, length + 1);
+        final double[] maxValues = Arrays.copyOf(this.maxValues, length + 1);
+        attributes[length] = attribute;
+        minValues[length] = minValue;
+        maxValues[length] = maxValue;
+        return new AttributeFilter(attributes, minValues, maxValues);
+    }
+
+    /**
+     * The number of attributes documents need for this filter.
+     *
+     * @return the highest attribute position plus one.
+     */
+    int requiredAttributes() {
+        int required = 0;
+        for (int attribute : this.attributes) {
+            required = Math.max(required, attribute + 1);
+        }
+        return required;
+    }
+
+    /**
+     * Checks if the provided attribute values satisfy all the ranges.
+     *
+     * @param values the attribute values of a document.
+     * @return true if all the ranges are satisfied.
+     */
+    boolean matches(final double[] values) {
+        for (int i = 0; i < this.attributes.length; i++) {
+            final double value = values[this.attributes[i]];
+            if (value < this.minValues[i] || value > this.maxValues[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the relationship of the values of a node with the ranges.
+     *
+     * @param maxValues the maximum value of each attribute of all the nodes.
+     * @param minValues the minimum value of each attribute of all the nodes.
+     * @param offset    the position of the first attribute of the node.
+     * @return {@link BoundingBoxUtils#DISJOINT} if no document of the node can match, {@link BoundingBoxUtils#WITHIN}
+     * if all of them match, else {@link BoundingBoxUtils#INTERSECTS}.
+     */
+    int relate(final double[] maxValues, final double[] minValues, final int offset) {
+        int relation = BoundingBoxUtils.WITHIN;
+        for (int i = 0; i < this.attributes.length; i++) {
+            final double max = maxValues[offset + this.attributes[i]];
+            final double min = minValues[offset + this.attributes[i]];
+            if (min > this.maxValues[i] || max < this.minValues[i]) {
+                return BoundingBoxUtils.DISJOINT;
+            }
+            if (min < this.minValues[i] || max > this.maxValues[i]) {
+                relation = BoundingBoxUtils.INTERSECTS;
+            }
+        }
+        return relation;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.attributes.length; i++) {
+            if (i > 0) {
+                builder.append(" AND ");
+            }
+            builder.append("attribute ").append(this.attributes[i]).append(" in [").append(this.minValues[i]).append(", ").append(this.maxValues[i]).append("]");
+        }
+        return builder.toString();
+    }
+}
@@ -1,7 +1,17 @@
 package esproject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Implementation of a BKD tree which is a collection of {@link KDBTree} built inn a way
@@ -9,7 +19,17 @@ import java.util.List;
  * except the last one which only has one level.
  *
  * The array of {@link Document} is sorted before creating the trees so we ensure that trees
- * do not overlap.
+ * do not overlap, by longitude or along a Hilbert curve for the {@link SplitPolicy#HILBERT} policy.
+ * <p>
+ * Trees built with the {@link SplitPolicy#FIXED} policy can be merged into a new tree without sorting
+ * their documents again, see {@link #merge(List, int, ExecutorService)}.
+ * <p>
+ * Once built, the string data of the documents can be moved to a compact {@link PayloadStore} so
+ * only the data of the documents returned by queries is materialized.
+ * <p>
+ * Optionally bounding box queries are planned: the work of traversing each tree is estimated from its
+ * top levels and trees where the traversal would check about as many documents as the tree holds are
+ * swept linearly instead (see {@link QueryPlan}).
  */
 public class BKDTree implements Tree {
 
@@ -17,6 +37,31 @@ public class BKDTree implements Tree {
      * The list of {@link KDBTree} trees.
      */
     private final List<KDBTree> KDBTrees;
+    /**
+     * The documents of all the trees.
+     */
+    private final Document[] documents;
+    /**
+     * The bounding boxes of the nodes of all the trees packed in one array, each tree uses a consecutive range.
+     */
+    private final double[] boxes;
+    /**
+     * The data of the documents if it has been compacted, else null.
+     */
+    private PayloadStore payloads;
+    /**
+     * Number of levels traversed by the planner for estimating the cost of a query, 0 if queries are not planned.
+     */
+    private int planningDepth;
+
+    /**
+     * Relative cost of checking one node against the query compared with checking one document.
+     */
+    private static final int NODE_COST = 8;
+    /**
+     * Time spent on each phase of the build, summed over all the trees.
+     */
+    private final BuildTimings buildTimings = new BuildTimings();
 
     /**
      * Constructor that uses the default documents per leaf.
@@ -34,17 +79,82 @@ public class BKDTree implements Tree {
      * @param maxDocumentsPerLeaf the documents per leaf.
      */
     public BKDTree(final Document[] documents, final int maxDocumentsPerLeaf) {
+        this(documents, maxDocumentsPerLeaf, SplitPolicy.FIXED);
+    }
+
+    /**
+     * Constructor with documents per leaf and the policy for choosing the dimension each node is divided by.
+     *
+     * @param documents the documents to be indexed.
+     * @param maxDocumentsPerLeaf the documents per leaf.
+     * @param splitPolicy the policy for choosing the dimension of each node.
+     */
+    public BKDTree(final Document[] documents, final int maxDocumentsPerLeaf, final SplitPolicy splitPolicy) {
+        this(documents, maxDocumentsPerLeaf, splitPolicy, NodeLayout.BREADTH_FIRST);
+    }
+
+    /**
+     * Constructor with documents per leaf, the policy for choosing the dimension each node is divided by and the
+     * order of the node bounding boxes in memory.
+     *
+     * @param documents the documents to be indexed.
+     * @param maxDocumentsPerLeaf the documents per leaf.
+     * @param splitPolicy the policy for choosing the dimension of each node.
+     * @param nodeLayout the order of the node bounding boxes of each tree.
+     */
+    public BKDTree(final Document[] documents, final int maxDocumentsPerLeaf, final SplitPolicy splitPolicy, final NodeLayout nodeLayout) {
+        this(documents, maxDocumentsPerLeaf, splitPolicy, false, nodeLayout);
+    }
+
+    /**
+     * Constructor for documents that might be already partitioned.
+     *
+     * @param documents the documents to be indexed.
+     * @param maxDocumentsPerLeaf the documents per leaf.
+     * @param splitPolicy the policy for choosing the dimension of each node.
+     * @param partitioned flags if the documents are sorted by longitude and the longitude partitions of
+     *                    each tree are sorted by latitude, only for the {@link SplitPolicy#FIXED} policy.
+     * @param nodeLayout the order of the node bounding boxes of each tree.
+     */
+    private BKDTree(final Document[] documents, final int maxDocumentsPerLeaf, final SplitPolicy splitPolicy, final boolean partitioned,
+                    final NodeLayout nodeLayout) {
         this.KDBTrees = new ArrayList<>();
+        this.documents = documents;
         // we sort the array now to make sure the trees do not overlap
-        SortingUtils.sortByDimension(documents, 0);
+        long startTime = System.nanoTime();
+        if (partitioned) {
+            assert splitPolicy == SplitPolicy.FIXED;
+        } else if (splitPolicy == SplitPolicy.HILBERT) {
+            // trees are consecutive runs along the curve
+            SortingUtils.sortByHilbertCurve(documents, 0, documents.length);
+            this.buildTimings.partitionNanos = System.nanoTime() - startTime;
+        } else {
+            SortingUtils.sortByDimension(documents, 0);
+            this.buildTimings.longitudeSortNanos = System.nanoTime() - startTime;
+        }
+        // the node boxes of all the trees are allocated at once so the small trees at the end of the forest do
+        // not carry the overhead of their own arrays
+        final int dimensions = KDBTree.getDimensions(documents, 0, documents.length);
+        final List<Integer> treeDocuments = new ArrayList<>();
+        long boxesLength = 0;
+        for (int start = 0; start < documents.length; start += treeDocuments.get(treeDocuments.size() - 1)) {
+            final int docsFullTree = getDocumentsForFullTree(documents.length - start, maxDocumentsPerLeaf);
+            treeDocuments.add(docsFullTree);
+            boxesLength += KDBTree.boxesLength(docsFullTree, maxDocumentsPerLeaf, dimensions);
+        }
+        if (boxesLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many nodes for " + documents.length + " documents and " + maxDocumentsPerLeaf + " documents per leaf");
+        }
+        this.boxes = new double[(int) boxesLength];
         int start = 0;
-        while (true) {
-            int docsFullTree = getDocumentsForFullTree(documents.length - start, maxDocumentsPerLeaf);
-            this.KDBTrees.add(new KDBTree(documents, maxDocumentsPerLeaf, start, start + docsFullTree, true));
+        int boxesOffset = 0;
+        for (int docsFullTree : treeDocuments) {
+            KDBTree tree = new KDBTree(documents, maxDocumentsPerLeaf, start, start + docsFullTree, true, splitPolicy, partitioned,
+                    this.boxes, boxesOffset, nodeLayout);
+            this.buildTimings.add(tree.getBuildTimings());
+            this.KDBTrees.add(tree);
             start = start + docsFullTree;
-            if (start >= documents.length) {
-                break;
-            }
+            boxesOffset += KDBTree.boxesLength(docsFullTree, maxDocumentsPerLeaf, dimensions);
         }
     }
 
@@ -55,7 +165,7 @@ public class BKDTree implements Tree {
      * @return the number of documents needed to fill up a tree. Always lower or equal
      * to the provided length.
      */
-    private int getDocumentsForFullTree(final int length, final int maxDocsPerLef) {
+    static int getDocumentsForFullTree(final int length, final int maxDocsPerLef) {
         if (length <= maxDocsPerLef) {
             return length;
         }
@@ -66,11 +176,503 @@ public class BKDTree implements Tree {
         return (int) Math.pow(2, level - 2) * maxDocsPerLef;
     }
 
-   @Override
-    public void contains(final double[] upperPoint, final double[] lowerPoint, final List<Document> collector) {
+    /**
+     * Merges trees built with the {@link SplitPolicy#FIXED} policy into a new tree. The documents of each longitude
+     * partition of the provided trees are already sorted by latitude, so instead of sorting all the documents again
+     * they are distributed by longitude rank between the partitions of the new tree and the sorted runs of each new
+     * partition are merged by latitude, in parallel over the new partitions. Compacted string data is materialized
+     * again, the provided trees are not modified.
+     *
+     * @param trees               the trees to merge, {@link BKDTree} or {@link KDBTree} instances.
+     * @param maxDocumentsPerLeaf the documents per leaf of the new tree.
+     * @param executor            the executor merging the partitions, or null to merge them on the calling thread.
+     * @return the new tree.
+     * @throws IllegalArgumentException if a tree is not built with the fixed policy or there are no documents.
+     */
+    public static BKDTree merge(final List<? extends Tree> trees, final int maxDocumentsPerLeaf, final ExecutorService executor) {
+        return new BKDTree(TreeMerger.merge(trees, maxDocumentsPerLeaf, executor), maxDocumentsPerLeaf, SplitPolicy.FIXED, true, NodeLayout.BREADTH_FIRST);
+    }
+
+    /**
+     * The trees of the forest.
+     *
+     * @return the trees.
+     */
+    List<KDBTree> getTrees() {
+        return this.KDBTrees;
+    }
+
+    /**
+     * The trees of the forest of a {@link BKDTree}, or the tree itself if it is a {@link KDBTree}.
+     *
+     * @param tree the tree.
+     * @return the trees.
+     * @throws IllegalArgumentException if the tree is neither a {@link BKDTree} nor a {@link KDBTree}.
+     */
+    static List<KDBTree> kdbTrees(final Tree tree) {
+        if (tree instanceof BKDTree) {
+            return ((BKDTree) tree).getTrees();
+        } else if (tree instanceof KDBTree) {
+            return Collections.singletonList((KDBTree) tree);
+        }
+        throw new IllegalArgumentException("Only BKD and KDB trees are supported: " + tree.getClass().getSimpleName());
+    }
+
+    /**
+     * Moves the string data of the documents to a compact store addressed by the position of each document.
+     * The documents of the tree are replaced by documents without data and query results are decoded from
+     * the store. It must be called before the tree is shared with other threads.
+     * <p>
+     * The tree owns the array of documents it has been built with, which is already reordered by the build,
+     * and this replaces its elements. Callers that need the data must read it from the tree afterwards, for
+     * example with {@link #contains(double[], double[], List)}.
+     *
+     * @param deduplicate if equal strings should be stored once.
+     */
+    public void compactPayloads(final boolean deduplicate) {
+        if (this.payloads != null) {
+            throw new IllegalStateException("Payloads have already been compacted");
+        }
+        this.payloads = PayloadStore.build(this.documents, deduplicate);
+        for (int i = 0; i < this.documents.length; i++) {
+            this.documents[i] = new Document(null, this.documents[i].point, this.documents[i].attributes);
+        }
+    }
+
+    /**
+     * Enables the query planner, which chooses for each query and tree between traversing the tree and
+     * sweeping its documents. It must be called before the tree is shared with other threads.
+     *
+     * @param estimateDepth the number of levels traversed for estimating the cost of a query, 0 disables planning.
+     */
+    public void setQueryPlanning(final int estimateDepth) {
+        if (estimateDepth < 0) {
+            throw new IllegalArgumentException("The estimate depth must be positive: " + estimateDepth);
+        }
+        this.planningDepth = estimateDepth;
+    }
+
+    /**
+     * Estimates the number of documents inside the provided bounding box from the node bounding boxes,
+     * using exact counts for nodes within the query and the covered fraction of the nodes that intersect it.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param maxDepth   The number of levels of each tree to traverse.
+     * @return the estimated number of documents.
+     */
+    public long estimateCount(final double[] upperPoint, final double[] lowerPoint, final int maxDepth) {
+        final KDBTree.CountEstimate estimate = new KDBTree.CountEstimate();
         for (KDBTree tree : this.KDBTrees) {
-            tree.contains(upperPoint, lowerPoint, collector);
+            tree.estimate(upperPoint, lowerPoint, maxDepth, estimate);
+        }
+        return Math.round(estimate.count);
+    }
+
+    /**
+     * Estimates the number of documents inside the provided bounding box traversing
+     * {@link KDBTree#DEFAULT_ESTIMATE_DEPTH} levels of each tree.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @return the estimated number of documents.
+     */
+    public long estimateCount(final double[] upperPoint, final double[] lowerPoint) {
+        return estimateCount(upperPoint, lowerPoint, KDBTree.DEFAULT_ESTIMATE_DEPTH);
+    }
+
+    /**
+     * Finds the documents inside the provided bounding box as a bit set of their positions on the documents
+     * array, see {@link #collect(BitSet, List)}. Nodes within the box set their whole range of positions at once.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @return the positions of the matching documents.
+     */
+    public BitSet matching(final double[] upperPoint, final double[] lowerPoint) {
+        return matching(SpatialQuery.box(upperPoint, lowerPoint), null);
+    }
+
+    /**
+     * Evaluates a boolean combination of bounding box queries. The result is a bit set of the positions of
+     * the matching documents on the documents array, which can be combined with other results of this tree
+     * using {@link BitSet#and(BitSet)}, {@link BitSet#or(BitSet)} or {@link BitSet#andNot(BitSet)}.
+     *
+     * @param query The query.
+     * @param stats The query statistics, it might be null.
+     * @return the positions of the matching documents.
+     */
+    public BitSet matching(final SpatialQuery query, final QueryStats stats) {
+        return query.evaluate(this, stats);
+    }
+
+    /**
+     * Adds the documents at the provided positions to the collector.
+     *
+     * @param ordinals  the positions of the documents, for example the result of {@link #matching(SpatialQuery, QueryStats)}.
+     * @param collector the list collector.
+     */
+    public void collect(final BitSet ordinals, final List<Document> collector) {
+        for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals.nextSetBit(i + 1)) {
+            collector.add(this.payloads == null ? this.documents[i] : new Document(this.payloads.get(i), this.documents[i].point, this.documents[i].attributes));
+        }
+    }
+
+    /**
+     * The documents of all the trees, query results are positions on this array.
+     *
+     * @return the documents.
+     */
+    Document[] getDocuments() {
+        return this.documents;
+    }
+
+    /**
+     * Returns the string data of the document at the provided position of the documents array.
+     *
+     * @param index the position of the document.
+     * @return the data of the document.
+     */
+    String data(final int index) {
+        return this.payloads == null ? this.documents[index].data : this.payloads.get(index);
+    }
+
+    @Override
+    public void contains(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final List<Document> collector, final QueryStats stats) {
+        query(upperPoint, lowerPoint, filter, collector(collector), stats);
+    }
+
+    /**
+     * Creates a visitor that adds the matching documents to the provided list, decoding their data from
+     * the compact store if payloads have been compacted.
+     *
+     * @param collector the list collector.
+     * @return the visitor.
+     */
+    private DocumentVisitor collector(final List<Document> collector) {
+        if (this.payloads == null) {
+            return DocumentVisitor.collector(collector);
+        }
+        final PayloadStore payloads = this.payloads;
+        return (documents, index) -> collector.add(new Document(payloads.get(index), documents[index].point, documents[index].attributes));
+    }
+
+    @Override
+    public long count(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter) {
+        final DocumentVisitor.Counter counter = new DocumentVisitor.Counter();
+        query(upperPoint, lowerPoint, filter, counter, null);
+        return counter.count;
+    }
+
+    /**
+     * Visits the documents inside the provided bounding box.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param visitor    The visitor of the matching documents.
+     * @param stats      The query statistics, it might be null.
+     */
+    void query(final double[] upperPoint, final double[] lowerPoint, final DocumentVisitor visitor, final QueryStats stats) {
+        query(upperPoint, lowerPoint, null, visitor, stats);
+    }
+
+    /**
+     * Visits the documents inside the provided bounding box whose attributes match the provided filter.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param visitor    The visitor of the matching documents.
+     * @param stats      The query statistics, it might be null.
+     */
+    void query(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final DocumentVisitor visitor, final QueryStats stats) {
+        query(upperPoint, lowerPoint, filter, visitor, stats, null);
+    }
+
+    /**
+     * Visits the documents inside the provided bounding box whose attributes match the provided filter until
+     * the provided deadline expires, see {@link KDBTree#query(double[], double[], AttributeFilter, DocumentVisitor, QueryStats, QueryDeadline)}.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param visitor    The visitor of the matching documents.
+     * @param stats      The query statistics, it might be null.
+     * @param deadline   The deadline, or null to visit all the matching documents.
+     * @return true if all the matching documents were visited, false if the deadline expired before.
+     */
+    boolean query(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final DocumentVisitor visitor,
+                  final QueryStats stats, final QueryDeadline deadline) {
+        if (this.planningDepth == 0) {
+            for (KDBTree tree : this.KDBTrees) {
+                if (!tree.query(upperPoint, lowerPoint, filter, visitor, stats, deadline)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        final QueryPlan[] plans = new QueryPlan[this.KDBTrees.size()];
+        int candidates = 0;
+        int sweeps = 0;
+        for (int i = 0; i < plans.length; i++) {
+            final KDBTree tree = this.KDBTrees.get(i);
+            final KDBTree.CountEstimate estimate = new KDBTree.CountEstimate();
+            tree.estimate(upperPoint, lowerPoint, this.planningDepth, estimate);
+            if (estimate.count == 0 && estimate.partialPoints == 0) {
+                //no document can match
+                continue;
+            }
+            candidates++;
+            if (tree.size() < estimate.nodes * NODE_COST + estimate.partialPoints) {
+                plans[i] = QueryPlan.LINEAR_SCAN;
+                sweeps++;
+            } else {
+                plans[i] = QueryPlan.TREE;
+            }
+        }
+        if (stats != null) {
+            stats.recordPlan(sweeps == 0 ? QueryPlan.TREE : sweeps == candidates ? QueryPlan.LINEAR_SCAN : QueryPlan.PER_TREE_SWEEP);
+        }
+        for (int i = 0; i < plans.length; i++) {
+            if (plans[i] == QueryPlan.TREE) {
+                if (!this.KDBTrees.get(i).query(upperPoint, lowerPoint, filter, visitor, stats, deadline)) {
+                    return false;
+                }
+            } else if (plans[i] == QueryPlan.LINEAR_SCAN) {
+                if (!this.KDBTrees.get(i).sweep(upperPoint, lowerPoint, filter, visitor, stats, deadline)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the documents inside the provided bounding box whose attributes match the provided filter until the
+     * provided deadline expires. The deadline is checked before each node and each leaf, so a query that runs
+     * out of time returns the documents found so far flagged as timed out.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param deadline   The deadline.
+     * @return the result.
+     */
+    public QueryResult contains(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final QueryDeadline deadline) {
+        final List<Document> collector = new ArrayList<>();
+        final DocumentVisitor visitor = collector(collector);
+        final boolean complete = query(upperPoint, lowerPoint, filter, visitor, null, deadline);
+        return new QueryResult(collector, !complete);
+    }
+
+    /**
+     * Finds one page of the documents inside the provided bounding box whose attributes match the provided filter.
+     * The first page is requested without token and each page returns the token of the next one, which holds
+     * the tree, the node and the document where the traversal stopped, so the next page continues from there
+     * without traversing the previous pages again. Tokens are only valid for the same query on the same tree.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param pageSize   The maximum number of documents of the page.
+     * @param token      The token returned by the previous page, or null for the first page.
+     * @return the page.
+     * @throws IllegalArgumentException if the page size is not positive or the token is not valid.
+     */
+    public QueryPage page(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final int pageSize, final String token) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("The page size must be bigger than 0: " + pageSize);
+        }
+        int fromTree = 0;
+        int fromNode = 1;
+        int fromDocument = 0;
+        if (token != null) {
+            final String[] parts = token.split("\\.");
+            try {
+                if (parts.length != 3) {
+                    throw new NumberFormatException();
+                }
+                fromTree = Integer.parseInt(parts[0]);
+                fromNode = Integer.parseInt(parts[1]);
+                fromDocument = Integer.parseInt(parts[2]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a valid page token: " + token);
+            }
+            if (fromTree < 0 || fromTree >= this.KDBTrees.size()) {
+                throw new IllegalArgumentException("Not a valid page token: " + token);
+            }
+        }
+        final List<Document> collector = new ArrayList<>();
+        final DocumentVisitor visitor = collector(collector);
+        for (int i = fromTree; i < this.KDBTrees.size(); i++) {
+            final long next = i == fromTree
+                    ? this.KDBTrees.get(i).page(upperPoint, lowerPoint, filter, visitor, fromNode, fromDocument, pageSize - collector.size())
+                    : this.KDBTrees.get(i).page(upperPoint, lowerPoint, filter, visitor, 1, 0, pageSize - collector.size());
+            if (next != -1) {
+                return new QueryPage(collector, i + "." + (next >>> 32) + "." + (int) next);
+            }
+        }
+        return new QueryPage(collector, null);
+    }
+
+    /**
+     * Draws a uniform random sample of the documents inside the provided bounding box whose attributes match the
+     * provided filter, without replacement. Nodes within the query contribute their exact number of documents
+     * without visiting them, so only the leaves on the border of the query are checked one by one, and the
+     * sample is drawn from the positions of all the matches. The same seed gives the same sample.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param size       The number of documents of the sample, all the matching documents if there are fewer.
+     * @param seed       The seed of the random generator.
+     * @return the sampled documents, in the order of the index.
+     */
+    public List<Document> sample(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final int size, final long seed) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The sample size must be positive: " + size);
+        }
+        final DocumentVisitor.RangeCollector ranges = new DocumentVisitor.RangeCollector();
+        for (KDBTree tree : this.KDBTrees) {
+            tree.query(upperPoint, lowerPoint, filter, ranges, null);
+        }
+        final List<Document> collector = new ArrayList<>(size);
+        final DocumentVisitor visitor = collector(collector);
+        if (ranges.count <= size) {
+            for (int r = 0; r < ranges.size; r++) {
+                visitor.visitRange(this.documents, ranges.starts[r], ranges.ends[r]);
+            }
+            return collector;
+        }
+        //Floyd's algorithm draws distinct ranks among all the matches
+        final Random random = new Random(seed);
+        final Set<Integer> selected = new HashSet<>();
+        for (long j = ranges.count - size; j < ranges.count; j++) {
+            final int rank = random.nextInt((int) j + 1);
+            if (!selected.add(rank)) {
+                selected.add((int) j);
+            }
+        }
+        final int[] ranks = new int[size];
+        int i = 0;
+        for (Integer rank : selected) {
+            ranks[i++] = rank;
+        }
+        Arrays.sort(ranks);
+        //map the ranks to the positions of the documents
+        int range = 0;
+        int rangeFirstRank = 0;
+        for (int rank : ranks) {
+            while (rank >= rangeFirstRank + ranges.ends[range] - ranges.starts[range]) {
+                rangeFirstRank += ranges.ends[range] - ranges.starts[range];
+                range++;
+            }
+            visitor.visit(this.documents, ranges.starts[range] + rank - rangeFirstRank);
+        }
+        return collector;
+    }
+
+    /**
+     * Groups the documents inside the provided bounding box whose attributes match the provided filter into one
+     * cluster per cell of a grid over the box, for drawing a map zoomed out. Each cluster has the number of documents
+     * whose group falls in the cell and their centroid. Nodes within the box and not bigger than a cell are grouped
+     * at once using the counts and centroids computed at build time.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param cellSize   The size of the cells in degrees.
+     * @return the clusters, in no particular order.
+     * @throws IllegalArgumentException if the cell size is not positive.
+     */
+    public List<Cluster> clustersByCellSize(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final double cellSize) {
+        return cluster(upperPoint, lowerPoint, filter, new ClusterGrid(upperPoint, lowerPoint, cellSize));
+    }
+
+    /**
+     * Groups the documents inside the provided bounding box like {@link #clustersByCellSize(double[], double[], AttributeFilter, double)}
+     * with the smallest cells that return at most the provided number of clusters.
+     *
+     * @param upperPoint  The upper left corner of the bounding box.
+     * @param lowerPoint  The lower right corner of the bounding box.
+     * @param filter      The filter on the attributes, or null to match any value.
+     * @param maxClusters The maximum number of clusters.
+     * @return the clusters, in no particular order.
+     * @throws IllegalArgumentException if the maximum number of clusters is not positive.
+     */
+    public List<Cluster> clustersByCount(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final int maxClusters) {
+        return cluster(upperPoint, lowerPoint, filter, ClusterGrid.withMaxClusters(upperPoint, lowerPoint, maxClusters));
+    }
+
+    private List<Cluster> cluster(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final ClusterGrid grid) {
+        for (KDBTree tree : this.KDBTrees) {
+            tree.cluster(upperPoint, lowerPoint, filter, grid);
+        }
+        return grid.clusters();
+    }
+
+    /**
+     * Executes {@link #contains(double[], double[], AttributeFilter, QueryDeadline)} on the provided executor.
+     * Cancelling the returned future cancels the deadline, so the query stops at the next node or leaf.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param deadline   The deadline, it starts counting when this method is called.
+     * @param executor   The executor running the query.
+     * @return a future completed with the result.
+     * @throws IllegalArgumentException if the deadline is null, as it is needed for cancelling the query.
+     */
+    public CompletableFuture<QueryResult> containsAsync(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter,
+                                                        final QueryDeadline deadline, final Executor executor) {
+        if (deadline == null) {
+            throw new IllegalArgumentException("The deadline is required, use QueryDeadline.none() for queries without time limit");
+        }
+        final CompletableFuture<QueryResult> future = CompletableFuture.supplyAsync(() -> contains(upperPoint, lowerPoint, filter, deadline), executor);
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                deadline.cancel();
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void nearest(final double[] point, final int k, final List<Document> collector) {
+        final PriorityQueue<Neighbor> neighbors = new PriorityQueue<>(Neighbor.FARTHEST_FIRST);
+        for (KDBTree tree : this.KDBTrees) {
+            tree.nearest(point, k, neighbors);
+        }
+        Neighbor.collect(neighbors, collector, this.payloads);
+    }
+
+    /**
+     * Time spent on each phase of the build, summed over all the trees.
+     *
+     * @return the build timings.
+     */
+    public BuildTimings getBuildTimings() {
+        return this.buildTimings;
+    }
+
+    @Override
+    public RamUsage ramUsage() {
+        final RamUsage usage = new RamUsage();
+        for (KDBTree tree : this.KDBTrees) {
+            usage.add(tree.ramUsage());
+        }
+        // the array holding the documents and the list of trees
+        usage.points += RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+        if (this.payloads != null) {
+            usage.payloads += this.payloads.ramBytesUsed();
+        }
+        usage.nodeBoundaries += RamUsageEstimator.sizeOfObjectArray(this.KDBTrees.size())
+                + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 3 * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+        if (this.KDBTrees.size() > 1) {
+            // the header of the shared array of node boxes, a single tree accounts it as its own
+            usage.nodeBoundaries += RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER);
         }
+        return usage;
     }
 
     @Override
@@ -96,6 +698,8 @@ public class BKDTree implements Tree {
         for(int i =0; i < this.KDBTrees.size(); i++) {
             builder.append(" Tree " + (i + 1) + ": " + this.KDBTrees.get(i).toString() + "\n");
         }
+        builder.append("Memory: " + ramUsage() + "\n");
+        builder.append("Build: " + this.buildTimings + "\n");
         return builder.toString();
     }
 }
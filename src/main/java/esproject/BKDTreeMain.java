@@ -17,6 +17,22 @@ public class BKDTreeMain {
      * @throws IOException if there is an error reading the input files.
      */
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && "--benchmark".equals(args[0])) {
+            BenchmarkMain.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "--tune".equals(args[0])) {
+            TuneMain.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "--export".equals(args[0])) {
+            ExportMain.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "--server".equals(args[0])) {
+            ServerMain.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         if (args.length == 1) {
             if ("-h".equals(args[0]) || "--help".equals(args[0])) {
                 printUsage();
@@ -38,7 +54,7 @@ public class BKDTreeMain {
             System.out.println("The input query file does not exists: " + args[1]);
             System.exit(0);
         }
-        int docsPerLeaf = KDBTree.DEFAULT_DOCUMENTS_PER_LEAF;
+        int docsPerLeaf = IndexSettings.load(dataFile).maxDocumentsPerLeaf;
         if (args.length == 3) {
             try {
                 docsPerLeaf = Integer.parseInt(args[2]);
@@ -55,7 +71,7 @@ public class BKDTreeMain {
         }
         System.out.println("Program started, loading points in memory....");
         long start = System.currentTimeMillis();
-        Document[] documents = readDocuments(dataFile);
+        Document[] documents = readDocumentsOrExit(dataFile);
         long end = System.currentTimeMillis();
         int numberDocs = documents.length;
         double timeLoadingDocuments = 1e-3 * (end -start);
@@ -72,106 +88,146 @@ public class BKDTreeMain {
         System.out.println( "Executing queries...");
         System.out.println();
 
-        int[] results = executeQueries(queryFile, tree);
+        AggregatedQueryStats queryStats = new AggregatedQueryStats();
+        long[] results = executeQueries(queryFile, tree, queryStats);
 
         System.out.println("Summary");
         System.out.println("--------");
         System.out.println(tree.toString());
         System.out.println("Time spent loading " + numberDocs + " points into memory: " + formatDouble(timeLoadingDocuments));
         System.out.println("Time spent indexing the points: " + formatDouble(timeBuildingIndex));
-        System.out.println(results[0] + " queries has been executed in " + formatDouble(1e-3 * results[2]) + " seconds (" + formatDouble(results[0]/(1e-3 * results[2])) + " queries per second)");
+        System.out.println("Estimated heap used by the index: " + RamUsageEstimator.humanReadable(tree.ramBytesUsed())
+                + " (" + (numberDocs == 0 ? 0 : tree.ramBytesUsed() / numberDocs) + " bytes per point)");
+        System.out.println(results[0] + " queries has been executed in " + formatDouble(1e-9 * results[2]) + " seconds (" + formatDouble(results[0]/(1e-9 * results[2])) + " queries per second)");
         System.out.println("Total number of hits: " + results[1]);
+        System.out.println("Query statistics: " + queryStats);
         System.out.println();
     }
 
     /**
-     * Read the points file and return an array of {@link Document}.
+     * Read the points file and return an array of {@link Document}. If the heap runs short the points
+     * read so far are returned.
      *
      * @param file the location of the documents file.
      * @return an array of {@link Document}.
      * @throws IOException if there is an error reading the file.
+     * @throws IllegalArgumentException if a line is not properly formed, with the offending line in the message.
+     */
+    static Document[] readDocuments(File file) throws IOException{
+        return readDocuments(file, true);
+    }
+
+    /**
+     * Read the points file and return an array of {@link Document}.
+     *
+     * @param file     the location of the documents file.
+     * @param truncate whether to return the points read so far if the heap runs short, or to fail.
+     * @return an array of {@link Document}.
+     * @throws IOException if there is an error reading the file.
+     * @throws IllegalArgumentException if a line is not properly formed, with the offending line in the message.
+     * @throws IllegalStateException if the heap runs short and truncate is false.
      */
-    private static Document[] readDocuments(File file) throws IOException{
+    static Document[] readDocuments(File file, boolean truncate) throws IOException{
         ArrayList<Document> documents = new ArrayList<>();
-        FileInputStream inputStream = new FileInputStream(file);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        String line;
-        int count =0;
-        while ((line = reader.readLine()) != null) {
-            String[] data = line.split("\\s+");
-            if (data.length != 3) {
-                System.out.println("Index input data not properly formed: " + line);
-                System.exit(0);
-            }
-            double longitude = -999;
-            double latitude = -999;
-            try {
-                longitude = Double.parseDouble(data[2]);
-                latitude = Double.parseDouble(data[1]);
-            } catch (NumberFormatException e) {
-                System.out.println("Index input data not properly formed, not a number: " + line);
-                System.exit(0);
-            }
-            if (!BoundingBoxUtils.checkLongitude(longitude)) {
-                System.out.println("Index input data not properly formed, longitude out of bounds: " + line);
-                System.exit(0);
-            }
-            if (!BoundingBoxUtils.checkLatitude(latitude)) {
-                System.out.println("Index input data not properly formed, latitude out of bounds: " + line);
-                System.exit(0);
-            }
-            documents.add(new Document(data[0], longitude, latitude));
-            if (++count % 1e6 == 0) {
-                System.out.print(new StringBuilder("\r  " + (int)(count / 1e6) + " million points loaded in memory"));
-            }
-            //basic check to prevent out of memory errors. Documents should get at maximum 80% of
-            //available heap
-            if (Runtime.getRuntime().totalMemory() == Runtime.getRuntime().maxMemory()) {
-                if (Runtime.getRuntime().freeMemory() < 0.2 * Runtime.getRuntime().maxMemory()) {
-                    System.out.println();
-                    System.out.println("No more memory for points, breaking early...");
-                    break;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
+            String line;
+            int count = 0;
+            while ((line = reader.readLine()) != null) {
+                String[] data = line.split("\\s+");
+                if (data.length != 3 && data.length != 4) {
+                    throw new IllegalArgumentException("Index input data not properly formed: " + line);
+                }
+                final double longitude;
+                final double latitude;
+                double value = 0;
+                try {
+                    longitude = Double.parseDouble(data[2]);
+                    latitude = Double.parseDouble(data[1]);
+                    if (data.length == 4) {
+                        value = Double.parseDouble(data[3]);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Index input data not properly formed, not a number: " + line);
+                }
+                if (!BoundingBoxUtils.checkLongitude(longitude)) {
+                    throw new IllegalArgumentException("Index input data not properly formed, longitude out of bounds: " + line);
+                }
+                if (!BoundingBoxUtils.checkLatitude(latitude)) {
+                    throw new IllegalArgumentException("Index input data not properly formed, latitude out of bounds: " + line);
+                }
+                if (!Double.isFinite(value)) {
+                    throw new IllegalArgumentException("Index input data not properly formed, value not finite: " + line);
+                }
+                documents.add(data.length == 4 ? new Document(data[0], longitude, latitude, value) : new Document(data[0], longitude, latitude));
+                if (++count % 1e6 == 0) {
+                    System.out.print(new StringBuilder("\r  " + (int)(count / 1e6) + " million points loaded in memory"));
+                }
+                //basic check to prevent out of memory errors. Documents should get at maximum 80% of
+                //available heap
+                if (Runtime.getRuntime().totalMemory() == Runtime.getRuntime().maxMemory()) {
+                    if (Runtime.getRuntime().freeMemory() < 0.2 * Runtime.getRuntime().maxMemory()) {
+                        if (!truncate) {
+                            throw new IllegalStateException("No more memory for points after " + count + " points");
+                        }
+                        System.out.println();
+                        System.out.println("No more memory for points, breaking early...");
+                        break;
+                    }
                 }
             }
         }
-        reader.close();
         System.out.println();
         return documents.toArray(new Document[documents.size()]);
     }
 
     /**
-     * Reads the file containing the queries and execute them.
+     * Reads the points file for a command line entry point, exiting if a line is not properly formed.
+     *
+     * @param file the location of the documents file.
+     * @return an array of {@link Document}.
+     * @throws IOException if there is an error reading the file.
+     */
+    static Document[] readDocumentsOrExit(File file) throws IOException {
+        try {
+            return readDocuments(file);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(0);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the file containing the queries. Lines that are not properly formed are skipped.
      *
      * @param file the location of the queries file.
-     * @param tree the {@link BKDTree} to be queried.
-     * @return an array containing the number of queries executed, the total hits and the total execution time
+     * @return the list of queries, each one as {upperPoint, lowerPoint}.
      * @throws IOException if there is an error reading the file.
      */
-    private static int[] executeQueries(File file, BKDTree tree) throws IOException{
+    static List<double[][]> readQueries(File file) throws IOException {
         FileInputStream inputStream = new FileInputStream(file);
-        int totalTime =0;
-        int totalHits =0;
-        int numberOfQueries =0;
-
-        List<Document> answerContainer = new ArrayList<>();
-
+        List<double[][]> queries = new ArrayList<>();
         BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
         String line;
 
         while ((line = reader.readLine()) != null) {
             String[] data = line.split("\\s+");
-            if (data.length != 4) {
+            if (data.length != 4 && data.length != 6) {
                 System.out.println("Skipping query because input data not properly formed: " + line);
                 System.out.println();
                 continue;
             }
-            double[] upperPoint = new double[2];
-            double[] lowerPoint= new double[2];
+            double[] upperPoint = new double[data.length / 2];
+            double[] lowerPoint= new double[data.length / 2];
             try {
                 upperPoint[0] = Double.parseDouble(data[3]);
                 upperPoint[1] = Double.parseDouble(data[1]);
                 lowerPoint[0] = Double.parseDouble(data[2]);
                 lowerPoint[1] = Double.parseDouble(data[0]);
+                if (data.length == 6) {
+                    upperPoint[2] = Double.parseDouble(data[5]);
+                    lowerPoint[2] = Double.parseDouble(data[4]);
+                }
             } catch (NumberFormatException e) {
                 System.out.println("Skipping query because input data not properly formed, not a number: " + line);
                 System.out.println();
@@ -182,37 +238,59 @@ public class BKDTreeMain {
                 System.out.println();
                 continue;
             }
-            long start = System.currentTimeMillis();
-            executeQuery(upperPoint, lowerPoint, tree, answerContainer);
-            long end = System.currentTimeMillis();
+            queries.add(new double[][] {upperPoint, lowerPoint});
+        }
+        reader.close();
+        return queries;
+    }
+
+    /**
+     * Reads the file containing the queries and execute them.
+     *
+     * @param file the location of the queries file.
+     * @param tree the {@link BKDTree} to be queried.
+     * @param queryStats the aggregated statistics of the executed queries.
+     * @return an array containing the number of queries executed, the total hits and the total execution time in nanoseconds
+     * @throws IOException if there is an error reading the file.
+     */
+    private static long[] executeQueries(File file, BKDTree tree, AggregatedQueryStats queryStats) throws IOException{
+        long totalTime =0;
+        long totalHits =0;
+        int numberOfQueries =0;
+
+        List<Document> answerContainer = new ArrayList<>();
+        QueryStats stats = new QueryStats();
+
+        for (double[][] query : readQueries(file)) {
+            System.out.println("Executing query: " + query[1][1] + " " + query[0][1] + " " + query[1][0] + " " + query[0][0]);
+            System.out.println();
+            //only the query is timed, printing the results is not
+            long start = System.nanoTime();
+            tree.contains(query[0], query[1], answerContainer, stats);
+            long end = System.nanoTime();
+            printResults(answerContainer);
             System.out.println();
             System.out.println("Hits: " + answerContainer.size());
-            System.out.println("Query took " + formatDouble(1e-3 * (end - start)) + " seconds");
+            System.out.println("Query took " + formatDouble(1e-9 * (end - start)) + " seconds");
+            System.out.println("Query statistics: " + stats);
             System.out.println();
+            queryStats.record(stats);
+            stats.reset();
             totalHits += answerContainer.size();
             totalTime += end - start;
             numberOfQueries++;
             //clear answer
             answerContainer.clear();
         }
-        reader.close();
-        return new int[] {numberOfQueries, totalHits, totalTime};
+        return new long[] {numberOfQueries, totalHits, totalTime};
     }
 
     /**
-     * Executes one query with the input provided.
+     * Prints the first results of one query.
      *
-     * @param upperPoint The left upper corner of the bounding box.
-     * @param lowerPoint The right lower corner of the bounding box.
-     * @param tree the {@link BKDTree} to be queried.
-     * @param answer the list collector.
+     * @param answer the results of the query.
      */
-    private static void executeQuery(double[] upperPoint, double[] lowerPoint, BKDTree tree, List<Document> answer) {
-        System.out.println("Executing query: " + lowerPoint[1] + " " + upperPoint[1] + " " + lowerPoint[0] + " " + upperPoint[0]);
-        System.out.println();
-
-        tree.contains(upperPoint, lowerPoint, answer);
-
+    private static void printResults(List<Document> answer) {
         System.out.println(" Results");
         System.out.println(" --------------------------");
 
@@ -241,9 +319,25 @@ public class BKDTreeMain {
         System.out.println();
         System.out.println("       -h | --help                      :       display this help");
         System.out.println();
-        System.out.println("  Format of 'geopoints.csv'; a string id, then latitude, then longitude, separated by one or more spaces");
-        System.out.println("  Format of 'queries.csv'; minimum latitude, maximum latitude, minimum longitude and maximum longitude, all separated by one or more spaces");
-        System.out.println("  The number of points per leaf is optional (default 1024). If provided it must be an integer bigger than one");
+        System.out.println("  usage: java -jar <jarfile>.jar --benchmark /path/to/geo_points.csv [/path/to/queries.csv] [options]");
+        System.out.println();
+        System.out.println("       replays the queries from several threads and reports latency percentiles, see BenchmarkMain");
+        System.out.println();
+        System.out.println("  usage: java -jar <jarfile>.jar --server /path/to/geo_points.csv [options]");
+        System.out.println();
+        System.out.println("       builds the index once and serves queries on localhost, see ServerMain");
+        System.out.println();
+        System.out.println("  usage: java -jar <jarfile>.jar --export /path/to/geo_points.csv /path/to/queries.csv --output /path/to/hits [options]");
+        System.out.println();
+        System.out.println("       writes all the hits of the queries to a binary or CSV file, see ExportMain");
+        System.out.println();
+        System.out.println("  usage: java -jar <jarfile>.jar --tune /path/to/geo_points.csv [/path/to/queries.csv] [options]");
+        System.out.println();
+        System.out.println("       measures several numbers of points per leaf and stores the best one for the points file, see TuneMain");
+        System.out.println();
+        System.out.println("  Format of 'geopoints.csv'; a string id, then latitude, then longitude, optionally followed by a value, separated by one or more spaces");
+        System.out.println("  Format of 'queries.csv'; minimum latitude, maximum latitude, minimum longitude and maximum longitude, optionally followed by minimum value and maximum value, all separated by one or more spaces");
+        System.out.println("  The number of points per leaf is optional (default 1024 or the value stored by --tune). If provided it must be an integer bigger than one");
         System.out.println();
     }
 
@@ -253,7 +347,7 @@ public class BKDTreeMain {
      * @param aDouble the double to be formatted.
      * @return The number formatted as string.
      */
-    private static String formatDouble(double aDouble){
+    static String formatDouble(double aDouble){
         NumberFormat numberFormatter = new DecimalFormat("####0.000");
         return numberFormatter.format(aDouble);
     }
@@ -0,0 +1,282 @@
+package esproject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class to execute the query benchmark. It loads the points, builds one shared {@link BKDTree} and
+ * replays the queries from a file or from a synthetic generator with an increasing number of threads,
+ * reporting the throughput and the latency percentiles for each number of threads.
+ */
+public class BenchmarkMain {
+
+    /**
+     * Entry point of the benchmark.
+     *
+     * @param args Provided arguments. See usage.
+     * @throws IOException if there is an error reading the input files.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 && ("-h".equals(args[0]) || "--help".equals(args[0]))) {
+            printUsage();
+            System.exit(0);
+        }
+        final CommandLineOptions options;
+        final int docsPerLeaf;
+        final int[] threads;
+        final double rate;
+        final double warmup;
+        final double duration;
+        final long expectedIntervalNanos;
+        final int syntheticQueries;
+        final double maxExtent;
+        final long seed;
+        final boolean recordStats;
+        final int shards;
+        final ShardedTree.Partitioning partitioning;
+        final SplitPolicy splitPolicy;
+        final NodeLayout nodeLayout;
+        final String payloads;
+        final int plannerDepth;
+        try {
+            options = new CommandLineOptions(args);
+            docsPerLeaf = options.getInt("leaf", options.positional().isEmpty() ? KDBTree.DEFAULT_DOCUMENTS_PER_LEAF
+                    : IndexSettings.load(new File(options.positional().get(0))).maxDocumentsPerLeaf);
+            threads = options.getIntList("threads", new int[] {1, 2, 4, 8});
+            rate = options.getDouble("rate", 0);
+            warmup = options.getDouble("warmup", 2);
+            duration = options.getDouble("duration", 10);
+            expectedIntervalNanos = (long) (1e3 * options.getDouble("expected-interval-us", 0));
+            syntheticQueries = options.getInt("synthetic-queries", 1000);
+            maxExtent = options.getDouble("max-extent", 10);
+            seed = options.getLong("seed", 0);
+            recordStats = Boolean.parseBoolean(options.getString("stats", "false"));
+            shards = options.getInt("shards", 0);
+            partitioning = parsePartitioning(options.getString("partitioning", "spatial"));
+            splitPolicy = parseSplitPolicy(options.getString("split", "fixed"));
+            nodeLayout = parseNodeLayout(options.getString("layout", "breadth-first"));
+            payloads = parsePayloads(options.getString("payloads", "string"));
+            plannerDepth = options.getInt("planner-depth", 0);
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            printUsage();
+            System.exit(0);
+            return;
+        }
+        if (options.positional().size() != 1 && options.positional().size() != 2) {
+            System.out.println("The benchmark has been called with incorrect parameters:");
+            printUsage();
+            System.exit(0);
+        }
+        if (docsPerLeaf < 2) {
+            System.out.println("The input for points per leaf must be bigger than 1: " + docsPerLeaf);
+            printUsage();
+            System.exit(0);
+        }
+        if (plannerDepth < 0) {
+            System.out.println("The planner depth must be positive: " + plannerDepth);
+            printUsage();
+            System.exit(0);
+        }
+        for (int thread : threads) {
+            if (thread < 1) {
+                System.out.println("The number of threads must be bigger than 0: " + thread);
+                printUsage();
+                System.exit(0);
+            }
+        }
+        File dataFile = new File(options.positional().get(0));
+        if (!dataFile.exists()) {
+            System.out.println("The input data file does not exists: " + dataFile);
+            System.exit(0);
+        }
+        System.out.println("Benchmark started, loading points in memory....");
+        Document[] documents = BKDTreeMain.readDocumentsOrExit(dataFile);
+        if (documents.length == 0) {
+            System.out.println("The input data file does not contain points: " + dataFile);
+            System.exit(0);
+        }
+        if (shards < 0 || shards > documents.length) {
+            System.out.println("The number of shards must be positive and not bigger than the number of points: " + shards);
+            System.exit(0);
+        }
+        long start = System.nanoTime();
+        Tree tree;
+        if (shards > 0) {
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "benchmark-shard");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ShardedTree shardedTree = new ShardedTree(documents, docsPerLeaf, shards, partitioning, splitPolicy, executor);
+            if (!"string".equals(payloads)) {
+                shardedTree.compactPayloads("dictionary".equals(payloads));
+            }
+            shardedTree.setQueryPlanning(plannerDepth);
+            tree = shardedTree;
+        } else {
+            BKDTree bkdTree = new BKDTree(documents, docsPerLeaf, splitPolicy, nodeLayout);
+            if (!"string".equals(payloads)) {
+                bkdTree.compactPayloads("dictionary".equals(payloads));
+            }
+            bkdTree.setQueryPlanning(plannerDepth);
+            tree = bkdTree;
+        }
+        long end = System.nanoTime();
+        System.out.println("Index with " + documents.length + " points has been built in : " + BKDTreeMain.formatDouble(1e-9 * (end - start)) + " seconds"
+                + (shards > 0 ? " (" + shards + " shards, " + partitioning.name().toLowerCase() + " partitioning)" : "")
+                + " using " + splitPolicy.name().toLowerCase().replace('_', '-') + " splits"
+                + (shards > 0 ? "" : " and " + nodeLayout.name().toLowerCase().replace('_', '-') + " node layout"));
+        System.out.println("Estimated heap used by the index: " + tree.ramUsage());
+
+        final List<double[][]> queries;
+        if (options.positional().size() == 2) {
+            File queryFile = new File(options.positional().get(1));
+            if (!queryFile.exists()) {
+                System.out.println("The input query file does not exists: " + queryFile);
+                System.exit(0);
+            }
+            queries = BKDTreeMain.readQueries(queryFile);
+        } else {
+            queries = QueryBenchmark.generateQueries(documents, syntheticQueries, maxExtent, seed);
+        }
+        if (queries.isEmpty()) {
+            System.out.println("No valid queries to execute");
+            System.exit(0);
+        }
+        System.out.println(queries.size() + " queries will be replayed in " + (rate > 0 ? "open-loop mode at " + BKDTreeMain.formatDouble(rate) + " queries per second" : "closed-loop mode"));
+        System.out.println();
+
+        AggregatedQueryStats queryStats = recordStats ? new AggregatedQueryStats() : null;
+        QueryBenchmark benchmark = new QueryBenchmark(tree, queries, queryStats);
+        System.out.println(String.format("%8s %12s %14s %10s %10s %10s %10s %10s %10s %12s",
+                "threads", "queries", "queries/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "hits/query"));
+        for (int thread : threads) {
+            final QueryBenchmark.Result result;
+            try {
+                result = benchmark.run(thread, rate, (long) (1e9 * warmup), (long) (1e9 * duration), expectedIntervalNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            LatencyHistogram histogram = result.histogram;
+            System.out.println(String.format("%8d %12d %14s %10s %10s %10s %10s %10s %10s %12s",
+                    thread, result.queries, BKDTreeMain.formatDouble(result.throughput()),
+                    millis(histogram.getMean()), millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(90)), millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()),
+                    BKDTreeMain.formatDouble(result.queries == 0 ? 0 : (double) result.hits / result.queries)));
+        }
+        System.out.println();
+        if (queryStats != null) {
+            System.out.println("Query statistics: " + queryStats);
+            System.out.println();
+        }
+    }
+
+    /**
+     * Parses the partitioning of the shards.
+     *
+     * @param value the provided value.
+     * @return the partitioning.
+     * @throws IllegalArgumentException if the value is not a valid partitioning.
+     */
+    private static ShardedTree.Partitioning parsePartitioning(String value) {
+        try {
+            return ShardedTree.Partitioning.valueOf(value.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The option --partitioning must be spatial or round-robin: " + value);
+        }
+    }
+
+    /**
+     * Parses the split policy of the trees.
+     *
+     * @param value the provided value.
+     * @return the split policy.
+     * @throws IllegalArgumentException if the value is not a valid split policy.
+     */
+    private static SplitPolicy parseSplitPolicy(String value) {
+        try {
+            return SplitPolicy.valueOf(value.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The option --split must be fixed, widest-extent, max-variance or hilbert: " + value);
+        }
+    }
+
+    /**
+     * Parses the order of the node boxes of the trees.
+     *
+     * @param value the provided value.
+     * @return the node layout.
+     * @throws IllegalArgumentException if the value is not a valid node layout.
+     */
+    private static NodeLayout parseNodeLayout(String value) {
+        try {
+            return NodeLayout.valueOf(value.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The option --layout must be breadth-first or blocked: " + value);
+        }
+    }
+
+    /**
+     * Parses how the string data of the points is stored.
+     *
+     * @param value the provided value.
+     * @return the storage, string, compact or dictionary.
+     * @throws IllegalArgumentException if the value is not a valid storage.
+     */
+    static String parsePayloads(String value) {
+        if (!"string".equals(value) && !"compact".equals(value) && !"dictionary".equals(value)) {
+            throw new IllegalArgumentException("The option --payloads must be string, compact or dictionary: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds.
+     *
+     * @param nanos the nanoseconds.
+     * @return The milliseconds formatted as string.
+     */
+    private static String millis(double nanos) {
+        return BKDTreeMain.formatDouble(1e-6 * nanos);
+    }
+
+    /**
+     * Prints the usage of the benchmark.
+     */
+    private static void printUsage() {
+        System.out.println();
+        System.out.println("  usage: java -jar <jarfile>.jar --benchmark /path/to/geo_points.csv [/path/to/queries.csv] [options]");
+        System.out.println();
+        System.out.println("       --leaf N                         :       number of points per leaf (default 1024 or the value stored by --tune)");
+        System.out.println("       --threads 1,2,4,8                :       comma separated list of number of threads to run with");
+        System.out.println("       --rate N                         :       total queries per second in open-loop mode (default closed-loop)");
+        System.out.println("       --warmup S                       :       seconds executing queries before recording (default 2)");
+        System.out.println("       --duration S                     :       seconds recording queries for each number of threads (default 10)");
+        System.out.println("       --expected-interval-us U         :       expected microseconds between queries in closed-loop mode, used");
+        System.out.println("                                                to correct coordinated omission (default no correction)");
+        System.out.println("       --synthetic-queries N            :       number of queries to generate if no query file is provided (default 1000)");
+        System.out.println("       --max-extent D                   :       maximum width and height in degrees of generated queries (default 10)");
+        System.out.println("       --seed S                         :       seed for generating queries (default 0)");
+        System.out.println("       --stats true|false               :       record and print query execution statistics (default false)");
+        System.out.println("       --shards N                       :       split the index into N shards queried in parallel (default no shards)");
+        System.out.println("       --partitioning spatial|round-robin:      how points are assigned to shards (default spatial)");
+        System.out.println("       --split fixed|widest-extent|max-variance|hilbert: how the points of each node are divided (default fixed)");
+        System.out.println("       --layout breadth-first|blocked   :       order of the node boxes in memory, level by level or in blocks of");
+        System.out.println("                                                several levels that fit in a page, not used with shards (default breadth-first)");
+        System.out.println("       --payloads string|compact|dictionary:   keep point ids as strings, in a compact UTF-8 store or in a");
+        System.out.println("                                                compact store with duplicated ids stored once (default string)");
+        System.out.println("       --planner-depth N                :       plan each query estimating its cost from N levels of each tree,");
+        System.out.println("                                                choosing between traversal and linear scans (default 0, disabled)");
+        System.out.println();
+    }
+
+    private BenchmarkMain() {
+        //no instances
+    }
+}
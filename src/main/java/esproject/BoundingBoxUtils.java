@@ -2,7 +2,8 @@ package esproject;
 
 /**
  * Methods for computing spatial relationship between two bounding boxes and a bounding box
- * and a point.
+ * and a point. Points and bounding boxes can have a third dimension after the longitude and
+ * latitude which is only considered when both of them have it.
  */
 class BoundingBoxUtils {
 
@@ -14,6 +15,8 @@ class BoundingBoxUtils {
     public static final int CONTAINS = 2;
     /** first bounding boxes is within second bounding box*/
     public static final int WITHIN = 3;
+    /** mean earth radius in meters used for computing distances*/
+    public static final double EARTH_MEAN_RADIUS_METERS = 6_371_008.7714;
 
     /**
      * Checks if a bounding box is valid.
@@ -23,6 +26,9 @@ class BoundingBoxUtils {
      * @return true if it i valid.
      */
     public static boolean checkBoundingBox(final double[] upperPoint, final double[] lowerPoint) {
+        if (upperPoint.length != lowerPoint.length || upperPoint.length > 2 && !(upperPoint[2] >= lowerPoint[2])) {
+            return false;
+        }
         if (checkLongitude(upperPoint[0]) && checkLongitude(lowerPoint[0])
                 && checkLatitude(lowerPoint[1]) && checkLatitude(lowerPoint[1])) {
             if (upperPoint[1] >= lowerPoint[1]) {
@@ -62,6 +68,9 @@ class BoundingBoxUtils {
      */
     public static boolean contains(final double[] upperPoint, final double[] lowerPoint, final double[] point)
     {
+        if (point.length > 2 && upperPoint.length > 2 && (point[2] > upperPoint[2] || point[2] < lowerPoint[2])) {
+            return false;
+        }
         if(point[1] <= upperPoint[1] && point[1] >=  lowerPoint[1]) {
             double minX = lowerPoint[0];
             double maxX = upperPoint[0];
@@ -84,6 +93,119 @@ class BoundingBoxUtils {
         }
     }
 
+    /**
+     * Computes the haversine distance between two points.
+     *
+     * @param point1 The first point.
+     * @param point2 The second point.
+     * @return the distance in meters.
+     */
+    public static double distance(final double[] point1, final double[] point2) {
+        return distance(point1[1], point1[0], point2[1], point2[0]);
+    }
+
+    /**
+     * Computes the minimum haversine distance between a point and any point of a bounding box. Bounding
+     * boxes crossing the dateline are supported.
+     *
+     * @param upperPoint The left upper corner of the bounding box.
+     * @param lowerPoint The right lower corner of the bounding box.
+     * @param point The point.
+     * @return the distance in meters, 0 if the point is inside the bounding box.
+     */
+    public static double distance(final double[] upperPoint, final double[] lowerPoint, final double[] point) {
+        if (contains(upperPoint, lowerPoint, point)) {
+            return 0;
+        }
+        final double lat = point[1];
+        final double lon = point[0];
+        if (contains(new double[] {upperPoint[0], 90}, new double[] {lowerPoint[0], -90}, point)) {
+            //the closest point is on the same meridian
+            return distance(lat, lon, Math.max(lowerPoint[1], Math.min(upperPoint[1], lat)), lon);
+        }
+        //for a given latitude the distance grows with the longitude difference so the closest
+        //point is on the closest meridian edge.
+        final double lowerDelta = longitudeDelta(lon, lowerPoint[0]);
+        final double upperDelta = longitudeDelta(lon, upperPoint[0]);
+        final double deltaLon = Math.abs(lowerDelta) < Math.abs(upperDelta) ? lowerDelta : upperDelta;
+        final double edgeLon = lon + deltaLon;
+        //the cosine of the distance to a point on the meridian is a sinusoid of its latitude, it is
+        //maximum at its peak or at the ends of the segment.
+        final double peak = Math.toDegrees(Math.atan2(Math.sin(Math.toRadians(lat)), Math.cos(Math.toRadians(lat)) * Math.cos(Math.toRadians(deltaLon))));
+        double distance = distance(lat, lon, Math.max(lowerPoint[1], Math.min(upperPoint[1], peak)), edgeLon);
+        distance = Math.min(distance, distance(lat, lon, lowerPoint[1], edgeLon));
+        return Math.min(distance, distance(lat, lon, upperPoint[1], edgeLon));
+    }
+
+    /**
+     * Computes a longitude and latitude bounding box that contains every point within the provided distance of
+     * any point of a bounding box. The longitude range is widened by the largest longitude difference of a circle
+     * centered at the latitude of the box farthest from the equator, and it covers every longitude if the circle
+     * might contain a pole. The result crosses the dateline if the widened range does.
+     *
+     * @param upperPoint The left upper corner of the bounding box, it does not cross the dateline.
+     * @param lowerPoint The right lower corner of the bounding box, it does not cross the dateline.
+     * @param meters The distance in meters.
+     * @return the upper corner and the lower corner of the expanded bounding box.
+     */
+    public static double[][] expand(final double[] upperPoint, final double[] lowerPoint, final double meters) {
+        final double angle = meters / EARTH_MEAN_RADIUS_METERS;
+        final double deltaLat = Math.toDegrees(angle);
+        final double minLat = lowerPoint[1] - deltaLat;
+        final double maxLat = upperPoint[1] + deltaLat;
+        if (minLat <= -90 || maxLat >= 90) {
+            return new double[][] {{180, Math.min(90, maxLat)}, {-180, Math.max(-90, minLat)}};
+        }
+        final double maxAbsLat = Math.max(Math.abs(lowerPoint[1]), Math.abs(upperPoint[1]));
+        final double sinDeltaLon = Math.sin(angle) / Math.cos(Math.toRadians(maxAbsLat));
+        final double deltaLon = sinDeltaLon >= 1 ? 180 : Math.toDegrees(Math.asin(sinDeltaLon));
+        double minLon = lowerPoint[0] - deltaLon;
+        double maxLon = upperPoint[0] + deltaLon;
+        if (maxLon - minLon >= 360) {
+            return new double[][] {{180, maxLat}, {-180, minLat}};
+        }
+        if (minLon < -180) {
+            minLon += 360;
+        }
+        if (maxLon > 180) {
+            maxLon -= 360;
+        }
+        return new double[][] {{maxLon, maxLat}, {minLon, minLat}};
+    }
+
+    /**
+     * Computes the haversine distance between two points.
+     *
+     * @param lat1 The latitude of the first point.
+     * @param lon1 The longitude of the first point.
+     * @param lat2 The latitude of the second point.
+     * @param lon2 The longitude of the second point.
+     * @return the distance in meters.
+     */
+    private static double distance(final double lat1, final double lon1, final double lat2, final double lon2) {
+        final double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        final double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        final double h = sinLat * sinLat + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return 2 * EARTH_MEAN_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Computes the signed shortest longitude difference between two longitudes.
+     *
+     * @param from The first longitude.
+     * @param to The second longitude.
+     * @return the difference in degrees, between -180 and 180.
+     */
+    private static double longitudeDelta(final double from, final double to) {
+        double delta = to - from;
+        if (delta > 180) {
+            delta -= 360;
+        } else if (delta < -180) {
+            delta += 360;
+        }
+        return delta;
+    }
+
     /**
      * Computes the spatial relationship of the first provided bounding box with the second one.
      *
@@ -95,27 +217,131 @@ class BoundingBoxUtils {
      * of {@value DISJOINT}, {@value INTERSECTS}, {@value CONTAINS} or {@value WITHIN}.
      */
     public static int relate(final double[] upperPoint1, final double[] lowerPoint1, final double[] upperPoint2, final double[] lowerPoint2) {
-        final int yIntersect = relate(lowerPoint1[1], upperPoint1[1],lowerPoint2[1], upperPoint2[1]);
+        final boolean hasValue = upperPoint1.length > 2;
+        return relate(lowerPoint1[0], upperPoint1[0], lowerPoint1[1], upperPoint1[1], hasValue,
+                hasValue ? lowerPoint1[2] : 0, hasValue ? upperPoint1[2] : 0, upperPoint2, lowerPoint2);
+    }
+
+    /**
+     * Computes the spatial relationship of a bounding box packed in an array with a second bounding box, like
+     * {@link #relate(double[], double[], double[], double[])}. A packed bounding box holds the coordinates of
+     * its upper corner followed by the coordinates of its lower corner.
+     *
+     * @param boxes       The array holding the first bounding box.
+     * @param offset      The position of the first bounding box on the array.
+     * @param dimensions  The number of dimensions of the first bounding box.
+     * @param upperPoint2 The left upper corner of the second bounding box.
+     * @param lowerPoint2 The right lower corner of the second bounding box.
+     * @return the relationship of the first bounding box with the second bounding box.
+     */
+    public static int relate(final double[] boxes, final int offset, final int dimensions, final double[] upperPoint2, final double[] lowerPoint2) {
+        final boolean hasValue = dimensions > 2;
+        return relate(boxes[offset + dimensions], boxes[offset], boxes[offset + dimensions + 1], boxes[offset + 1], hasValue,
+                hasValue ? boxes[offset + dimensions + 2] : 0, hasValue ? boxes[offset + 2] : 0, upperPoint2, lowerPoint2);
+    }
+
+    private static int relate(final double minLon1, final double maxLon1, final double minLat1, final double maxLat1, final boolean hasValue1,
+                              final double minValue1, final double maxValue1, final double[] upperPoint2, final double[] lowerPoint2) {
+        final int relation = relateSpatial(minLon1, maxLon1, minLat1, maxLat1, upperPoint2, lowerPoint2);
+        if (relation == DISJOINT || !hasValue1 || upperPoint2.length < 3) {
+            return relation;
+        }
+        final int valueIntersect = relate(minValue1, maxValue1, lowerPoint2[2], upperPoint2[2]);
+        if (valueIntersect == DISJOINT) {
+            return DISJOINT;
+        }
+        if (valueIntersect == relation) {
+            return relation;
+        }
+        if (maxValue1 == upperPoint2[2] && minValue1 == lowerPoint2[2]) {
+            return relation;
+        }
+        return INTERSECTS;
+    }
+
+    private static int relateSpatial(final double minLon1, final double maxLon1, final double minLat1, final double maxLat1,
+                                     final double[] upperPoint2, final double[] lowerPoint2) {
+        final int yIntersect = relate(minLat1, maxLat1, lowerPoint2[1], upperPoint2[1]);
         if(yIntersect == 0) {
             return DISJOINT;
         } else {
-            final int xIntersect = relateXRange(lowerPoint1[0], upperPoint1[0],lowerPoint2[0], upperPoint2[0]);
+            final int xIntersect = relateXRange(minLon1, maxLon1, lowerPoint2[0], upperPoint2[0]);
             if(xIntersect == DISJOINT) {
                 return DISJOINT;
             }
             if (xIntersect == yIntersect) {
                 return xIntersect;
             }
-            if(upperPoint1[1] == upperPoint2[1] && lowerPoint1[1] == lowerPoint2[1]) {
+            if(maxLat1 == upperPoint2[1] && minLat1 == lowerPoint2[1]) {
                 return xIntersect;
             }
-            if(upperPoint1[0] == upperPoint2[0] && lowerPoint1[0] == lowerPoint2[0]) {
+            if(maxLon1 == upperPoint2[0] && minLon1 == lowerPoint2[0]) {
                 return yIntersect;
             }
             return INTERSECTS;
         }
     }
 
+    /**
+     * Estimates the fraction of the first bounding box that is covered by the second one, assuming the points
+     * of the first bounding box are uniformly distributed. Bounding boxes crossing the dateline are supported.
+     *
+     * @param upperPoint1 The left upper corner of the first bounding box, it does not cross the dateline.
+     * @param lowerPoint1 The right lower corner of the first bounding box, it does not cross the dateline.
+     * @param upperPoint2 The left upper corner of the second bounding box.
+     * @param lowerPoint2 The right lower corner of the second bounding box.
+     * @return the covered fraction, between 0 and 1.
+     */
+    public static double overlapFraction(final double[] upperPoint1, final double[] lowerPoint1, final double[] upperPoint2, final double[] lowerPoint2) {
+        final boolean hasValue = upperPoint1.length > 2;
+        return overlapFraction(lowerPoint1[0], upperPoint1[0], lowerPoint1[1], upperPoint1[1], hasValue,
+                hasValue ? lowerPoint1[2] : 0, hasValue ? upperPoint1[2] : 0, upperPoint2, lowerPoint2);
+    }
+
+    /**
+     * Estimates the fraction of a bounding box packed in an array that is covered by a second bounding box, like
+     * {@link #overlapFraction(double[], double[], double[], double[])}. See {@link #relate(double[], int, int, double[], double[])}
+     * for the layout of packed bounding boxes.
+     *
+     * @param boxes       The array holding the first bounding box.
+     * @param offset      The position of the first bounding box on the array.
+     * @param dimensions  The number of dimensions of the first bounding box.
+     * @param upperPoint2 The left upper corner of the second bounding box.
+     * @param lowerPoint2 The right lower corner of the second bounding box.
+     * @return the covered fraction, between 0 and 1.
+     */
+    public static double overlapFraction(final double[] boxes, final int offset, final int dimensions, final double[] upperPoint2, final double[] lowerPoint2) {
+        final boolean hasValue = dimensions > 2;
+        return overlapFraction(boxes[offset + dimensions], boxes[offset], boxes[offset + dimensions + 1], boxes[offset + 1], hasValue,
+                hasValue ? boxes[offset + dimensions + 2] : 0, hasValue ? boxes[offset + 2] : 0, upperPoint2, lowerPoint2);
+    }
+
+    private static double overlapFraction(final double minLon1, final double maxLon1, final double minLat1, final double maxLat1, final boolean hasValue1,
+                                          final double minValue1, final double maxValue1, final double[] upperPoint2, final double[] lowerPoint2) {
+        double fraction;
+        if (lowerPoint2[0] <= upperPoint2[0]) {
+            fraction = overlapFraction(minLon1, maxLon1, lowerPoint2[0], upperPoint2[0]);
+        } else {
+            fraction = overlapFraction(minLon1, maxLon1, lowerPoint2[0], 180)
+                    + overlapFraction(minLon1, maxLon1, -180, upperPoint2[0]);
+        }
+        fraction *= overlapFraction(minLat1, maxLat1, lowerPoint2[1], upperPoint2[1]);
+        if (hasValue1 && upperPoint2.length > 2) {
+            fraction *= overlapFraction(minValue1, maxValue1, lowerPoint2[2], upperPoint2[2]);
+        }
+        return Math.min(1, fraction);
+    }
+
+    private static double overlapFraction(final double coordMin1, final double coordMax1, final double coordMin2, final double coordMax2) {
+        if (coordMin2 > coordMax1 || coordMax2 < coordMin1) {
+            return 0;
+        }
+        if (coordMax1 == coordMin1) {
+            return 1;
+        }
+        return (Math.min(coordMax1, coordMax2) - Math.max(coordMin1, coordMin2)) / (coordMax1 - coordMin1);
+    }
+
     private static int relateXRange(double coordMin1, double coordMax1, double coordMin2, double coordMax2) {
         double rawWidth1 = coordMax1 - coordMin1;
         if (rawWidth1 == 360.0D) {
@@ -0,0 +1,97 @@
+package esproject;
+
+/**
+ * Time spent on each phase of the bulk loading of a tree.
+ */
+public class BuildTimings {
+
+    /** nanoseconds sorting documents by longitude */
+    long longitudeSortNanos;
+    /** nanoseconds sorting each longitude partition by latitude */
+    long latitudeSortNanos;
+    /** nanoseconds ordering documents with an adaptive split policy */
+    long partitionNanos;
+    /** nanoseconds computing the bounding boxes of the leaf nodes */
+    long leafBoxesNanos;
+    /** nanoseconds computing the bounding boxes of the internal nodes */
+    long internalBoxesNanos;
+
+    /**
+     * Nanoseconds sorting documents by longitude.
+     *
+     * @return the time of the longitude sort.
+     */
+    public long getLongitudeSortNanos() {
+        return this.longitudeSortNanos;
+    }
+
+    /**
+     * Nanoseconds sorting each longitude partition by latitude.
+     *
+     * @return the time of the latitude sorts.
+     */
+    public long getLatitudeSortNanos() {
+        return this.latitudeSortNanos;
+    }
+
+    /**
+     * Nanoseconds ordering documents with an adaptive split policy, either dividing each node by the
+     * dimension chosen from its documents or sorting them along a space-filling curve.
+     *
+     * @return the time of the adaptive partitioning.
+     */
+    public long getPartitionNanos() {
+        return this.partitionNanos;
+    }
+
+    /**
+     * Nanoseconds computing the bounding boxes of the leaf nodes.
+     *
+     * @return the time computing leaf boxes.
+     */
+    public long getLeafBoxesNanos() {
+        return this.leafBoxesNanos;
+    }
+
+    /**
+     * Nanoseconds computing the bounding boxes of the internal nodes.
+     *
+     * @return the time computing internal boxes.
+     */
+    public long getInternalBoxesNanos() {
+        return this.internalBoxesNanos;
+    }
+
+    /**
+     * Total nanoseconds of all the phases.
+     *
+     * @return the total time.
+     */
+    public long getTotalNanos() {
+        return this.longitudeSortNanos + this.latitudeSortNanos + this.partitionNanos + this.leafBoxesNanos + this.internalBoxesNanos;
+    }
+
+    /**
+     * Adds the provided timings to this timings.
+     *
+     * @param other the timings to add.
+     */
+    void add(final BuildTimings other) {
+        this.longitudeSortNanos += other.longitudeSortNanos;
+        this.latitudeSortNanos += other.latitudeSortNanos;
+        this.partitionNanos += other.partitionNanos;
+        this.leafBoxesNanos += other.leafBoxesNanos;
+        this.internalBoxesNanos += other.internalBoxesNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "longitude sort: " + seconds(this.longitudeSortNanos) + "; latitude sorts: " + seconds(this.latitudeSortNanos)
+                + (this.partitionNanos > 0 ? "; adaptive partitioning: " + seconds(this.partitionNanos) : "")
+                + "; leaf boxes: " + seconds(this.leafBoxesNanos) + "; internal boxes: " + seconds(this.internalBoxesNanos);
+    }
+
+    private static String seconds(final long nanos) {
+        return BKDTreeMain.formatDouble(1e-9 * nanos) + " s";
+    }
+}
@@ -0,0 +1,50 @@
+package esproject;
+
+/**
+ * A marker for a group of documents returned by a clustering query, made of the number of documents
+ * and their centroid.
+ */
+public class Cluster {
+
+    private final long count;
+    private final double longitude;
+    private final double latitude;
+
+    Cluster(final long count, final double longitude, final double latitude) {
+        this.count = count;
+        this.longitude = longitude;
+        this.latitude = latitude;
+    }
+
+    /**
+     * The number of documents of the cluster.
+     *
+     * @return the number of documents.
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * The mean longitude of the documents of the cluster.
+     *
+     * @return the longitude of the centroid.
+     */
+    public double getLongitude() {
+        return this.longitude;
+    }
+
+    /**
+     * The mean latitude of the documents of the cluster.
+     *
+     * @return the latitude of the centroid.
+     */
+    public double getLatitude() {
+        return this.latitude;
+    }
+
+    @Override
+    public String toString() {
+        return this.count + " documents at (" + this.longitude + ", " + this.latitude + ")";
+    }
+}
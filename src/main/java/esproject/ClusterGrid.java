@@ -0,0 +1,131 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grid of square cells over a query bounding box that merges the groups of documents added to it into one
+ * {@link Cluster} per cell. Each group is added with its number of documents and its centroid and belongs to
+ * the cell of its centroid. Longitudes are measured from the left edge of the box, so boxes crossing the
+ * dateline are supported.
+ */
+class ClusterGrid {
+
+    /** left longitude of the box */
+    private final double minLongitude;
+    /** bottom latitude of the box */
+    private final double minLatitude;
+    /** size of the cells in degrees */
+    private final double cellSize;
+    private final long columns;
+    private final long rows;
+    /** number of documents and sums of their longitude offsets and latitudes per cell */
+    private final Map<Long, double[]> cells = new HashMap<>();
+
+    /**
+     * Creates a grid with cells of the provided size.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param cellSize   The size of the cells in degrees.
+     * @throws IllegalArgumentException if the cell size is not positive or too small for the box.
+     */
+    ClusterGrid(final double[] upperPoint, final double[] lowerPoint, final double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("The cell size must be positive: " + cellSize);
+        }
+        this.minLongitude = lowerPoint[0];
+        this.minLatitude = lowerPoint[1];
+        this.cellSize = cellSize;
+        this.columns = cells(width(upperPoint, lowerPoint), cellSize);
+        this.rows = cells(upperPoint[1] - lowerPoint[1], cellSize);
+        if (this.columns > Integer.MAX_VALUE || this.rows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The cell size is too small for the bounding box: " + cellSize);
+        }
+    }
+
+    /**
+     * Creates a grid with the smallest cells that give at most the provided number of cells.
+     *
+     * @param upperPoint  The upper left corner of the bounding box.
+     * @param lowerPoint  The lower right corner of the bounding box.
+     * @param maxClusters The maximum number of cells.
+     * @return the grid.
+     * @throws IllegalArgumentException if the maximum number of cells is not positive.
+     */
+    static ClusterGrid withMaxClusters(final double[] upperPoint, final double[] lowerPoint, final int maxClusters) {
+        if (maxClusters <= 0) {
+            throw new IllegalArgumentException("The maximum number of clusters must be positive: " + maxClusters);
+        }
+        final double width = width(upperPoint, lowerPoint);
+        final double height = upperPoint[1] - lowerPoint[1];
+        double cellSize = Math.sqrt(width * height / maxClusters);
+        if (cellSize == 0) {
+            cellSize = Math.max(width, height) / maxClusters;
+        }
+        if (cellSize == 0) {
+            cellSize = 1;
+        }
+        //partial cells on the edges might add one column and one row
+        while (cells(width, cellSize) * cells(height, cellSize) > maxClusters) {
+            cellSize *= 1.05;
+        }
+        return new ClusterGrid(upperPoint, lowerPoint, cellSize);
+    }
+
+    private static double width(final double[] upperPoint, final double[] lowerPoint) {
+        return upperPoint[0] >= lowerPoint[0] ? upperPoint[0] - lowerPoint[0] : upperPoint[0] - lowerPoint[0] + 360;
+    }
+
+    private static long cells(final double length, final double cellSize) {
+        return (long) Math.max(1, Math.ceil(length / cellSize));
+    }
+
+    /**
+     * The size of the cells in degrees.
+     *
+     * @return the cell size.
+     */
+    double getCellSize() {
+        return this.cellSize;
+    }
+
+    /**
+     * Adds a group of documents to the cell of its centroid.
+     *
+     * @param count     The number of documents.
+     * @param longitude The longitude of the centroid.
+     * @param latitude  The latitude of the centroid.
+     */
+    void add(final long count, final double longitude, final double latitude) {
+        double offset = longitude - this.minLongitude;
+        if (offset < 0) {
+            offset += 360;
+        }
+        final long column = Math.min(this.columns - 1, (long) (offset / this.cellSize));
+        final long row = Math.max(0, Math.min(this.rows - 1, (long) ((latitude - this.minLatitude) / this.cellSize)));
+        final double[] cell = this.cells.computeIfAbsent(row * this.columns + column, k -> new double[3]);
+        cell[0] += count;
+        cell[1] += count * offset;
+        cell[2] += count * latitude;
+    }
+
+    /**
+     * Creates one cluster per non-empty cell.
+     *
+     * @return the clusters.
+     */
+    List<Cluster> clusters() {
+        final List<Cluster> clusters = new ArrayList<>(this.cells.size());
+        for (double[] cell : this.cells.values()) {
+            double longitude = this.minLongitude + cell[1] / cell[0];
+            if (longitude > 180) {
+                longitude -= 360;
+            }
+            clusters.add(new Cluster((long) cell[0], longitude, cell[2] / cell[0]));
+        }
+        return clusters;
+    }
+}
@@ -0,0 +1,157 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses command line arguments made of positional arguments followed by options
+ * of the form {@code --name value}.
+ */
+class CommandLineOptions {
+
+    /**
+     * The positional arguments.
+     */
+    private final List<String> positional = new ArrayList<>();
+    /**
+     * The options by name, without the leading dashes.
+     */
+    private final Map<String, String> options = new HashMap<>();
+
+    /**
+     * Parses the provided arguments.
+     *
+     * @param args the arguments.
+     * @throws IllegalArgumentException if an option has no value.
+     */
+    CommandLineOptions(final String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for option " + args[i]);
+                }
+                this.options.put(args[i].substring(2), args[++i]);
+            } else {
+                this.positional.add(args[i]);
+            }
+        }
+    }
+
+    /**
+     * The positional arguments.
+     *
+     * @return the positional arguments in the order they were provided.
+     */
+    List<String> positional() {
+        return this.positional;
+    }
+
+    /**
+     * Checks if an option has been provided.
+     *
+     * @param name the option name.
+     * @return true if the option has been provided.
+     */
+    boolean has(final String name) {
+        return this.options.containsKey(name);
+    }
+
+    /**
+     * Returns the value of a string option.
+     *
+     * @param name         the option name.
+     * @param defaultValue the value if the option has not been provided.
+     * @return the option value.
+     */
+    String getString(final String name, final String defaultValue) {
+        final String value = this.options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Returns the value of an integer option.
+     *
+     * @param name         the option name.
+     * @param defaultValue the value if the option has not been provided.
+     * @return the option value.
+     * @throws IllegalArgumentException if the value is not an integer.
+     */
+    int getInt(final String name, final int defaultValue) {
+        final String value = this.options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The option --" + name + " is not an integer: " + value);
+        }
+    }
+
+    /**
+     * Returns the value of a long option.
+     *
+     * @param name         the option name.
+     * @param defaultValue the value if the option has not been provided.
+     * @return the option value.
+     * @throws IllegalArgumentException if the value is not an integer.
+     */
+    long getLong(final String name, final long defaultValue) {
+        final String value = this.options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The option --" + name + " is not an integer: " + value);
+        }
+    }
+
+    /**
+     * Returns the value of a double option.
+     *
+     * @param name         the option name.
+     * @param defaultValue the value if the option has not been provided.
+     * @return the option value.
+     * @throws IllegalArgumentException if the value is not a number.
+     */
+    double getDouble(final String name, final double defaultValue) {
+        final String value = this.options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The option --" + name + " is not a number: " + value);
+        }
+    }
+
+    /**
+     * Returns the value of an option containing a comma separated list of integers.
+     *
+     * @param name         the option name.
+     * @param defaultValue the value if the option has not been provided.
+     * @return the option value.
+     * @throws IllegalArgumentException if any of the values is not an integer.
+     */
+    int[] getIntList(final String name, final int[] defaultValue) {
+        final String value = this.options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        final String[] data = value.split(",");
+        final int[] values = new int[data.length];
+        try {
+            for (int i = 0; i < data.length; i++) {
+                values[i] = Integer.parseInt(data[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The option --" + name + " is not a list of integers: " + value);
+        }
+        return values;
+    }
+}
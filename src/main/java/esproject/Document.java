@@ -1,30 +1,94 @@
 package esproject;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
- * Represents a document that can be indexed in a {@link KDBTree}.
+ * Represents a document that can be indexed in a {@link KDBTree}. Besides the longitude and latitude
+ * it can carry a third value, for example a timestamp or an altitude, that queries can filter by, and
+ * any number of numeric attributes for {@link AttributeFilter}.
  */
 public class Document {
 
     /** the string data **/
     final String data;
-    /** the point */
+    /** the point, longitude and latitude optionally followed by the third value */
     final double[] point;
+    /** the numeric attributes */
+    final double[] attributes;
+
+    /** attributes of documents without attributes */
+    private static final double[] NO_ATTRIBUTES = new double[0];
 
     public Document(final String data, final double longitude, final double latitude) {
+        this(data, new double[] {longitude, latitude});
+    }
+
+    /**
+     * Creates a document with a third value.
+     *
+     * @param data      The string data.
+     * @param longitude The longitude.
+     * @param latitude  The latitude.
+     * @param value     The third value, for example a timestamp.
+     * @throws IllegalArgumentException if the value is NaN or infinite, as nodes could not bound it.
+     */
+    public Document(final String data, final double longitude, final double latitude, final double value) {
+        this(data, new double[] {longitude, latitude, checkValue(value)});
+    }
+
+    /**
+     * Creates a document with numeric attributes.
+     *
+     * @param data       The string data.
+     * @param longitude  The longitude.
+     * @param latitude   The latitude.
+     * @param attributes The numeric attributes.
+     * @throws IllegalArgumentException if an attribute is NaN or infinite, as nodes could not bound it.
+     */
+    public Document(final String data, final double longitude, final double latitude, final double[] attributes) {
+        this(data, new double[] {longitude, latitude}, checkAttributes(attributes.clone()));
+    }
+
+    Document(final String data, final double[] point) {
+        this(data, point, NO_ATTRIBUTES);
+    }
+
+    Document(final String data, final double[] point, final double[] attributes) {
         this.data = data;
-        this.point = new double[] {longitude, latitude};
+        this.point = point;
+        this.attributes = attributes.length == 0 ? NO_ATTRIBUTES : attributes;
+    }
+
+    private static double checkValue(final double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Value must be finite: " + value);
+        }
+        return value;
+    }
+
+    private static double[] checkAttributes(final double[] attributes) {
+        for (double attribute : attributes) {
+            if (!Double.isFinite(attribute)) {
+                throw new IllegalArgumentException("Attributes must be finite: " + Arrays.toString(attributes));
+            }
+        }
+        return attributes;
     }
 
     @Override
     public int hashCode() {
-        int result = this.data.hashCode();
+        int result = Objects.hashCode(this.data);
         long temp;
         temp = Double.doubleToLongBits(this.point[0]);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(this.point[1]);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
+        if (this.point.length > 2) {
+            temp = Double.doubleToLongBits(this.point[2]);
+            result = 31 * result + (int) (temp ^ (temp >>> 32));
+        }
+        result = 31 * result + Arrays.hashCode(this.attributes);
         return result;
     }
 
@@ -35,12 +99,17 @@ public class Document {
         }
         Document other = (Document) obj;
         return Objects.equals(this.data, other.data)
+                && this.point.length == other.point.length
                 && this.point[0] == other.point[0]
-                && this.point[1] == other.point[1];
+                && this.point[1] == other.point[1]
+                && (this.point.length == 2 || this.point[2] == other.point[2])
+                && Arrays.equals(this.attributes, other.attributes);
     }
 
     @Override
     public String toString() {
-        return "data: " + this.data + "; point: [" + this.point[0] + ", " + this.point[1] + "]";
+        return "data: " + this.data + "; point: [" + this.point[0] + ", " + this.point[1]
+                + (this.point.length > 2 ? ", " + this.point[2] : "") + "]"
+                + (this.attributes.length > 0 ? "; attributes: " + Arrays.toString(this.attributes) : "");
     }
 }
@@ -0,0 +1,136 @@
+package esproject;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Receives the documents matching a query while the tree is traversed. Documents are provided
+ * by their position on the documents array of the tree, so visitors can decide what to do with
+ * them without materializing a list.
+ */
+interface DocumentVisitor {
+
+    /**
+     * Visits one matching document.
+     *
+     * @param documents the documents array of the tree.
+     * @param index     the position of the matching document.
+     */
+    void visit(Document[] documents, int index);
+
+    /**
+     * Visits a range of documents that match the query because their node is within the query.
+     *
+     * @param documents the documents array of the tree.
+     * @param start     the start position of the range, inclusive.
+     * @param end       the end position of the range, exclusive.
+     */
+    default void visitRange(final Document[] documents, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            visit(documents, i);
+        }
+    }
+
+    /**
+     * Creates a visitor that adds the matching documents to the provided list.
+     *
+     * @param collector the list collector.
+     * @return the visitor.
+     */
+    static DocumentVisitor collector(final List<Document> collector) {
+        return new DocumentVisitor() {
+            @Override
+            public void visit(final Document[] documents, final int index) {
+                collector.add(documents[index]);
+            }
+
+            @Override
+            public void visitRange(final Document[] documents, final int start, final int end) {
+                for (int i = start; i < end; i++) {
+                    collector.add(documents[i]);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a visitor that sets the positions of the matching documents on the provided bit set. Ranges
+     * of documents within the query are set a word at a time.
+     *
+     * @param ordinals the bit set.
+     * @return the visitor.
+     */
+    static DocumentVisitor ordinals(final BitSet ordinals) {
+        return new DocumentVisitor() {
+            @Override
+            public void visit(final Document[] documents, final int index) {
+                ordinals.set(index);
+            }
+
+            @Override
+            public void visitRange(final Document[] documents, final int start, final int end) {
+                ordinals.set(start, end);
+            }
+        };
+    }
+
+    /**
+     * Visitor that records the positions of the matching documents as ranges, so documents of nodes within
+     * the query are counted without visiting them one by one. Consecutive positions are joined.
+     */
+    class RangeCollector implements DocumentVisitor {
+
+        /** start of each range, inclusive */
+        int[] starts = new int[16];
+        /** end of each range, exclusive */
+        int[] ends = new int[16];
+        /** number of ranges */
+        int size;
+        /** number of matching documents */
+        long count;
+
+        @Override
+        public void visit(final Document[] documents, final int index) {
+            visitRange(documents, index, index + 1);
+        }
+
+        @Override
+        public void visitRange(final Document[] documents, final int start, final int end) {
+            if (start == end) {
+                return;
+            }
+            this.count += end - start;
+            if (this.size > 0 && this.ends[this.size - 1] == start) {
+                this.ends[this.size - 1] = end;
+                return;
+            }
+            if (this.size == this.starts.length) {
+                this.starts = Arrays.copyOf(this.starts, 2 * this.size);
+                this.ends = Arrays.copyOf(this.ends, 2 * this.size);
+            }
+            this.starts[this.size] = start;
+            this.ends[this.size] = end;
+            this.size++;
+        }
+    }
+
+    /**
+     * Visitor that counts the matching documents.
+     */
+    class Counter implements DocumentVisitor {
+
+        /** number of matching documents */
+        long count;
+
+        @Override
+        public void visit(final Document[] documents, final int index) {
+            this.count++;
+        }
+
+        @Override
+        public void visitRange(final Document[] documents, final int start, final int end) {
+            this.count += end - start;
+        }
+    }
+}
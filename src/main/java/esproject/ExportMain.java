@@ -0,0 +1,120 @@
+package esproject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Class to export all the hits of a query file. It loads the points, builds a {@link BKDTree}, runs the
+ * queries on one or more threads and streams their hits to an output file in the order of the queries,
+ * reporting the time spent querying separately from the time spent encoding and writing the hits.
+ */
+public class ExportMain {
+
+    /**
+     * Entry point of the export.
+     *
+     * @param args Provided arguments. See usage.
+     * @throws IOException if there is an error reading the input files or writing the output file.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 && ("-h".equals(args[0]) || "--help".equals(args[0]))) {
+            printUsage();
+            System.exit(0);
+        }
+        final CommandLineOptions options;
+        final int docsPerLeaf;
+        final int threads;
+        final ResultExporter.Format format;
+        try {
+            options = new CommandLineOptions(args);
+            docsPerLeaf = options.getInt("leaf", options.positional().isEmpty() ? KDBTree.DEFAULT_DOCUMENTS_PER_LEAF
+                    : IndexSettings.load(new File(options.positional().get(0))).maxDocumentsPerLeaf);
+            threads = options.getInt("threads", 1);
+            format = parseFormat(options.getString("format", "binary"));
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            printUsage();
+            System.exit(0);
+            return;
+        }
+        if (options.positional().size() != 2 || !options.has("output")) {
+            System.out.println("The export has been called with incorrect parameters:");
+            printUsage();
+            System.exit(0);
+        }
+        if (docsPerLeaf < 2) {
+            System.out.println("The input for points per leaf must be bigger than 1: " + docsPerLeaf);
+            printUsage();
+            System.exit(0);
+        }
+        if (threads < 1) {
+            System.out.println("The number of threads must be bigger than 0: " + threads);
+            printUsage();
+            System.exit(0);
+        }
+        File dataFile = new File(options.positional().get(0));
+        if (!dataFile.exists()) {
+            System.out.println("The input data file does not exists: " + dataFile);
+            System.exit(0);
+        }
+        File queryFile = new File(options.positional().get(1));
+        if (!queryFile.exists()) {
+            System.out.println("The input query file does not exists: " + queryFile);
+            System.exit(0);
+        }
+        System.out.println("Export started, loading points in memory....");
+        Document[] documents = BKDTreeMain.readDocumentsOrExit(dataFile);
+        long start = System.nanoTime();
+        BKDTree tree = new BKDTree(documents, docsPerLeaf);
+        long end = System.nanoTime();
+        System.out.println("Index with " + documents.length + " points has been built in : " + BKDTreeMain.formatDouble(1e-9 * (end - start)) + " seconds");
+        List<double[][]> queries = BKDTreeMain.readQueries(queryFile);
+
+        File outputFile = new File(options.getString("output", null));
+        final ResultExporter.Summary summary;
+        try (ResultExporter exporter = new ResultExporter(outputFile.toPath(), format)) {
+            summary = exporter.export(tree, queries, threads);
+        }
+        System.out.println();
+        System.out.println("Summary");
+        System.out.println("--------");
+        System.out.println(summary.queries + " queries with " + summary.hits + " hits exported to " + outputFile + " as "
+                + format.name().toLowerCase() + " (" + RamUsageEstimator.humanReadable(summary.bytes) + ") in "
+                + BKDTreeMain.formatDouble(1e-9 * summary.wallNanos) + " seconds using " + threads + " threads");
+        System.out.println("Time spent querying: " + BKDTreeMain.formatDouble(1e-9 * summary.queryNanos) + " seconds ("
+                + BKDTreeMain.formatDouble(summary.queries / (1e-9 * summary.queryNanos)) + " queries per second per thread)");
+        System.out.println("Time spent encoding hits: " + BKDTreeMain.formatDouble(1e-9 * summary.encodeNanos) + " seconds");
+        System.out.println("Time spent writing: " + BKDTreeMain.formatDouble(1e-9 * summary.writeNanos) + " seconds ("
+                + BKDTreeMain.formatDouble(summary.bytes / (1e6 * 1e-9 * summary.writeNanos)) + " MB per second)");
+        System.out.println();
+    }
+
+    private static ResultExporter.Format parseFormat(final String value) {
+        try {
+            return ResultExporter.Format.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format: " + value);
+        }
+    }
+
+    /**
+     * Prints the usage of the export.
+     */
+    private static void printUsage() {
+        System.out.println();
+        System.out.println("  usage: java -jar <jarfile>.jar --export /path/to/geo_points.csv /path/to/queries.csv --output /path/to/hits [options]");
+        System.out.println();
+        System.out.println("       --output FILE                    :       file the hits are written to, replaced if it exists");
+        System.out.println("       --format binary|csv              :       binary writes per query its number and number of hits, then per hit its");
+        System.out.println("                                                position as an int and latitude and longitude as doubles, all big endian;");
+        System.out.println("                                                csv writes one line per hit: query,position,id,latitude,longitude (default binary)");
+        System.out.println("       --threads N                      :       number of threads running the queries, hits are written in query order (default 1)");
+        System.out.println("       --leaf N                         :       number of points per leaf (default 1024 or the value stored by --tune)");
+        System.out.println();
+    }
+
+    private ExportMain() {
+        //no instances
+    }
+}
@@ -0,0 +1,245 @@
+package esproject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Holds the current index of a long running process and replaces it without stopping queries. A new
+ * index is built while queries keep using the current one and it is published with an atomic swap.
+ * Queries {@link #acquire() acquire} a lease on the index they use, so the replaced index is released
+ * only once the queries that were executing on it have finished.
+ * <p>
+ * Leases must be closed, usually with a try-with-resources statement:
+ * <pre>
+ *   try (IndexHolder.Lease&lt;BKDTree&gt; lease = holder.acquire()) {
+ *       lease.index().contains(upperPoint, lowerPoint, collector);
+ *   }
+ * </pre>
+ *
+ * @param <T> the type of the index.
+ */
+public class IndexHolder<T> implements AutoCloseable {
+
+    /**
+     * The current generation.
+     */
+    private final AtomicReference<Generation<T>> current;
+    /**
+     * Called with each index once it has been replaced and all its leases are closed.
+     */
+    private final Consumer<? super T> onRelease;
+
+    /**
+     * Constructor.
+     *
+     * @param index     the initial index.
+     * @param onRelease called with each index once it has been replaced and its queries have finished, for
+     *                  example to shut down its executor. It is called on the thread closing the last lease.
+     */
+    public IndexHolder(final T index, final Consumer<? super T> onRelease) {
+        if (index == null) {
+            throw new IllegalArgumentException("The index must not be null");
+        }
+        this.current = new AtomicReference<>(new Generation<>(index, 0));
+        this.onRelease = onRelease;
+    }
+
+    /**
+     * Constructor for indices that do not need to be released, they are garbage collected once replaced.
+     *
+     * @param index the initial index.
+     */
+    public IndexHolder(final T index) {
+        this(index, released -> { });
+    }
+
+    /**
+     * Acquires a lease on the current index, which is not released until the lease is closed.
+     *
+     * @return the lease.
+     * @throws IllegalStateException if the holder is closed.
+     */
+    public Lease<T> acquire() {
+        while (true) {
+            final Generation<T> generation = this.current.get();
+            if (generation == null) {
+                throw new IllegalStateException("The index holder is closed");
+            }
+            if (generation.tryIncRef()) {
+                return new Lease<>(this, generation);
+            }
+            //the generation has been replaced and released in the meantime, retry with the new one
+        }
+    }
+
+    /**
+     * Publishes the provided index for new queries. The replaced index is released once the
+     * queries executing on it have finished.
+     *
+     * @param index the new index.
+     * @return the generation of the new index, incremented on every swap.
+     * @throws IllegalStateException if the holder is closed.
+     */
+    public long swap(final T index) {
+        if (index == null) {
+            throw new IllegalArgumentException("The index must not be null");
+        }
+        while (true) {
+            final Generation<T> previous = this.current.get();
+            if (previous == null) {
+                throw new IllegalStateException("The index holder is closed");
+            }
+            final Generation<T> generation = new Generation<>(index, previous.number + 1);
+            if (this.current.compareAndSet(previous, generation)) {
+                decRef(previous);
+                return generation.number;
+            }
+        }
+    }
+
+    /**
+     * Builds a new index on the calling thread while queries keep using the current one, then swaps it.
+     *
+     * @param builder builds the new index.
+     * @return the new index.
+     * @throws Exception if the index cannot be built, then the current index is kept.
+     */
+    public T refresh(final Callable<? extends T> builder) throws Exception {
+        final T index = builder.call();
+        swap(index);
+        return index;
+    }
+
+    /**
+     * Builds a new index on the provided executor while queries keep using the current one, then swaps it.
+     *
+     * @param builder  builds the new index.
+     * @param executor the executor building the index.
+     * @return a future completed with the new index once it has been swapped, or exceptionally if it cannot
+     * be built, then the current index is kept.
+     */
+    public CompletableFuture<T> refreshAsync(final Callable<? extends T> builder, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return refresh(builder);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * The generation of the current index, 0 for the initial index.
+     *
+     * @return the generation.
+     * @throws IllegalStateException if the holder is closed.
+     */
+    public long getGeneration() {
+        final Generation<T> generation = this.current.get();
+        if (generation == null) {
+            throw new IllegalStateException("The index holder is closed");
+        }
+        return generation.number;
+    }
+
+    /**
+     * Closes the holder, the current index is released once its queries have finished. Acquiring
+     * a lease afterwards fails.
+     */
+    @Override
+    public void close() {
+        final Generation<T> generation = this.current.getAndSet(null);
+        if (generation != null) {
+            decRef(generation);
+        }
+    }
+
+    private void decRef(final Generation<T> generation) {
+        if (generation.refs.decrementAndGet() == 0) {
+            this.onRelease.accept(generation.index);
+        }
+    }
+
+    /**
+     * One published index with its reference count, one reference is held by the holder while it is current.
+     */
+    private static class Generation<T> {
+
+        private final T index;
+        private final long number;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Generation(final T index, final long number) {
+            this.index = index;
+            this.number = number;
+        }
+
+        boolean tryIncRef() {
+            int count;
+            while ((count = this.refs.get()) > 0) {
+                if (this.refs.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A lease on one index, the index is not released until the lease is closed. Leases are meant to
+     * be used by one thread.
+     *
+     * @param <T> the type of the index.
+     */
+    public static class Lease<T> implements AutoCloseable {
+
+        private final IndexHolder<T> holder;
+        private final Generation<T> generation;
+        private boolean closed;
+
+        private Lease(final IndexHolder<T> holder, final Generation<T> generation) {
+            this.holder = holder;
+            this.generation = generation;
+        }
+
+        /**
+         * The leased index.
+         *
+         * @return the index.
+         * @throws IllegalStateException if the lease is closed.
+         */
+        public T index() {
+            if (this.closed) {
+                throw new IllegalStateException("The lease is closed");
+            }
+            return this.generation.index;
+        }
+
+        /**
+         * The generation of the leased index.
+         *
+         * @return the generation.
+         */
+        public long generation() {
+            return this.generation.number;
+        }
+
+        /**
+         * Closes the lease, it has no effect if it is already closed.
+         */
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                this.holder.decRef(this.generation);
+            }
+        }
+    }
+}
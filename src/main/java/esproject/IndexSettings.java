@@ -0,0 +1,82 @@
+package esproject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Settings used for building the index of a points file. They are stored in a properties file next
+ * to the points file, so the values chosen by tuning are used every time the points are indexed.
+ */
+class IndexSettings {
+
+    /** suffix added to the points file name for the settings file */
+    static final String FILE_SUFFIX = ".index.properties";
+    /** property name for the maximum number of documents per leaf */
+    static final String DOCUMENTS_PER_LEAF = "documents_per_leaf";
+
+    /**
+     * Maximum number of documents per leaf.
+     */
+    final int maxDocumentsPerLeaf;
+
+    IndexSettings(final int maxDocumentsPerLeaf) {
+        this.maxDocumentsPerLeaf = maxDocumentsPerLeaf;
+    }
+
+    /**
+     * Loads the settings stored for the provided points file.
+     *
+     * @param dataFile the points file.
+     * @return the stored settings, or the default settings if there are no stored settings.
+     * @throws IOException if there is an error reading the settings file.
+     */
+    static IndexSettings load(final File dataFile) throws IOException {
+        final File file = settingsFile(dataFile);
+        if (!file.exists()) {
+            return new IndexSettings(KDBTree.DEFAULT_DOCUMENTS_PER_LEAF);
+        }
+        final Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        }
+        final String value = properties.getProperty(DOCUMENTS_PER_LEAF, Integer.toString(KDBTree.DEFAULT_DOCUMENTS_PER_LEAF));
+        try {
+            final int maxDocumentsPerLeaf = Integer.parseInt(value.trim());
+            if (maxDocumentsPerLeaf < 2) {
+                throw new IOException("Invalid " + DOCUMENTS_PER_LEAF + " in " + file + ", it must be bigger than 1: " + value);
+            }
+            return new IndexSettings(maxDocumentsPerLeaf);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + DOCUMENTS_PER_LEAF + " in " + file + ", not an integer: " + value);
+        }
+    }
+
+    /**
+     * Stores these settings for the provided points file.
+     *
+     * @param dataFile the points file.
+     * @throws IOException if there is an error writing the settings file.
+     */
+    void store(final File dataFile) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(DOCUMENTS_PER_LEAF, Integer.toString(this.maxDocumentsPerLeaf));
+        try (OutputStream outputStream = new FileOutputStream(settingsFile(dataFile))) {
+            properties.store(outputStream, "Index settings for " + dataFile.getName());
+        }
+    }
+
+    /**
+     * Returns the settings file of the provided points file.
+     *
+     * @param dataFile the points file.
+     * @return the settings file.
+     */
+    static File settingsFile(final File dataFile) {
+        return new File(dataFile.getPath() + FILE_SUFFIX);
+    }
+}
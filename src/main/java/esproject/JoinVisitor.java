@@ -0,0 +1,18 @@
+package esproject;
+
+/**
+ * Receives the pairs of documents found by a {@link SpatialJoin}.
+ */
+@FunctionalInterface
+public interface JoinVisitor {
+
+    /**
+     * Visits one pair of documents within the join distance. When the join runs on an executor this
+     * method is called concurrently from several threads.
+     *
+     * @param left     the document of the left tree.
+     * @param right    the document of the right tree.
+     * @param distance the haversine distance between both documents in meters.
+     */
+    void visit(Document left, Document right, double distance);
+}
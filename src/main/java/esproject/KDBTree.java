@@ -1,6 +1,8 @@
 package esproject;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  * Implementation of a static KDB tree. It is created with the array of {@link Document} to be indexed
@@ -9,9 +11,17 @@ import java.util.List;
  * <p>
  * It builds the tree using a bulk mechanism that requires only three passes of the documents.
  * One to sort by longitude, one to sort by latitude and one to compute the nodes bounding boxes.
- * It is not thread safe.
+ * Alternatively, the dimension each node is divided by can be chosen from the spread of its documents
+ * or the documents can be ordered along a space-filling curve (see {@link SplitPolicy}), which gives
+ * tighter nodes on clustered data.
+ * Documents can have a third dimension, like a timestamp or an altitude, in which case the bounding
+ * box of each node also stores its range of values and queries can prune on the three dimensions.
+ * The range of each numeric attribute of the documents is kept per node too (zone maps), so queries
+ * with an {@link AttributeFilter} skip the nodes whose values cannot match.
+ * Once built it is immutable and can be queried concurrently from several threads.
  * <p>
- * It supports queries by bounding box.
+ * It supports queries by bounding box and nearest neighbour queries, and it can be joined with another
+ * tree by distance with {@link SpatialJoin}.
  */
 public class KDBTree implements Tree {
 
@@ -19,6 +29,14 @@ public class KDBTree implements Tree {
      * Default max number of points on leaf nodes
      */
     public static final int DEFAULT_DOCUMENTS_PER_LEAF = 1024;
+    /**
+     * Default number of levels traversed for estimating the number of documents inside a bounding box.
+     */
+    public static final int DEFAULT_ESTIMATE_DEPTH = 8;
+    /**
+     * Size in bytes of the subtrees stored contiguously by the {@link NodeLayout#BLOCKED} layout.
+     */
+    static final int BLOCK_BYTES = 4096;
 
     /**
      * Documents on the tree
@@ -49,18 +67,58 @@ public class KDBTree implements Tree {
      */
     private final int leafsWithExtraDocument;
     /**
-     * Upper point for each node of the tree. It can be fetched by nodeId -1
+     * Bounding box of each node of the tree packed as its upper point followed by its lower point. The box of a
+     * node starts at boxesOffset + (nodeId - 1) * 2 * dimensions. The array might be shared with other trees.
      */
-    private final double[][] maxBoundaries;
+    private final double[] boxes;
     /**
-     * Lower point for each node of the tree. It can be fetched by nodeId -1
+     * Position of the box of the root node on the boxes array.
      */
-    private final double[][] minBoundaries;
-
+    private final int boxesOffset;
+    /**
+     * Order of the node boxes on the boxes array.
+     */
+    private final NodeLayout nodeLayout;
+    /**
+     * For the {@link NodeLayout#BLOCKED} layout, the terms of the position of the boxes of each level, see
+     * {@link #boxPosition(int)}, or null for the {@link NodeLayout#BREADTH_FIRST} layout. Per level it holds the
+     * levels from the root of the block, the position of the first box minus the blocks before it and the size
+     * of the blocks.
+     */
+    private final int[] blockTerms;
+    /**
+     * Dimension used for dividing the documents of each node, 0 is longitude, 1 is latitude, 2 is the third
+     * dimension and -1 if the documents are ordered along a curve. It can be fetched by nodeId -1
+     */
+    private final byte[] splitDimensions;
+    /**
+     * Number of dimensions of the documents, 2 or 3.
+     */
+    private final int dimensions;
+    /**
+     * Number of attributes of the documents.
+     */
+    private final int numberAttributes;
+    /**
+     * Maximum value of each attribute per node. The values of a node start at (nodeId - 1) * numberAttributes.
+     */
+    private final double[] maxAttributes;
+    /**
+     * Minimum value of each attribute per node. The values of a node start at (nodeId - 1) * numberAttributes.
+     */
+    private final double[] minAttributes;
+    /**
+     * Mean longitude and latitude of the documents of each node. The values of a node start at (nodeId - 1) * 2.
+     */
+    private final double[] centroids;
+    /**
+     * Policy used for choosing the dimension of each node
+     */
+    private final SplitPolicy splitPolicy;
     /**
-     * Current node
+     * Time spent on each phase of the build
      */
-    private int nodeId;
+    private final BuildTimings buildTimings = new BuildTimings();
 
     /**
      * Constructor that uses the default number of documents per leaf.
@@ -99,22 +157,180 @@ public class KDBTree implements Tree {
      * @param sorted              flags if th documents are sorted by longitude.
      */
     public KDBTree(final Document[] documents, final int maxDocumentsPerLeaf, int startDocuments, int endDocuments, boolean sorted) {
+        this(documents, maxDocumentsPerLeaf, startDocuments, endDocuments, sorted, SplitPolicy.FIXED);
+    }
+
+    /**
+     * Constructor that takes the number of documents per leaf, a subset of the input array and the policy
+     * for choosing the dimension each node is divided by.
+     *
+     * @param documents           the documents to index.
+     * @param maxDocumentsPerLeaf maximum number of documents per leaf node.
+     * @param sorted              flags if th documents are sorted by longitude, or along the curve for the
+     *                            {@link SplitPolicy#HILBERT} policy. It is ignored by the other adaptive policies.
+     * @param splitPolicy         the policy for choosing the dimension of each node.
+     */
+    public KDBTree(final Document[] documents, final int maxDocumentsPerLeaf, int startDocuments, int endDocuments, boolean sorted, SplitPolicy splitPolicy) {
+        this(documents, maxDocumentsPerLeaf, startDocuments, endDocuments, sorted, splitPolicy, false);
+    }
+
+    /**
+     * Constructor for documents that might be already partitioned for the {@link SplitPolicy#FIXED} policy.
+     *
+     * @param documents           the documents to index.
+     * @param maxDocumentsPerLeaf maximum number of documents per leaf node.
+     * @param sorted              flags if th documents are sorted by longitude, or along the curve for the
+     *                            {@link SplitPolicy#HILBERT} policy. It is ignored by the other adaptive policies.
+     * @param splitPolicy         the policy for choosing the dimension of each node.
+     * @param partitioned         flags if the documents are sorted by longitude and each longitude partition,
+     *                            see {@link #longitudePartitions(int, int, int)}, is sorted by latitude. It is
+     *                            only used by the {@link SplitPolicy#FIXED} policy.
+     */
+    KDBTree(final Document[] documents, final int maxDocumentsPerLeaf, int startDocuments, int endDocuments, boolean sorted,
+            SplitPolicy splitPolicy, boolean partitioned) {
+        this(documents, maxDocumentsPerLeaf, startDocuments, endDocuments, sorted, splitPolicy, partitioned, null, 0, NodeLayout.BREADTH_FIRST);
+    }
+
+    /**
+     * Constructor that takes the number of documents per leaf, a subset of the input array, the policy for choosing
+     * the dimension each node is divided by and the order of the node bounding boxes in memory.
+     *
+     * @param documents           the documents to index.
+     * @param maxDocumentsPerLeaf maximum number of documents per leaf node.
+     * @param sorted              flags if th documents are sorted by longitude, or along the curve for the
+     *                            {@link SplitPolicy#HILBERT} policy. It is ignored by the other adaptive policies.
+     * @param splitPolicy         the policy for choosing the dimension of each node.
+     * @param nodeLayout          the order of the node bounding boxes.
+     */
+    public KDBTree(final Document[] documents, final int maxDocumentsPerLeaf, int startDocuments, int endDocuments, boolean sorted,
+                   SplitPolicy splitPolicy, NodeLayout nodeLayout) {
+        this(documents, maxDocumentsPerLeaf, startDocuments, endDocuments, sorted, splitPolicy, false, null, 0, nodeLayout);
+    }
+
+    /**
+     * Constructor that stores the bounding boxes of the nodes on a provided array, so the boxes of many trees can be
+     * packed together. The tree uses {@link #boxesLength(int, int, int)} values of the array from the provided offset.
+     *
+     * @param documents           the documents to index.
+     * @param maxDocumentsPerLeaf maximum number of documents per leaf node.
+     * @param sorted              flags if th documents are sorted by longitude, or along the curve for the
+     *                            {@link SplitPolicy#HILBERT} policy. It is ignored by the other adaptive policies.
+     * @param splitPolicy         the policy for choosing the dimension of each node.
+     * @param partitioned         flags if the documents are already partitioned for the {@link SplitPolicy#FIXED} policy.
+     * @param boxes               the array for the bounding boxes, or null to allocate one for this tree.
+     * @param boxesOffset         the first position of the array used by this tree.
+     * @param nodeLayout          the order of the node bounding boxes.
+     */
+    KDBTree(final Document[] documents, final int maxDocumentsPerLeaf, int startDocuments, int endDocuments, boolean sorted,
+            SplitPolicy splitPolicy, boolean partitioned, final double[] boxes, final int boxesOffset, final NodeLayout nodeLayout) {
         this.documents = documents;
+        this.splitPolicy = splitPolicy;
         this.maxLevel = getTreeLevels(endDocuments - startDocuments, maxDocumentsPerLeaf);
         this.startDocument = startDocuments;
         this.endDocument = endDocuments;
+        this.dimensions = getDimensions(documents, startDocuments, endDocuments);
+        this.numberAttributes = getNumberAttributes(documents, startDocuments, endDocuments);
         // we cache this values
         this.startLeafNodes = (int) Math.pow(2, maxLevel - 1);
         this.minimumDocsPerLeaf = (endDocuments - startDocuments)/ this.startLeafNodes;
         this.leafsWithExtraDocument = (endDocuments - startDocuments) % this.startLeafNodes;
         //init arrays for bounding boxes
         int totalNumberOfNodes = 2 * startLeafNodes - 1;
-        this.maxBoundaries = new double[totalNumberOfNodes][2];
-        this.minBoundaries = new double[totalNumberOfNodes][2];
-        //set the root
-        this.nodeId = 1;
+        this.boxes = boxes == null ? new double[2 * this.dimensions * totalNumberOfNodes] : boxes;
+        this.boxesOffset = boxesOffset;
+        this.nodeLayout = nodeLayout;
+        this.blockTerms = nodeLayout == NodeLayout.BLOCKED ? blockTerms(blockLevels(this.dimensions), this.maxLevel) : null;
+        this.splitDimensions = new byte[totalNumberOfNodes];
+        this.maxAttributes = new double[totalNumberOfNodes * this.numberAttributes];
+        this.minAttributes = new double[totalNumberOfNodes * this.numberAttributes];
+        this.centroids = new double[2 * totalNumberOfNodes];
         //build the tree using bulk mechanism
-        buildTree(sorted);
+        buildTree(sorted, partitioned);
+    }
+
+    /**
+     * Computes the number of dimensions of the provided documents.
+     *
+     * @param documents the documents.
+     * @param start     The starting index of the documents.
+     * @param end       The end index of the documents.
+     * @return the number of dimensions.
+     * @throws IllegalArgumentException if not all documents have the same number of dimensions.
+     */
+    static int getDimensions(final Document[] documents, final int start, final int end) {
+        final int dimensions = documents[start].point.length;
+        for (int i = start + 1; i < end; i++) {
+            if (documents[i].point.length != dimensions) {
+                throw new IllegalArgumentException("All documents must have the same number of dimensions: " + documents[i]);
+            }
+        }
+        return dimensions;
+    }
+
+    /**
+     * Computes the number of attributes of the provided documents.
+     *
+     * @param documents the documents.
+     * @param start     The starting index of the documents.
+     * @param end       The end index of the documents.
+     * @return the number of attributes.
+     * @throws IllegalArgumentException if not all documents have the same number of attributes.
+     */
+    private static int getNumberAttributes(final Document[] documents, final int start, final int end) {
+        final int numberAttributes = documents[start].attributes.length;
+        for (int i = start + 1; i < end; i++) {
+            if (documents[i].attributes.length != numberAttributes) {
+                throw new IllegalArgumentException("All documents must have the same number of attributes: " + documents[i]);
+            }
+        }
+        return numberAttributes;
+    }
+
+    /**
+     * Computes the number of values used for storing the bounding boxes of the nodes of a tree.
+     *
+     * @param numberDocuments     number of documents of the tree.
+     * @param maxDocumentsPerLeaf maximum number of documents per leaf.
+     * @param dimensions          number of dimensions of the documents.
+     * @return the number of values.
+     */
+    static int boxesLength(final int numberDocuments, final int maxDocumentsPerLeaf, final int dimensions) {
+        return 2 * dimensions * ((1 << getTreeLevels(numberDocuments, maxDocumentsPerLeaf)) - 1);
+    }
+
+    /**
+     * Computes the number of levels of the subtrees stored contiguously by the {@link NodeLayout#BLOCKED} layout,
+     * the most levels whose boxes fit in {@link #BLOCK_BYTES}.
+     *
+     * @param dimensions number of dimensions of the documents.
+     * @return the number of levels.
+     */
+    static int blockLevels(final int dimensions) {
+        final int boxesPerBlock = BLOCK_BYTES / (2 * dimensions * Double.BYTES);
+        return 31 - Integer.numberOfLeadingZeros(boxesPerBlock + 1);
+    }
+
+    /**
+     * Computes the terms of the position of the boxes of each level for the {@link NodeLayout#BLOCKED} layout.
+     * The levels are grouped in blocks of the provided number of levels, the last one might have fewer levels.
+     * All the blocks above a node are full so they hold as many boxes as the levels above its block, the blocks
+     * of a level are ordered like their roots and the boxes inside a block are stored level by level.
+     *
+     * @param blockLevels number of levels of each block.
+     * @param maxLevel    number of levels of the tree.
+     * @return the levels from the root of the block, the offset and the block size of each level.
+     */
+    private static int[] blockTerms(final int blockLevels, final int maxLevel) {
+        final int[] terms = new int[3 * maxLevel];
+        for (int depth = 0; depth < maxLevel; depth++) {
+            final int localDepth = depth % blockLevels;
+            final int blockDepth = depth - localDepth;
+            final int blockSize = (1 << Math.min(blockLevels, maxLevel - blockDepth)) - 1;
+            terms[3 * depth] = localDepth;
+            terms[3 * depth + 1] = (1 << blockDepth) - 1 - (1 << blockDepth) * blockSize + (1 << localDepth) - 1;
+            terms[3 * depth + 2] = blockSize;
+        }
+        return terms;
     }
 
     /**
@@ -124,7 +340,7 @@ public class KDBTree implements Tree {
      * @param maxDocumentsPerLeaf maximum number of documents per leaf.
      * @return the required number of levels.
      */
-    private int getTreeLevels(final int numberDocuments, final int maxDocumentsPerLeaf) {
+    static int getTreeLevels(final int numberDocuments, final int maxDocumentsPerLeaf) {
         int levels = 1;
         int estimate = maxDocumentsPerLeaf;
         while (estimate < numberDocuments) {
@@ -139,31 +355,227 @@ public class KDBTree implements Tree {
      * order documents by latitude each longitude partition. Finally computes the bounding
      * boxes for each node of the tree upwards.
      *
-     * @param sorted flags if the documents are already sorted by longitude.
+     * @param sorted      flags if the documents are already sorted by longitude.
+     * @param partitioned flags if the longitude partitions are already sorted by latitude.
+     */
+    private void buildTree(boolean sorted, boolean partitioned) {
+        long start;
+        if (this.splitPolicy == SplitPolicy.FIXED) {
+            sortFixed(sorted, partitioned);
+        } else if (this.splitPolicy == SplitPolicy.HILBERT) {
+            //leaves are consecutive runs along the curve
+            start = System.nanoTime();
+            if (!sorted) {
+                SortingUtils.sortByHilbertCurve(this.documents, this.startDocument, this.endDocument);
+            }
+            Arrays.fill(this.splitDimensions, (byte) -1);
+            this.buildTimings.partitionNanos = System.nanoTime() - start;
+        } else {
+            //Divide each node by the dimension chosen from its documents
+            start = System.nanoTime();
+            partitionNode(1, computeValueScale());
+            this.buildTimings.partitionNanos = System.nanoTime() - start;
+        }
+        start = System.nanoTime();
+        //process leaf boundaries
+        for (int i = 0; i < this.startLeafNodes; i++) {
+            processLeafBoundaries(startDocuments(i), endDocuments(i), this.startLeafNodes + i);
+        }
+        this.buildTimings.leafBoxesNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        //now build the rest of the tree upwards
+        processNodeBoundaries(this.maxLevel - 1);
+        this.buildTimings.internalBoxesNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Sorts the documents for the fixed split policy. First it sorts the documents by longitude if needed.
+     * Then it sorts again to order documents by latitude each longitude partition.
+     *
+     * @param sorted      flags if the documents are already sorted by longitude.
+     * @param partitioned flags if the longitude partitions are already sorted by latitude.
      */
-    private void buildTree(boolean sorted) {
+    private void sortFixed(boolean sorted, boolean partitioned) {
         //Sort by longitude if needed
+        long start = System.nanoTime();
         if (!sorted) {
             SortingUtils.sortByDimension(this.documents, this.startDocument, this.endDocument, 0);
         }
+        this.buildTimings.longitudeSortNanos = System.nanoTime() - start;
+        start = System.nanoTime();
         //Sort by latitude each longitude partitions. If maxLevel is uneven then there is one more partition
         //by latitude.
-        int numberLongitudePartitions = (int) Math.pow(2, this.maxLevel / 2);
-        int leafNodesPerLongitudePartition = this.startLeafNodes / numberLongitudePartitions;
-        for (int i = 0; i < this.startLeafNodes;) {
-            int start = startDocuments(i);
-            int end = endDocuments(i + leafNodesPerLongitudePartition - 1);
-            SortingUtils.sortByDimension(this.documents, start, end, 1);
-            i += leafNodesPerLongitudePartition;
+        int[] partitions = longitudePartitions();
+        int numberLongitudePartitions = partitions.length - 1;
+        if (!partitioned) {
+            for (int i = 0; i < numberLongitudePartitions; i++) {
+                SortingUtils.sortByDimension(this.documents, partitions[i], partitions[i + 1], 1);
+            }
         }
-        //process leaf boundaries
-        for (int i = 0; i < this.startLeafNodes; i++) {
-            int start = startDocuments(i);
-            int end = endDocuments(i);
-            processLeafBoundaries(start, end, this.startLeafNodes + i);
+        this.buildTimings.latitudeSortNanos = System.nanoTime() - start;
+        //the first levels divide by longitude
+        final int longitudeNodes = numberLongitudePartitions - 1;
+        for (int i = longitudeNodes; i < this.splitDimensions.length - this.startLeafNodes; i++) {
+            this.splitDimensions[i] = 1;
         }
-        //now build the rest of the tree upwards
-        processNodeBoundaries(this.maxLevel - 1);
+    }
+
+    /**
+     * The boundaries of the longitude partitions of this tree for the {@link SplitPolicy#FIXED} policy.
+     *
+     * @return the start of each partition followed by the end of the last one.
+     */
+    int[] longitudePartitions() {
+        return longitudePartitions(this.startDocument, this.endDocument, this.maxLevel);
+    }
+
+    /**
+     * Computes the boundaries of the longitude partitions of a tree for the {@link SplitPolicy#FIXED} policy.
+     * The documents are sorted by longitude and the first half of the levels divide them by longitude into
+     * partitions made of consecutive leaves, the documents of each partition are then sorted by latitude.
+     *
+     * @param startDocuments the start of the documents of the tree.
+     * @param endDocuments   the end of the documents of the tree.
+     * @param maxLevel       the number of levels of the tree.
+     * @return the start of each partition followed by the end of the last one.
+     */
+    static int[] longitudePartitions(final int startDocuments, final int endDocuments, final int maxLevel) {
+        final int leaves = 1 << (maxLevel - 1);
+        final int minimumDocsPerLeaf = (endDocuments - startDocuments) / leaves;
+        final int leafsWithExtraDocument = (endDocuments - startDocuments) % leaves;
+        final int numberPartitions = 1 << (maxLevel / 2);
+        final int leavesPerPartition = leaves / numberPartitions;
+        final int[] partitions = new int[numberPartitions + 1];
+        for (int i = 0; i < numberPartitions; i++) {
+            final int leaf = i * leavesPerPartition;
+            partitions[i] = startDocuments + leaf * minimumDocsPerLeaf + Math.min(leaf, leafsWithExtraDocument);
+        }
+        partitions[numberPartitions] = endDocuments;
+        return partitions;
+    }
+
+    /**
+     * The documents array of the tree, shared with other trees.
+     *
+     * @return the documents.
+     */
+    Document[] getDocuments() {
+        return this.documents;
+    }
+
+    /**
+     * The policy used for choosing the dimension of each node.
+     *
+     * @return the split policy.
+     */
+    SplitPolicy getSplitPolicy() {
+        return this.splitPolicy;
+    }
+
+    /**
+     * The order of the node bounding boxes in memory.
+     *
+     * @return the node layout.
+     */
+    NodeLayout getNodeLayout() {
+        return this.nodeLayout;
+    }
+
+    /**
+     * Divides recursively the documents of the provided node between its children using the dimension
+     * chosen by the split policy. The documents of the left child are lower or equal than the documents
+     * of the right child on that dimension.
+     *
+     * @param nodeId     the node.
+     * @param valueScale the factor that makes the spread of the third dimension comparable.
+     */
+    private void partitionNode(final int nodeId, final double valueScale) {
+        if (isLeaf(nodeId)) {
+            return;
+        }
+        final int start = startDocuments(startLeafNode(nodeId));
+        final int end = endDocuments(endLeafNode(nodeId));
+        final int middle = startDocuments(startLeafNode(rightNode(nodeId)));
+        final int dimension = chooseSplitDimension(start, end, valueScale);
+        this.splitDimensions[nodeId - 1] = (byte) dimension;
+        SortingUtils.selectByDimension(this.documents, start, end, middle, dimension);
+        partitionNode(leftNode(nodeId), valueScale);
+        partitionNode(rightNode(nodeId), valueScale);
+    }
+
+    /**
+     * Chooses the dimension for dividing the provided documents according to the split policy.
+     *
+     * @param start      The starting index of the documents.
+     * @param end        The end index of the documents.
+     * @param valueScale The factor that makes the spread of the third dimension comparable to the spread
+     *                   of the longitude and latitude.
+     * @return the dimension, 0 is longitude, 1 is latitude and 2 is the third dimension.
+     */
+    private int chooseSplitDimension(final int start, final int end, final double valueScale) {
+        final double[] spread = new double[this.dimensions];
+        if (this.splitPolicy == SplitPolicy.WIDEST_EXTENT) {
+            final double[] max = this.documents[start].point.clone();
+            final double[] min = this.documents[start].point.clone();
+            for (int i = start + 1; i < end; i++) {
+                for (int dim = 0; dim < this.dimensions; dim++) {
+                    max[dim] = Math.max(max[dim], this.documents[i].point[dim]);
+                    min[dim] = Math.min(min[dim], this.documents[i].point[dim]);
+                }
+            }
+            for (int dim = 0; dim < this.dimensions; dim++) {
+                spread[dim] = max[dim] - min[dim];
+            }
+            if (this.dimensions > 2) {
+                spread[2] *= valueScale;
+            }
+        } else {
+            final double[] sum = new double[this.dimensions];
+            final double[] sumSquares = new double[this.dimensions];
+            for (int i = start; i < end; i++) {
+                for (int dim = 0; dim < this.dimensions; dim++) {
+                    final double value = this.documents[i].point[dim];
+                    sum[dim] += value;
+                    sumSquares[dim] += value * value;
+                }
+            }
+            final int count = end - start;
+            for (int dim = 0; dim < this.dimensions; dim++) {
+                spread[dim] = sumSquares[dim] / count - (sum[dim] / count) * (sum[dim] / count);
+            }
+            if (this.dimensions > 2) {
+                spread[2] *= valueScale * valueScale;
+            }
+        }
+        int dimension = 0;
+        for (int dim = 1; dim < this.dimensions; dim++) {
+            if (spread[dim] > spread[dimension]) {
+                dimension = dim;
+            }
+        }
+        return dimension;
+    }
+
+    /**
+     * Computes the factor that scales the third dimension so its whole range weighs like the widest
+     * range of longitude or latitude when choosing the split dimension.
+     *
+     * @return the factor, 0 if the documents have no third dimension or all of them have the same value.
+     */
+    private double computeValueScale() {
+        if (this.dimensions < 3) {
+            return 0;
+        }
+        final double[] max = this.documents[this.startDocument].point.clone();
+        final double[] min = this.documents[this.startDocument].point.clone();
+        for (int i = this.startDocument + 1; i < this.endDocument; i++) {
+            for (int dim = 0; dim < 3; dim++) {
+                max[dim] = Math.max(max[dim], this.documents[i].point[dim]);
+                min[dim] = Math.min(min[dim], this.documents[i].point[dim]);
+            }
+        }
+        final double valueExtent = max[2] - min[2];
+        return valueExtent == 0 ? 0 : Math.max(max[0] - min[0], max[1] - min[1]) / valueExtent;
     }
 
     /**
@@ -175,10 +587,27 @@ public class KDBTree implements Tree {
         int nodeStart = (int) Math.pow(2, level - 1);
         final int numberNodes = nodeStart;
         for (int i = 0; i < numberNodes; i++) {
-            this.maxBoundaries[nodeStart - 1][0] = Math.max(this.maxBoundaries[2 * nodeStart - 1][0], this.maxBoundaries[2 * nodeStart][0]);
-            this.minBoundaries[nodeStart - 1][0] = Math.min(this.minBoundaries[2 * nodeStart - 1][0], this.minBoundaries[2 * nodeStart][0]);
-            this.maxBoundaries[nodeStart - 1][1] = Math.max(this.maxBoundaries[2 * nodeStart - 1][1], this.maxBoundaries[2 * nodeStart][1]);
-            this.minBoundaries[nodeStart - 1][1] = Math.min(this.minBoundaries[2 * nodeStart - 1][1], this.minBoundaries[2 * nodeStart][1]);
+            final int box = boxOffset(nodeStart);
+            final int leftBox = boxOffset(2 * nodeStart);
+            final int rightBox = boxOffset(2 * nodeStart + 1);
+            for (int dim = 0; dim < this.dimensions; dim++) {
+                this.boxes[box + dim] = Math.max(this.boxes[leftBox + dim], this.boxes[rightBox + dim]);
+                final int lower = this.dimensions + dim;
+                this.boxes[box + lower] = Math.min(this.boxes[leftBox + lower], this.boxes[rightBox + lower]);
+            }
+            final int offset = (nodeStart - 1) * this.numberAttributes;
+            final int leftOffset = (2 * nodeStart - 1) * this.numberAttributes;
+            final int rightOffset = 2 * nodeStart * this.numberAttributes;
+            for (int attribute = 0; attribute < this.numberAttributes; attribute++) {
+                this.maxAttributes[offset + attribute] = Math.max(this.maxAttributes[leftOffset + attribute], this.maxAttributes[rightOffset + attribute]);
+                this.minAttributes[offset + attribute] = Math.min(this.minAttributes[leftOffset + attribute], this.minAttributes[rightOffset + attribute]);
+            }
+            final int leftDocuments = documents(2 * nodeStart);
+            final int rightDocuments = documents(2 * nodeStart + 1);
+            for (int dim = 0; dim < 2; dim++) {
+                this.centroids[2 * (nodeStart - 1) + dim] = (leftDocuments * this.centroids[2 * (2 * nodeStart - 1) + dim]
+                        + rightDocuments * this.centroids[2 * (2 * nodeStart) + dim]) / (leftDocuments + rightDocuments);
+            }
             nodeStart++;
         }
         if (level > 1) {
@@ -198,128 +627,741 @@ public class KDBTree implements Tree {
         double minLongitude = this.documents[start].point[0];
         double maxLatitude = this.documents[start].point[1];
         double minLatitude = this.documents[start].point[1];
+        double sumLongitude = this.documents[start].point[0];
+        double sumLatitude = this.documents[start].point[1];
         for (int i = start + 1; i < end; i++) {
             maxLongitude = Math.max(maxLongitude, this.documents[i].point[0]);
             minLongitude = Math.min(minLongitude, this.documents[i].point[0]);
             maxLatitude = Math.max(maxLatitude, this.documents[i].point[1]);
             minLatitude = Math.min(minLatitude, this.documents[i].point[1]);
+            sumLongitude += this.documents[i].point[0];
+            sumLatitude += this.documents[i].point[1];
+        }
+        this.centroids[2 * (nodeId - 1)] = sumLongitude / (end - start);
+        this.centroids[2 * (nodeId - 1) + 1] = sumLatitude / (end - start);
+        final int box = boxOffset(nodeId);
+        this.boxes[box] = maxLongitude;
+        this.boxes[box + 1] = maxLatitude;
+        this.boxes[box + this.dimensions] = minLongitude;
+        this.boxes[box + this.dimensions + 1] = minLatitude;
+        if (this.dimensions > 2) {
+            double maxValue = this.documents[start].point[2];
+            double minValue = this.documents[start].point[2];
+            for (int i = start + 1; i < end; i++) {
+                maxValue = Math.max(maxValue, this.documents[i].point[2]);
+                minValue = Math.min(minValue, this.documents[i].point[2]);
+            }
+            this.boxes[box + 2] = maxValue;
+            this.boxes[box + this.dimensions + 2] = minValue;
+        }
+        final int offset = (nodeId - 1) * this.numberAttributes;
+        for (int attribute = 0; attribute < this.numberAttributes; attribute++) {
+            double maxValue = this.documents[start].attributes[attribute];
+            double minValue = this.documents[start].attributes[attribute];
+            for (int i = start + 1; i < end; i++) {
+                maxValue = Math.max(maxValue, this.documents[i].attributes[attribute]);
+                minValue = Math.min(minValue, this.documents[i].attributes[attribute]);
+            }
+            this.maxAttributes[offset + attribute] = maxValue;
+            this.minAttributes[offset + attribute] = minValue;
         }
-        this.maxBoundaries[nodeId - 1][0] = maxLongitude;
-        this.maxBoundaries[nodeId - 1][1] = maxLatitude;
-        this.minBoundaries[nodeId - 1][0] = minLongitude;
-        this.minBoundaries[nodeId - 1][1] = minLatitude;
     }
 
     @Override
-    public void contains(final double[] upperPoint, final double[] lowerPoint, final List<Document> collector) {
-        final double[] thisUpperPoint = this.maxBoundaries[nodeId - 1];
-        final double[] thisLowerPoint = this.minBoundaries[nodeId - 1];
-        final int rel = BoundingBoxUtils.relate(thisUpperPoint, thisLowerPoint, upperPoint, lowerPoint);
-        if (rel == BoundingBoxUtils.WITHIN) {
-            //add all docs
-            addAll(collector);
-        } else if (rel != BoundingBoxUtils.DISJOINT) {
-            if (isLeaf()) {
-                //brute force
-                addOneByOne(upperPoint, lowerPoint, collector);
+    public void contains(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final List<Document> collector, final QueryStats stats) {
+        query(upperPoint, lowerPoint, filter, DocumentVisitor.collector(collector), stats);
+    }
+
+    @Override
+    public long count(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter) {
+        final DocumentVisitor.Counter counter = new DocumentVisitor.Counter();
+        query(upperPoint, lowerPoint, filter, counter, null);
+        return counter.count;
+    }
+
+    /**
+     * Visits the documents inside the provided bounding box.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param visitor    The visitor of the matching documents.
+     * @param stats      The query statistics, it might be null.
+     */
+    void query(final double[] upperPoint, final double[] lowerPoint, final DocumentVisitor visitor, final QueryStats stats) {
+        query(upperPoint, lowerPoint, null, visitor, stats);
+    }
+
+    /**
+     * Visits the documents inside the provided bounding box whose attributes match the provided filter. Nodes
+     * are only collected without checking their documents if they are within the bounding box and all their
+     * attribute values match the filter.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param visitor    The visitor of the matching documents.
+     * @param stats      The query statistics, it might be null.
+     */
+    void query(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final DocumentVisitor visitor, final QueryStats stats) {
+        query(upperPoint, lowerPoint, filter, visitor, stats, null);
+    }
+
+    /**
+     * Visits the documents inside the provided bounding box whose attributes match the provided filter until
+     * the provided deadline expires. The deadline is checked before each node and, for nodes within the bounding
+     * box, before each of their leaves, so a query that runs out of time stops after at most one leaf.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param visitor    The visitor of the matching documents.
+     * @param stats      The query statistics, it might be null.
+     * @param deadline   The deadline, or null to visit all the matching documents.
+     * @return true if all the matching documents were visited, false if the deadline expired before.
+     */
+    boolean query(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final DocumentVisitor visitor,
+                  final QueryStats stats, final QueryDeadline deadline) {
+        checkQuery(upperPoint, filter);
+        //depth first traversal without stack, each node goes down to its left child or on to the next node
+        int nodeId = 1;
+        do {
+            if (deadline != null && deadline.isExpired()) {
+                return false;
+            }
+            final int rel = relate(nodeId, upperPoint, lowerPoint, filter);
+            if (stats != null) {
+                stats.nodesVisited++;
+            }
+            if (rel == BoundingBoxUtils.WITHIN) {
+                //add all docs
+                if (!addAll(nodeId, visitor, stats, deadline)) {
+                    return false;
+                }
+            } else if (rel != BoundingBoxUtils.DISJOINT) {
+                if (isLeaf(nodeId)) {
+                    //brute force
+                    addOneByOne(nodeId, upperPoint, lowerPoint, filter, visitor, stats);
+                } else {
+                    //down one level, left node first
+                    nodeId = 2 * nodeId;
+                    continue;
+                }
+            } else if (stats != null) {
+                stats.nodesDisjoint++;
+            }
+            nodeId = nextNode(nodeId);
+        } while (nodeId != 1);
+        return true;
+    }
+
+    /**
+     * Returns the node that follows the subtree of the provided node in depth first order, left node first. As
+     * nodes are numbered level by level, dropping the trailing ones of the node id goes up while the node is a right
+     * child, and adding one moves to the right sibling.
+     *
+     * @param nodeId The node.
+     * @return the next node, or 1 once the subtree of the root has been traversed.
+     */
+    static int nextNode(final int nodeId) {
+        return (nodeId >>> Integer.numberOfTrailingZeros(~nodeId)) + 1;
+    }
+
+    /**
+     * Visits at most the provided number of documents inside the provided bounding box whose attributes match the
+     * provided filter, in the same order as {@link #query(double[], double[], AttributeFilter, DocumentVisitor, QueryStats)},
+     * starting from the provided position. The traversal after a node in depth first order only depends on the node,
+     * as it continues with the right siblings of the node and its ancestors, so a position is enough for resuming it.
+     *
+     * @param upperPoint   The upper left corner of the bounding box.
+     * @param lowerPoint   The lower right corner of the bounding box.
+     * @param filter       The filter on the attributes, or null to match any value.
+     * @param visitor      The visitor of the matching documents.
+     * @param fromNode     The node to start from, 1 to start from the beginning.
+     * @param fromDocument The position of the document of the node to start from, documents before it are skipped.
+     * @param limit        The maximum number of documents to visit.
+     * @return the position of the next matching document that was not visited, the node on the high bits and the
+     * document on the low bits, or -1 if all the matching documents after the start position were visited.
+     * @throws IllegalArgumentException if the start position is not valid.
+     */
+    long page(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final DocumentVisitor visitor,
+              final int fromNode, final int fromDocument, final int limit) {
+        checkQuery(upperPoint, filter);
+        if (fromNode < 1 || fromNode >= 2 * this.startLeafNodes || fromDocument > endDocuments(endLeafNode(fromNode))) {
+            throw new IllegalArgumentException("Not a valid position: node " + fromNode + ", document " + fromDocument);
+        }
+        int visited = 0;
+        int nodeId = fromNode;
+        do {
+            final int rel = relate(nodeId, upperPoint, lowerPoint, filter);
+            if (rel == BoundingBoxUtils.DISJOINT) {
+                nodeId = nextNode(nodeId);
+                continue;
+            }
+            final int start = nodeId == fromNode ? Math.max(fromDocument, startDocuments(startLeafNode(nodeId))) : startDocuments(startLeafNode(nodeId));
+            final int end = endDocuments(endLeafNode(nodeId));
+            if (rel == BoundingBoxUtils.WITHIN) {
+                if (start < end && visited == limit) {
+                    return ((long) nodeId << 32) | start;
+                }
+                final int count = Math.min(end - start, limit - visited);
+                visitor.visitRange(this.documents, start, start + count);
+                visited += count;
+                if (start + count < end) {
+                    return ((long) nodeId << 32) | (start + count);
+                }
+            } else if (isLeaf(nodeId)) {
+                for (int i = start; i < end; i++) {
+                    if (BoundingBoxUtils.contains(upperPoint, lowerPoint, this.documents[i].point)
+                            && (filter == null || filter.matches(this.documents[i].attributes))) {
+                        if (visited == limit) {
+                            return ((long) nodeId << 32) | i;
+                        }
+                        visitor.visit(this.documents, i);
+                        visited++;
+                    }
+                }
             } else {
-                //down one level
-                leftNode().contains(upperPoint, lowerPoint, collector);
-                parent().rightNode().contains(upperPoint, lowerPoint, collector);
-                parent();
+                nodeId = 2 * nodeId;
+                continue;
+            }
+            nodeId = nextNode(nodeId);
+        } while (nodeId != 1);
+        return -1;
+    }
+
+    /**
+     * Checks that the documents have the dimensions and attributes used by a query.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @throws IllegalArgumentException if the query uses more dimensions or attributes than the documents have.
+     */
+    private void checkQuery(final double[] upperPoint, final AttributeFilter filter) {
+        if (upperPoint.length > this.dimensions) {
+            throw new IllegalArgumentException("The query has " + upperPoint.length + " dimensions but documents have " + this.dimensions);
+        }
+        if (filter != null && filter.requiredAttributes() > this.numberAttributes) {
+            throw new IllegalArgumentException("The filter uses " + filter.requiredAttributes() + " attributes but documents have " + this.numberAttributes);
+        }
+    }
+
+    /**
+     * Computes the relationship of a node with a bounding box and a filter on the attributes. A node is
+     * only within the query if it is within the bounding box and all its attribute values match the filter.
+     *
+     * @param nodeId     The node.
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @return the relationship.
+     */
+    private int relate(final int nodeId, final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter) {
+        int rel = BoundingBoxUtils.relate(this.boxes, boxOffset(nodeId), this.dimensions, upperPoint, lowerPoint);
+        if (filter != null && rel != BoundingBoxUtils.DISJOINT) {
+            final int attributeRel = filter.relate(this.maxAttributes, this.minAttributes, (nodeId - 1) * this.numberAttributes);
+            if (attributeRel == BoundingBoxUtils.DISJOINT) {
+                rel = BoundingBoxUtils.DISJOINT;
+            } else if (attributeRel != BoundingBoxUtils.WITHIN && rel == BoundingBoxUtils.WITHIN) {
+                rel = BoundingBoxUtils.INTERSECTS;
             }
         }
+        return rel;
     }
 
     /**
-     * Collects matching documents of this node by checking the spatial relationship.
+     * Visits matching documents of the provided leaf node by checking the spatial relationship.
      *
+     * @param nodeId     The leaf node.
      * @param upperPoint The upper left corner of the bounding box.
      * @param lowerPoint The lower right corner of the bounding box.
-     * @param collector  The list collector.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param visitor    The visitor of the matching documents.
+     * @param stats      The query statistics, it might be null.
      */
-    private void addOneByOne(final double[] upperPoint, final double[] lowerPoint, final List<Document> collector) {
-        if (!isLeaf()) {
+    private void addOneByOne(final int nodeId, final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter,
+                             final DocumentVisitor visitor, final QueryStats stats) {
+        if (!isLeaf(nodeId)) {
             throw new IllegalStateException("Call addOneByOne() method on non-leaf node.");
         }
-        final int startDocument = startDocuments(this.nodeId - this.startLeafNodes);
-        final int endDocument = endDocuments(this.nodeId - this.startLeafNodes);
+        final int startDocument = startDocuments(nodeId - this.startLeafNodes);
+        final int endDocument = endDocuments(nodeId - this.startLeafNodes);
+        int matched = 0;
         for (int i = startDocument; i < endDocument; i++) {
-            if (BoundingBoxUtils.contains(upperPoint, lowerPoint, this.documents[i].point)) {
-                collector.add(this.documents[i]);
+            if (BoundingBoxUtils.contains(upperPoint, lowerPoint, this.documents[i].point)
+                    && (filter == null || filter.matches(this.documents[i].attributes))) {
+                visitor.visit(this.documents, i);
+                matched++;
+            }
+        }
+        if (stats != null) {
+            stats.leavesScanned++;
+            stats.pointsTested += endDocument - startDocument;
+            stats.pointsMatched += matched;
+        }
+    }
+
+    /**
+     * Visits all documents inside the provided node. Without deadline they are visited in one range, otherwise
+     * one leaf at a time checking the deadline between leaves.
+     *
+     * @param nodeId   The node.
+     * @param visitor  The visitor of the matching documents.
+     * @param stats    The query statistics, it might be null.
+     * @param deadline The deadline, or null to visit all the documents.
+     * @return true if all the documents were visited, false if the deadline expired before.
+     */
+    private boolean addAll(final int nodeId, final DocumentVisitor visitor, final QueryStats stats, final QueryDeadline deadline) {
+        final int start = startDocuments(startLeafNode(nodeId));
+        int end = endDocuments(endLeafNode(nodeId));
+        boolean complete = true;
+        if (deadline == null) {
+            visitor.visitRange(this.documents, start, end);
+        } else {
+            final int startLeaf = startLeafNode(nodeId);
+            final int endLeaf = endLeafNode(nodeId);
+            for (int leaf = startLeaf; leaf <= endLeaf; leaf++) {
+                if (leaf > startLeaf && deadline.isExpired()) {
+                    end = startDocuments(leaf);
+                    complete = false;
+                    break;
+                }
+                visitor.visitRange(this.documents, startDocuments(leaf), endDocuments(leaf));
+            }
+        }
+        if (stats != null) {
+            stats.withinShortcuts++;
+            stats.withinPoints += end - start;
+        }
+        return complete;
+    }
+
+    /**
+     * Visits the documents inside the provided bounding box whose attributes match the provided filter by
+     * checking all the documents of the tree one by one in one sweep, without traversing the nodes, until the
+     * provided deadline expires. The deadline is checked before each leaf.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param visitor    The visitor of the matching documents.
+     * @param stats      The query statistics, it might be null.
+     * @param deadline   The deadline, or null to visit all the matching documents.
+     * @return true if all the matching documents were visited, false if the deadline expired before.
+     */
+    boolean sweep(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final DocumentVisitor visitor,
+                  final QueryStats stats, final QueryDeadline deadline) {
+        int matched = 0;
+        int end = this.endDocument;
+        int leaves = this.startLeafNodes;
+        boolean complete = true;
+        if (deadline == null) {
+            matched = sweep(upperPoint, lowerPoint, filter, visitor, this.startDocument, end);
+        } else {
+            for (int leaf = 0; leaf < this.startLeafNodes; leaf++) {
+                if (deadline.isExpired()) {
+                    end = startDocuments(leaf);
+                    leaves = leaf;
+                    complete = false;
+                    break;
+                }
+                matched += sweep(upperPoint, lowerPoint, filter, visitor, startDocuments(leaf), endDocuments(leaf));
             }
         }
+        if (stats != null) {
+            stats.leavesScanned += leaves;
+            stats.pointsTested += end - this.startDocument;
+            stats.pointsMatched += matched;
+        }
+        return complete;
     }
 
     /**
-     * Collects all documents inside this node.
+     * Visits the documents in the provided range that are inside the provided bounding box and whose attributes
+     * match the provided filter.
      *
-     * @param collector the list collector.
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param visitor    The visitor of the matching documents.
+     * @param start      The first document of the range.
+     * @param end        The end of the range, exclusive.
+     * @return the number of visited documents.
      */
-    private void addAll(final List<Document> collector) {
-        final int start = startDocuments(startLeafNode());
-        final int end = endDocuments(endLeafNode());
+    private int sweep(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final DocumentVisitor visitor,
+                      final int start, final int end) {
+        int matched = 0;
         for (int i = start; i < end; i++) {
-            collector.add(this.documents[i]);
+            if (BoundingBoxUtils.contains(upperPoint, lowerPoint, this.documents[i].point)
+                    && (filter == null || filter.matches(this.documents[i].attributes))) {
+                visitor.visit(this.documents, i);
+                matched++;
+            }
         }
+        return matched;
     }
 
     /**
-     * Checks if we are in a leaf node.
+     * Estimates the number of documents inside the provided bounding box without visiting them. See
+     * {@link #estimate(double[], double[], int, CountEstimate)}.
      *
-     * @return true if is a leaf node else false.
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @return the estimated number of documents.
      */
-    private boolean isLeaf() {
-        return this.nodeId >= this.startLeafNodes;
+    public long estimateCount(final double[] upperPoint, final double[] lowerPoint) {
+        final CountEstimate estimate = new CountEstimate();
+        estimate(upperPoint, lowerPoint, DEFAULT_ESTIMATE_DEPTH, estimate);
+        return Math.round(estimate.count);
     }
 
     /**
-     * Checks if we are in the root node.
+     * Estimates the number of documents inside the provided bounding box by traversing the nodes down to the
+     * provided depth. Nodes within the bounding box contribute their exact number of documents, nodes that
+     * intersect it on the last level, and leaves, contribute the fraction of their bounding box covered by the
+     * query assuming their documents are uniformly distributed.
      *
-     * @return true if is the root node else false.
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param maxDepth   The number of levels to traverse, 1 only checks the root node.
+     * @param estimate   The estimate where the result is added.
      */
-    private boolean isRoot() {
-        return this.nodeId == 1;
+    void estimate(final double[] upperPoint, final double[] lowerPoint, final int maxDepth, final CountEstimate estimate) {
+        int nodeId = 1;
+        do {
+            estimate.nodes++;
+            final int rel = BoundingBoxUtils.relate(this.boxes, boxOffset(nodeId), this.dimensions, upperPoint, lowerPoint);
+            if (rel == BoundingBoxUtils.DISJOINT) {
+                nodeId = nextNode(nodeId);
+                continue;
+            }
+            final int count = endDocuments(endLeafNode(nodeId)) - startDocuments(startLeafNode(nodeId));
+            if (rel == BoundingBoxUtils.WITHIN) {
+                estimate.count += count;
+            } else if (isLeaf(nodeId) || 32 - Integer.numberOfLeadingZeros(nodeId) >= maxDepth) {
+                estimate.count += count * BoundingBoxUtils.overlapFraction(this.boxes, boxOffset(nodeId), this.dimensions, upperPoint, lowerPoint);
+                estimate.partialPoints += count;
+            } else {
+                nodeId = 2 * nodeId;
+                continue;
+            }
+            nodeId = nextNode(nodeId);
+        } while (nodeId != 1);
     }
 
     /**
-     * Moves to the left node of current node.
+     * Number of documents in the tree.
      *
-     * @return this tree.
+     * @return the number of documents.
      */
-    private KDBTree leftNode() {
-        if (isLeaf()) {
-            throw new IllegalStateException("Call leftNode() method on leaf node.");
+    int size() {
+        return this.endDocument - this.startDocument;
+    }
+
+    /**
+     * Result of estimating the documents inside a bounding box.
+     */
+    static class CountEstimate {
+
+        /** estimated number of documents inside the bounding box */
+        double count;
+        /** number of documents of the nodes that intersect the bounding box on the last estimated level */
+        long partialPoints;
+        /** number of nodes checked by the estimation */
+        long nodes;
+    }
+
+    /**
+     * Adds the documents inside the provided bounding box whose attributes match the provided filter to a grid of
+     * clusters. Nodes within the query and not bigger than a cell are added at once with their number of documents
+     * and the centroid computed at build time, so the tree is only traversed down to the size of the cells, except
+     * on the border of the query, and documents are only added one by one from leaves bigger than a cell.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @param grid       The grid of clusters over the bounding box.
+     */
+    void cluster(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final ClusterGrid grid) {
+        checkQuery(upperPoint, filter);
+        final double cellSize = grid.getCellSize();
+        int nodeId = 1;
+        do {
+            final int rel = relate(nodeId, upperPoint, lowerPoint, filter);
+            if (rel == BoundingBoxUtils.DISJOINT) {
+                nodeId = nextNode(nodeId);
+                continue;
+            }
+            final int box = boxOffset(nodeId);
+            if (rel == BoundingBoxUtils.WITHIN && this.boxes[box] - this.boxes[box + this.dimensions] <= cellSize
+                    && this.boxes[box + 1] - this.boxes[box + this.dimensions + 1] <= cellSize) {
+                grid.add(documents(nodeId), this.centroids[2 * (nodeId - 1)], this.centroids[2 * (nodeId - 1) + 1]);
+            } else if (isLeaf(nodeId)) {
+                final int end = endDocuments(nodeId - this.startLeafNodes);
+                for (int i = startDocuments(nodeId - this.startLeafNodes); i < end; i++) {
+                    final Document document = this.documents[i];
+                    if (rel == BoundingBoxUtils.WITHIN || BoundingBoxUtils.contains(upperPoint, lowerPoint, document.point)
+                            && (filter == null || filter.matches(document.attributes))) {
+                        grid.add(1, document.point[0], document.point[1]);
+                    }
+                }
+            } else {
+                nodeId = 2 * nodeId;
+                continue;
+            }
+            nodeId = nextNode(nodeId);
+        } while (nodeId != 1);
+    }
+
+    @Override
+    public void nearest(final double[] point, final int k, final List<Document> collector) {
+        final PriorityQueue<Neighbor> neighbors = new PriorityQueue<>(Neighbor.FARTHEST_FIRST);
+        nearest(point, k, neighbors);
+        Neighbor.collect(neighbors, collector);
+    }
+
+    /**
+     * Finds the nearest documents to the provided point using a best-first traversal of the nodes
+     * ordered by their distance to the point. The neighbors found in previous calls are used for
+     * pruning so several trees can be searched with the same queue.
+     *
+     * @param point     The point.
+     * @param k         The maximum number of neighbors.
+     * @param neighbors The nearest documents found so far, farthest first. It contains at most k elements.
+     */
+    void nearest(final double[] point, final int k, final PriorityQueue<Neighbor> neighbors) {
+        if (k <= 0) {
+            return;
+        }
+        final PriorityQueue<double[]> nodes = new PriorityQueue<>((o1, o2) -> Double.compare(o1[1], o2[1]));
+        nodes.add(new double[] {1, BoundingBoxUtils.distance(upperPoint(1), lowerPoint(1), point)});
+        while (!nodes.isEmpty()) {
+            final double[] node = nodes.poll();
+            if (neighbors.size() == k && node[1] > neighbors.peek().distance) {
+                //no remaining node can contain a closer document
+                break;
+            }
+            final int nodeId = (int) node[0];
+            if (isLeaf(nodeId)) {
+                final int end = endDocuments(nodeId - this.startLeafNodes);
+                for (int i = startDocuments(nodeId - this.startLeafNodes); i < end; i++) {
+                    final double distance = BoundingBoxUtils.distance(this.documents[i].point, point);
+                    if (neighbors.size() < k) {
+                        neighbors.add(new Neighbor(this.documents[i], i, distance));
+                    } else if (distance < neighbors.peek().distance) {
+                        neighbors.poll();
+                        neighbors.add(new Neighbor(this.documents[i], i, distance));
+                    }
+                }
+            } else {
+                for (int child = leftNode(nodeId); child <= rightNode(nodeId); child++) {
+                    nodes.add(new double[] {child, BoundingBoxUtils.distance(upperPoint(child), lowerPoint(child), point)});
+                }
+            }
         }
-        this.nodeId *= 2;
-        return this;
     }
 
     /**
-     * Moves to the right node of current node.
+     * Computes the bounding boxes of the nodes expanded by the provided distance, see
+     * {@link BoundingBoxUtils#expand(double[], double[], double)}.
      *
-     * @return this tree
+     * @param meters The distance in meters.
+     * @return the upper corners and the lower corners of the expanded boxes, each indexed by nodeId - 1.
      */
-    private KDBTree rightNode() {
-        if (isLeaf()) {
-            throw new IllegalStateException("Call rightNode() method on leaf node.");
+    double[][][] expandedBoundaries(final double meters) {
+        final double[][] upper = new double[2 * this.startLeafNodes - 1][];
+        final double[][] lower = new double[upper.length][];
+        for (int i = 0; i < upper.length; i++) {
+            final double[][] expanded = BoundingBoxUtils.expand(upperPoint(i + 1), lowerPoint(i + 1), meters);
+            upper[i] = expanded[0];
+            lower[i] = expanded[1];
+        }
+        return new double[][][] {upper, lower};
+    }
+
+    /**
+     * Returns the first node of the provided depth, or of the leaves if the tree is not that deep. The
+     * nodes of a level are numbered consecutively so the level ends before twice the returned node.
+     *
+     * @param depth The depth, 0 is the root node.
+     * @return the node id.
+     */
+    int firstNodeAtDepth(final int depth) {
+        return 1 << Math.min(depth, Integer.numberOfTrailingZeros(this.startLeafNodes));
+    }
+
+    /**
+     * Visits the pairs of documents under a node of this tree and a node of another tree whose haversine
+     * distance is at most the provided one, walking both trees together. A pair of nodes is skipped when the
+     * expanded box of the node of this tree is disjoint with the box of the other node, otherwise the node
+     * with more documents is divided until both nodes are leaves, whose documents are compared one by one.
+     *
+     * @param nodeId      The node of this tree.
+     * @param expanded    The expanded node boxes of this tree, see {@link #expandedBoundaries(double)}.
+     * @param other       The other tree, it might be this tree.
+     * @param otherNodeId The node of the other tree.
+     * @param meters      The distance in meters.
+     * @param visitor     The visitor of the pairs, it receives positions on the documents arrays of both trees.
+     */
+    void join(final int nodeId, final double[][][] expanded, final KDBTree other, final int otherNodeId, final double meters,
+              final SpatialJoin.PairVisitor visitor) {
+        final double deltaLat = Math.toDegrees(meters / BoundingBoxUtils.EARTH_MEAN_RADIUS_METERS);
+        //depth first traversal of node pairs, each division goes one level down on one of the trees
+        final int[] stack = new int[2 * (Integer.numberOfTrailingZeros(this.startLeafNodes) + Integer.numberOfTrailingZeros(other.startLeafNodes) + 2)];
+        int size = 0;
+        stack[size++] = nodeId;
+        stack[size++] = otherNodeId;
+        while (size > 0) {
+            final int otherNode = stack[--size];
+            final int node = stack[--size];
+            //disjoint is symmetric so the packed box of the other node can be related with the expanded box
+            if (BoundingBoxUtils.relate(other.boxes, other.boxOffset(otherNode), other.dimensions,
+                    expanded[0][node - 1], expanded[1][node - 1]) == BoundingBoxUtils.DISJOINT) {
+                continue;
+            }
+            final boolean leaf = isLeaf(node);
+            final boolean otherLeaf = other.isLeaf(otherNode);
+            if (leaf && otherLeaf) {
+                joinLeaves(node, other, otherNode, meters, deltaLat, visitor);
+            } else if (otherLeaf || (!leaf && documents(node) >= other.documents(otherNode))) {
+                stack[size++] = rightNode(node);
+                stack[size++] = otherNode;
+                stack[size++] = leftNode(node);
+                stack[size++] = otherNode;
+            } else {
+                stack[size++] = node;
+                stack[size++] = other.rightNode(otherNode);
+                stack[size++] = node;
+                stack[size++] = other.leftNode(otherNode);
+            }
+        }
+    }
+
+    /**
+     * Compares the documents of a leaf of this tree with the documents of a leaf of another tree. Each document of
+     * this leaf is expanded by the distance and only the documents of the other leaf inside it are measured.
+     */
+    private void joinLeaves(final int nodeId, final KDBTree other, final int otherNodeId, final double meters, final double deltaLat,
+                            final SpatialJoin.PairVisitor visitor) {
+        final int end = endDocuments(nodeId - this.startLeafNodes);
+        final int otherStart = other.startDocuments(otherNodeId - other.startLeafNodes);
+        final int otherEnd = other.endDocuments(otherNodeId - other.startLeafNodes);
+        final double[] otherUpper = other.upperPoint(otherNodeId);
+        final double[] otherLower = other.lowerPoint(otherNodeId);
+        for (int i = startDocuments(nodeId - this.startLeafNodes); i < end; i++) {
+            final double[] point = this.documents[i].point;
+            //the latitude difference alone is a lower bound of the distance
+            if (point[1] + deltaLat < otherLower[1] || point[1] - deltaLat > otherUpper[1]) {
+                continue;
+            }
+            final double[][] box = BoundingBoxUtils.expand(point, point, meters);
+            if (BoundingBoxUtils.relate(box[0], box[1], otherUpper, otherLower) == BoundingBoxUtils.DISJOINT) {
+                continue;
+            }
+            for (int j = otherStart; j < otherEnd; j++) {
+                final double[] otherPoint = other.documents[j].point;
+                if (BoundingBoxUtils.contains(box[0], box[1], otherPoint)) {
+                    final double distance = BoundingBoxUtils.distance(point, otherPoint);
+                    if (distance <= meters) {
+                        visitor.visit(i, j, distance);
+                    }
+                }
+            }
         }
-        this.nodeId *= 2;
-        this.nodeId += 1;
-        return this;
     }
 
     /**
-     * Moves to the parent of current node.
+     * Computes the position of the bounding box of the provided node on the boxes array.
+     *
+     * @param nodeId The node.
+     * @return the position of the upper point, the lower point follows it.
+     */
+    private int boxOffset(final int nodeId) {
+        return this.boxesOffset + boxPosition(nodeId) * 2 * this.dimensions;
+    }
+
+    /**
+     * Computes the position of the box of the provided node among the boxes of the tree for the node layout. With
+     * the blocked layout it adds the position of the block of the node, given by the node at the root of the block,
+     * and the position of the node inside the block, given by the low bits of the node id.
      *
-     * @return this tree.
+     * @param nodeId The node.
+     * @return the position, from 0 for the first box.
      */
-    private KDBTree parent() {
-        if (isRoot()) {
-            throw new IllegalStateException("Call parent() method on root node.");
+    int boxPosition(final int nodeId) {
+        if (this.blockTerms == null) {
+            return nodeId - 1;
         }
-        this.nodeId /= 2;
-        return this;
+        final int level = 3 * (31 - Integer.numberOfLeadingZeros(nodeId));
+        final int localDepth = this.blockTerms[level];
+        return this.blockTerms[level + 1] + (nodeId >>> localDepth) * this.blockTerms[level + 2] + (nodeId & ((1 << localDepth) - 1));
+    }
+
+    /**
+     * Copies the upper point of the bounding box of the provided node.
+     *
+     * @param nodeId The node.
+     * @return the upper point.
+     */
+    private double[] upperPoint(final int nodeId) {
+        final int box = boxOffset(nodeId);
+        return Arrays.copyOfRange(this.boxes, box, box + this.dimensions);
+    }
+
+    /**
+     * Copies the lower point of the bounding box of the provided node.
+     *
+     * @param nodeId The node.
+     * @return the lower point.
+     */
+    private double[] lowerPoint(final int nodeId) {
+        final int box = boxOffset(nodeId) + this.dimensions;
+        return Arrays.copyOfRange(this.boxes, box, box + this.dimensions);
+    }
+
+    /**
+     * Computes the number of documents under the provided node.
+     *
+     * @param nodeId The node.
+     * @return the number of documents.
+     */
+    private int documents(final int nodeId) {
+        return endDocuments(endLeafNode(nodeId)) - startDocuments(startLeafNode(nodeId));
+    }
+
+    /**
+     * Checks if the provided node is a leaf node.
+     *
+     * @param nodeId The node.
+     * @return true if is a leaf node else false.
+     */
+    private boolean isLeaf(final int nodeId) {
+        return nodeId >= this.startLeafNodes;
+    }
+
+    /**
+     * Computes the left node of the provided node.
+     *
+     * @param nodeId The node.
+     * @return the left node id.
+     */
+    private int leftNode(final int nodeId) {
+        if (isLeaf(nodeId)) {
+            throw new IllegalStateException("Call leftNode() method on leaf node.");
+        }
+        return 2 * nodeId;
+    }
+
+    /**
+     * Computes the right node of the provided node.
+     *
+     * @param nodeId The node.
+     * @return the right node id.
+     */
+    private int rightNode(final int nodeId) {
+        if (isLeaf(nodeId)) {
+            throw new IllegalStateException("Call rightNode() method on leaf node.");
+        }
+        return 2 * nodeId + 1;
     }
 
     /**
@@ -351,45 +1393,94 @@ public class KDBTree implements Tree {
     }
 
     /**
-     * Return the position of the start leaf node under current node with
-     * respect the first leaf node.
+     * Return the position of the start leaf node under the provided node with
+     * respect the first leaf node. Nodes are numbered level by level so the leftmost
+     * leaf is the node id shifted by the number of levels below the node.
      *
+     * @param nodeId The node.
      * @return index of the start leaf node.
      */
-    private int startLeafNode() {
-        final int index;
-        if (isLeaf()) {
-            index = this.nodeId  - this.startLeafNodes;
-        } else {
-            index = leftNode().startLeafNode();
-            parent();
-        }
-        return index;
+    private int startLeafNode(final int nodeId) {
+        return (nodeId << levelsBelow(nodeId)) - this.startLeafNodes;
     }
 
     /**
-     * Return the position of the end leaf node under current node with
+     * Return the position of the end leaf node under the provided node with
      * respect the first leaf node.
      *
+     * @param nodeId The node.
      * @return index of the end leaf node.
      */
-    private int endLeafNode() {
-        final int index;
-        if (isLeaf()) {
-            index = this.nodeId  - this.startLeafNodes;
-        } else {
-            index = rightNode().endLeafNode();
-            parent();
+    private int endLeafNode(final int nodeId) {
+        return ((nodeId + 1) << levelsBelow(nodeId)) - 1 - this.startLeafNodes;
+    }
+
+    /**
+     * Computes the number of levels between the provided node and the leaves.
+     *
+     * @param nodeId The node.
+     * @return the number of levels, 0 for leaf nodes.
+     */
+    private int levelsBelow(final int nodeId) {
+        return Integer.numberOfLeadingZeros(nodeId) - Integer.numberOfLeadingZeros(this.startLeafNodes);
+    }
+
+    /**
+     * Returns the dimension used for dividing the documents of the provided non-leaf node.
+     *
+     * @param nodeId The node.
+     * @return the dimension, 0 is longitude, 1 is latitude, 2 is the third dimension and -1 if the documents
+     * are ordered along a curve.
+     */
+    int splitDimension(final int nodeId) {
+        if (isLeaf(nodeId)) {
+            throw new IllegalStateException("Call splitDimension() method on leaf node.");
+        }
+        return this.splitDimensions[nodeId - 1];
+    }
+
+    /**
+     * Time spent on each phase of the build.
+     *
+     * @return the build timings.
+     */
+    public BuildTimings getBuildTimings() {
+        return this.buildTimings;
+    }
+
+    @Override
+    public RamUsage ramUsage() {
+        final RamUsage usage = new RamUsage();
+        final int numberDocuments = this.endDocument - this.startDocument;
+        usage.points = numberDocuments * (RamUsageEstimator.SHALLOW_SIZE_DOCUMENT + RamUsageEstimator.sizeOfDoubleArray(this.dimensions)
+                + RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+        if (this.numberAttributes > 0) {
+            usage.points += numberDocuments * RamUsageEstimator.sizeOfDoubleArray(this.numberAttributes);
+        }
+        for (int i = this.startDocument; i < this.endDocument; i++) {
+            usage.payloads += RamUsageEstimator.sizeOf(this.documents[i].data);
+        }
+        final int numberNodes = 2 * this.startLeafNodes - 1;
+        final int boxesLength = 2 * this.dimensions * numberNodes;
+        //a shared array is accounted by its owner, only the values of this tree are counted
+        usage.nodeBoundaries = (this.boxes.length == boxesLength ? RamUsageEstimator.sizeOfDoubleArray(boxesLength) : (long) boxesLength * Double.BYTES)
+                + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + numberNodes)
+                + 2 * RamUsageEstimator.sizeOfDoubleArray(this.maxAttributes.length)
+                + RamUsageEstimator.sizeOfDoubleArray(this.centroids.length)
+                + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 10 * RamUsageEstimator.NUM_BYTES_OBJECT_REF + 9 * Integer.BYTES)
+                + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 5 * Long.BYTES);
+        if (this.blockTerms != null) {
+            usage.nodeBoundaries += RamUsageEstimator.sizeOfIntArray(this.blockTerms.length);
         }
-        return index;
+        return usage;
     }
 
     @Override
     public int hashCode() {
         int result = super.hashCode();
         result = 31 * result + this.documents.hashCode();
-        result = 31 * result + this.maxBoundaries.hashCode();
-        result = 31 * result + this.minBoundaries.hashCode();
+        result = 31 * result + this.boxes.hashCode();
+        result = 31 * result + Integer.hashCode(this.boxesOffset);
         result = 31 * result + Integer.hashCode(this.maxLevel);
         result = 31 * result + Integer.hashCode(this.startDocument);
         result = 31 * result + Integer.hashCode(this.endDocument);
@@ -407,6 +1498,8 @@ public class KDBTree implements Tree {
 
     @Override
     public String toString() {
-        return "levels: " + this.maxLevel  + "; points per leaf: " + minimumDocsPerLeaf + "; number points: " + (endDocument - startDocument);
+        return "levels: " + this.maxLevel  + "; points per leaf: " + minimumDocsPerLeaf + "; number points: " + (endDocument - startDocument)
+                + "; split policy: " + this.splitPolicy.name().toLowerCase() + "; node layout: " + this.nodeLayout.name().toLowerCase()
+                + "; memory: " + ramUsage() + "; build: " + this.buildTimings;
     }
 }
\ No newline at end of file
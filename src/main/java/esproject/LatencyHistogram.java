@@ -0,0 +1,184 @@
+package esproject;
+
+/**
+ * Histogram of latencies in nanoseconds in the spirit of HdrHistogram. Values are stored in
+ * log-linear buckets: values lower than {@value SUB_BUCKET_COUNT} are stored exactly and bigger
+ * values are stored with a relative error lower than 1 / {@value SUB_BUCKET_HALF_COUNT}, which
+ * gives three significant digits on any recorded value.
+ * <p>
+ * It supports coordinated omission correction by back-filling the samples that would have been
+ * taken if the recording process had not been stalled by a slow operation.
+ * <p>
+ * It is not thread safe, each recording thread should use its own instance and merge them
+ * afterwards using {@link #add(LatencyHistogram)}.
+ */
+class LatencyHistogram {
+
+    /** Number of sub buckets on each bucket. */
+    private static final int SUB_BUCKET_COUNT = 2048;
+    /** Half of the number of sub buckets. */
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    /** Magnitude of the half of the number of sub buckets. */
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 10;
+    /** Number of buckets needed to cover all positive long values. */
+    private static final int BUCKET_COUNT = 64 - (SUB_BUCKET_HALF_COUNT_MAGNITUDE + 1);
+
+    /**
+     * Counts per index.
+     */
+    private final long[] counts = new long[SUB_BUCKET_COUNT + BUCKET_COUNT * SUB_BUCKET_HALF_COUNT];
+    /**
+     * Total number of recorded values.
+     */
+    private long totalCount;
+    /**
+     * Sum of the recorded values.
+     */
+    private long sum;
+    /**
+     * Minimum recorded value.
+     */
+    private long min = Long.MAX_VALUE;
+    /**
+     * Maximum recorded value.
+     */
+    private long max;
+
+    /**
+     * Records a value.
+     *
+     * @param value The value in nanoseconds, must be positive.
+     */
+    public void recordValue(final long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative values cannot be recorded: " + value);
+        }
+        this.counts[index(value)]++;
+        this.totalCount++;
+        this.sum += value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * Records a value correcting for coordinated omission. If the value is bigger than the expected
+     * interval between samples, it records as well the samples that were missed while the operation
+     * was running, with linearly decreasing values.
+     *
+     * @param value                 The value in nanoseconds, must be positive.
+     * @param expectedIntervalNanos The expected interval between samples. If it is lower or equal to
+     *                              zero then no correction is applied.
+     */
+    public void recordValueWithExpectedInterval(final long value, final long expectedIntervalNanos) {
+        recordValue(value);
+        if (expectedIntervalNanos <= 0) {
+            return;
+        }
+        for (long missing = value - expectedIntervalNanos; missing >= expectedIntervalNanos; missing -= expectedIntervalNanos) {
+            recordValue(missing);
+        }
+    }
+
+    /**
+     * Adds the values of the provided histogram to this histogram.
+     *
+     * @param other the histogram to add.
+     */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.totalCount += other.totalCount;
+        this.sum += other.sum;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * Computes the value at the provided percentile.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the highest value equivalent to the value at the percentile, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (this.totalCount == 0) {
+            return 0;
+        }
+        final double requested = Math.min(Math.max(percentile, 0), 100);
+        final long countAtPercentile = Math.max(1, (long) Math.ceil(requested / 100 * this.totalCount));
+        long count = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            count += this.counts[i];
+            if (count >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    /**
+     * Total number of recorded values.
+     *
+     * @return the number of values.
+     */
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * The mean of the recorded values.
+     *
+     * @return the mean or 0 if nothing has been recorded.
+     */
+    public double getMean() {
+        return this.totalCount == 0 ? 0 : (double) this.sum / this.totalCount;
+    }
+
+    /**
+     * The minimum recorded value.
+     *
+     * @return the minimum value or 0 if nothing has been recorded.
+     */
+    public long getMinValue() {
+        return this.totalCount == 0 ? 0 : this.min;
+    }
+
+    /**
+     * The maximum recorded value.
+     *
+     * @return the maximum value or 0 if nothing has been recorded.
+     */
+    public long getMaxValue() {
+        return this.max;
+    }
+
+    /**
+     * Computes the index of the counts array for the provided value.
+     *
+     * @param value the value.
+     * @return the index.
+     */
+    private static int index(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int bucket = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+        final int subBucket = (int) (value >>> bucket);
+        return SUB_BUCKET_COUNT + (bucket - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    /**
+     * Computes the highest value that is stored in the provided index.
+     *
+     * @param index the index on the counts array.
+     * @return the highest value.
+     */
+    private static long highestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int bucket = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+}
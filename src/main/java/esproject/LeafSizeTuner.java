@@ -0,0 +1,135 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses the maximum number of documents per leaf for a workload. It builds a {@link BKDTree} over a
+ * sample of the documents for each candidate leaf size, replays a sample of the queries and measures the
+ * traversal work and the latency of the queries. The recommended leaf size is the one with the lowest
+ * mean latency.
+ */
+class LeafSizeTuner {
+
+    /**
+     * The sample of documents.
+     */
+    private final Document[] sample;
+    /**
+     * The queries to replay, each one as {upperPoint, lowerPoint}.
+     */
+    private final List<double[][]> queries;
+
+    /**
+     * Constructor.
+     *
+     * @param sample  the sample of documents. The array is sorted while building the trees.
+     * @param queries the queries to replay, each one as {upperPoint, lowerPoint}.
+     */
+    LeafSizeTuner(final Document[] sample, final List<double[][]> queries) {
+        if (sample.length == 0 || queries.isEmpty()) {
+            throw new IllegalArgumentException("At least one document and one query are needed for tuning");
+        }
+        this.sample = sample;
+        this.queries = queries;
+    }
+
+    /**
+     * Measures each candidate leaf size.
+     *
+     * @param leafSizes the candidate leaf sizes, all bigger than one.
+     * @param rounds    the number of times the queries are replayed for measuring latency, after two warm up rounds.
+     * @return the measurement for each leaf size, in the same order.
+     */
+    List<Result> tune(final int[] leafSizes, final int rounds) {
+        final List<Result> results = new ArrayList<>(leafSizes.length);
+        final List<Document> collector = new ArrayList<>();
+        for (int leafSize : leafSizes) {
+            final Result result = new Result(leafSize);
+            long start = System.nanoTime();
+            final BKDTree tree = new BKDTree(this.sample, leafSize);
+            result.buildNanos = System.nanoTime() - start;
+            // one round recording the traversal work
+            final QueryStats stats = new QueryStats();
+            for (double[][] query : this.queries) {
+                tree.contains(query[0], query[1], collector, stats);
+                collector.clear();
+            }
+            result.stats = stats;
+            // the first round is not recorded so the code is warmed up without statistics
+            for (int round = 0; round <= rounds; round++) {
+                for (double[][] query : this.queries) {
+                    start = System.nanoTime();
+                    tree.contains(query[0], query[1], collector);
+                    if (round > 0) {
+                        result.histogram.recordValue(System.nanoTime() - start);
+                    }
+                    collector.clear();
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Picks the measurement with the lowest mean latency.
+     *
+     * @param results the measurements.
+     * @return the best measurement.
+     */
+    static Result best(final List<Result> results) {
+        Result best = null;
+        for (Result result : results) {
+            if (best == null || result.histogram.getMean() < best.histogram.getMean()) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Takes a uniform random sample of the documents.
+     *
+     * @param documents  the documents.
+     * @param sampleSize the size of the sample.
+     * @param seed       the seed for the random generator.
+     * @return the sample, or a copy of the documents if there are fewer documents than the sample size.
+     */
+    static Document[] sample(final Document[] documents, final int sampleSize, final long seed) {
+        if (sampleSize >= documents.length) {
+            return documents.clone();
+        }
+        // reservoir sampling
+        final Random random = new Random(seed);
+        final Document[] sample = new Document[sampleSize];
+        System.arraycopy(documents, 0, sample, 0, sampleSize);
+        for (int i = sampleSize; i < documents.length; i++) {
+            final int j = random.nextInt(i + 1);
+            if (j < sampleSize) {
+                sample[j] = documents[i];
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Measurement of one leaf size.
+     */
+    static class Result {
+
+        /** Maximum number of documents per leaf */
+        final int leafSize;
+        /** Latency of the measured queries */
+        final LatencyHistogram histogram = new LatencyHistogram();
+        /** Traversal statistics of one round of queries */
+        QueryStats stats;
+        /** Time building the tree */
+        long buildNanos;
+
+        Result(final int leafSize) {
+            this.leafSize = leafSize;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A document found by a nearest neighbour query together with its distance to the query point.
+ */
+class Neighbor {
+
+    /** orders neighbors from the farthest to the nearest */
+    static final Comparator<Neighbor> FARTHEST_FIRST = (o1, o2) -> Double.compare(o2.distance, o1.distance);
+
+    /** the document */
+    final Document document;
+    /** the position of the document on the documents array of its tree, or -1 if unknown */
+    final int index;
+    /** the distance in meters */
+    final double distance;
+
+    Neighbor(final Document document, final double distance) {
+        this(document, -1, distance);
+    }
+
+    Neighbor(final Document document, final int index, final double distance) {
+        this.document = document;
+        this.index = index;
+        this.distance = distance;
+    }
+
+    /**
+     * Adds the documents of the provided neighbors to the collector, nearest first.
+     *
+     * @param neighbors the neighbors, farthest first.
+     * @param collector the list collector.
+     */
+    static void collect(final PriorityQueue<Neighbor> neighbors, final List<Document> collector) {
+        collect(neighbors, collector, null);
+    }
+
+    /**
+     * Adds the documents of the provided neighbors to the collector, nearest first, decoding their
+     * data from the provided store.
+     *
+     * @param neighbors the neighbors, farthest first.
+     * @param collector the list collector.
+     * @param payloads  the store with the data of the documents, or null if documents hold their data.
+     */
+    static void collect(final PriorityQueue<Neighbor> neighbors, final List<Document> collector, final PayloadStore payloads) {
+        final List<Document> sorted = new ArrayList<>(neighbors.size());
+        while (!neighbors.isEmpty()) {
+            final Neighbor neighbor = neighbors.poll();
+            sorted.add(payloads == null ? neighbor.document : new Document(payloads.get(neighbor.index), neighbor.document.point, neighbor.document.attributes));
+        }
+        for (int i = sorted.size() - 1; i >= 0; i--) {
+            collector.add(sorted.get(i));
+        }
+    }
+}
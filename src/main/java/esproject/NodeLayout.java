@@ -0,0 +1,21 @@
+package esproject;
+
+/**
+ * How a {@link KDBTree} orders the bounding boxes of its nodes in memory. The nodes are always navigated by
+ * their id in breadth first order, the layout only maps each id to the position of its box.
+ */
+public enum NodeLayout {
+
+    /**
+     * Boxes are stored level by level, a node is followed by its right sibling and its children are far from
+     * it on the deep levels of big trees.
+     */
+    BREADTH_FIRST,
+
+    /**
+     * The tree is divided into subtrees of several levels whose boxes fit in a memory page, and each subtree is
+     * stored contiguously, so a descent touches one page every few levels instead of one per level. The subtrees
+     * are stored level by level and the boxes inside each subtree too.
+     */
+    BLOCKED
+}
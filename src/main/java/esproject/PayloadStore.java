@@ -0,0 +1,200 @@
+package esproject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact storage for the string data of the documents of a tree, addressed by the position of the
+ * document on the documents array of the tree. The data is encoded as UTF-8 bytes prefixed by their
+ * length plus one, zero for null data, and appended to large pages, with a table holding the offset of each entry, so there is
+ * no object per document. Strings are only decoded for the documents that are returned by a query.
+ * <p>
+ * Optionally equal strings are stored once, then the store keeps the entry of each document instead
+ * of one entry per document.
+ */
+class PayloadStore {
+
+    /** number of bits of the position inside a page */
+    private static final int PAGE_BITS = 20;
+    /** size of a page, entries never cross pages */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    /** mask for the position inside a page */
+    private static final long PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * The pages holding the entries.
+     */
+    private final byte[][] pages;
+    /**
+     * Offset of each entry, the page on the high bits and the position inside the page on the low bits.
+     */
+    private final long[] offsets;
+    /**
+     * Entry of each document, null if data is not deduplicated and the entry is the position of the document.
+     */
+    private final int[] entries;
+
+    private PayloadStore(final byte[][] pages, final long[] offsets, final int[] entries) {
+        this.pages = pages;
+        this.offsets = offsets;
+        this.entries = entries;
+    }
+
+    /**
+     * Builds a store with the data of the provided documents.
+     *
+     * @param documents   the documents, the data of each document is addressed by its position on this array.
+     * @param deduplicate if equal strings should be stored once.
+     * @return the store.
+     * @throws IllegalArgumentException if the data of a document does not fit in one page.
+     */
+    static PayloadStore build(final Document[] documents, final boolean deduplicate) {
+        final Writer writer = new Writer(documents.length);
+        if (!deduplicate) {
+            for (Document document : documents) {
+                writer.add(document.data);
+            }
+            return new PayloadStore(writer.pages(), writer.offsets(), null);
+        }
+        final Map<String, Integer> dictionary = new HashMap<>();
+        final int[] entries = new int[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            final Integer entry = dictionary.get(documents[i].data);
+            if (entry == null) {
+                entries[i] = writer.add(documents[i].data);
+                dictionary.put(documents[i].data, entries[i]);
+            } else {
+                entries[i] = entry;
+            }
+        }
+        return new PayloadStore(writer.pages(), writer.offsets(), entries);
+    }
+
+    /**
+     * Decodes the data of the provided document.
+     *
+     * @param index the position of the document.
+     * @return the data of the document, it might be null.
+     */
+    String get(final int index) {
+        final long offset = this.offsets[this.entries == null ? index : this.entries[index]];
+        final byte[] page = this.pages[(int) (offset >>> PAGE_BITS)];
+        int position = (int) (offset & PAGE_MASK);
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = page[position++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        return new String(page, position, length - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Number of documents in the store.
+     *
+     * @return the number of documents.
+     */
+    int size() {
+        return this.entries == null ? this.offsets.length : this.entries.length;
+    }
+
+    /**
+     * Number of distinct entries stored, equal to the number of documents if data is not deduplicated.
+     *
+     * @return the number of entries.
+     */
+    int numberEntries() {
+        return this.offsets.length;
+    }
+
+    /**
+     * Estimates the heap memory used by the store.
+     *
+     * @return the estimated number of bytes.
+     */
+    long ramBytesUsed() {
+        long size = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 3 * RamUsageEstimator.NUM_BYTES_OBJECT_REF)
+                + RamUsageEstimator.sizeOfObjectArray(this.pages.length)
+                + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Long.BYTES * this.offsets.length);
+        for (byte[] page : this.pages) {
+            size += RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) page.length);
+        }
+        if (this.entries != null) {
+            size += RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Integer.BYTES * this.entries.length);
+        }
+        return size;
+    }
+
+    /**
+     * Appends entries to pages.
+     */
+    private static class Writer {
+
+        private static final byte[] NULL_DATA = new byte[0];
+
+        private byte[][] pages = new byte[1][PAGE_SIZE];
+        private final long[] offsets;
+        private int numberEntries;
+        private int position;
+
+        Writer(final int maxEntries) {
+            this.offsets = new long[maxEntries];
+        }
+
+        /**
+         * Appends one entry.
+         *
+         * @param data the data of the entry, it might be null.
+         * @return the entry.
+         */
+        int add(final String data) {
+            final byte[] bytes = data == null ? NULL_DATA : data.getBytes(StandardCharsets.UTF_8);
+            //the length is stored plus one so zero stands for null data
+            final int encodedLength = data == null ? 0 : bytes.length + 1;
+            final int size = vIntSize(encodedLength) + bytes.length;
+            if (size > PAGE_SIZE) {
+                throw new IllegalArgumentException("Document data is too long: " + bytes.length + " bytes");
+            }
+            if (this.position + size > PAGE_SIZE) {
+                //trim the full page and start a new one
+                final int page = this.pages.length - 1;
+                this.pages[page] = Arrays.copyOf(this.pages[page], this.position);
+                this.pages = Arrays.copyOf(this.pages, this.pages.length + 1);
+                this.pages[page + 1] = new byte[PAGE_SIZE];
+                this.position = 0;
+            }
+            final byte[] page = this.pages[this.pages.length - 1];
+            this.offsets[this.numberEntries] = ((long) (this.pages.length - 1) << PAGE_BITS) | this.position;
+            int length = encodedLength;
+            while ((length & ~0x7F) != 0) {
+                page[this.position++] = (byte) ((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            page[this.position++] = (byte) length;
+            System.arraycopy(bytes, 0, page, this.position, bytes.length);
+            this.position += bytes.length;
+            return this.numberEntries++;
+        }
+
+        byte[][] pages() {
+            final int page = this.pages.length - 1;
+            this.pages[page] = Arrays.copyOf(this.pages[page], this.position);
+            return this.pages;
+        }
+
+        long[] offsets() {
+            return Arrays.copyOf(this.offsets, this.numberEntries);
+        }
+
+        private static int vIntSize(final int value) {
+            return (32 - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a list of bounding box queries against one shared {@link Tree} from several threads and
+ * records the latency of each query in a {@link LatencyHistogram}.
+ * <p>
+ * Two load models are supported. In closed-loop mode each thread executes the next query as soon as
+ * the previous one has finished. In open-loop mode the queries are scheduled at a fixed rate and the
+ * latency is measured from the time the query should have started, so a slow query is charged with the
+ * delay it causes to the following ones (coordinated omission correction).
+ */
+class QueryBenchmark {
+
+    /**
+     * The tree to query.
+     */
+    private final Tree tree;
+    /**
+     * The queries to replay, each one as {upperPoint, lowerPoint}.
+     */
+    private final List<double[][]> queries;
+    /**
+     * Aggregated statistics of the recorded queries, null if statistics are not recorded.
+     */
+    private final AggregatedQueryStats queryStats;
+
+    /**
+     * Constructor.
+     *
+     * @param tree    the tree to query. It must support concurrent queries.
+     * @param queries the queries to replay, each one as {upperPoint, lowerPoint}.
+     */
+    QueryBenchmark(final Tree tree, final List<double[][]> queries) {
+        this(tree, queries, null);
+    }
+
+    /**
+     * Constructor that records the statistics of the queries.
+     *
+     * @param tree       the tree to query. It must support concurrent queries.
+     * @param queries    the queries to replay, each one as {upperPoint, lowerPoint}.
+     * @param queryStats the aggregated statistics of the recorded queries, null to not record statistics.
+     */
+    QueryBenchmark(final Tree tree, final List<double[][]> queries, final AggregatedQueryStats queryStats) {
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("At least one query is needed for benchmarking");
+        }
+        this.tree = tree;
+        this.queries = queries;
+        this.queryStats = queryStats;
+    }
+
+    /**
+     * Runs the benchmark with the provided number of threads.
+     *
+     * @param threads               number of threads executing queries.
+     * @param targetRate            total number of queries per second for open-loop mode, zero or lower for closed-loop mode.
+     * @param warmupNanos           time executing queries before recording starts.
+     * @param durationNanos         time recording queries.
+     * @param expectedIntervalNanos expected interval between queries of one thread in closed-loop mode used for
+     *                              coordinated omission correction, zero or lower to disable it.
+     * @return the result of the run.
+     * @throws InterruptedException if the current thread is interrupted while waiting for the workers.
+     */
+    Result run(final int threads, final double targetRate, final long warmupNanos, final long durationNanos,
+               final long expectedIntervalNanos) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch startGate = new CountDownLatch(1);
+            final List<Future<Result>> futures = new ArrayList<>(threads);
+            final long[] startTime = new long[1];
+            for (int i = 0; i < threads; i++) {
+                final int thread = i;
+                futures.add(executor.submit(() -> {
+                    startGate.await();
+                    return runWorker(thread, threads, startTime[0], targetRate, warmupNanos, durationNanos, expectedIntervalNanos);
+                }));
+            }
+            startTime[0] = System.nanoTime();
+            startGate.countDown();
+            final Result result = new Result(threads, targetRate);
+            for (Future<Result> future : futures) {
+                result.add(future.get());
+            }
+            result.elapsedNanos = durationNanos;
+            return result;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Benchmark worker failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Executes queries on the current thread until the end of the run.
+     *
+     * @param thread                the worker number.
+     * @param threads               the total number of workers.
+     * @param startTime             the start time of the run.
+     * @param targetRate            total number of queries per second, zero or lower for closed-loop mode.
+     * @param warmupNanos           time executing queries before recording starts.
+     * @param durationNanos         time recording queries.
+     * @param expectedIntervalNanos expected interval for coordinated omission correction in closed-loop mode.
+     * @return the result of this worker.
+     */
+    private Result runWorker(final int thread, final int threads, final long startTime, final double targetRate,
+                             final long warmupNanos, final long durationNanos, final long expectedIntervalNanos) {
+        final Result result = new Result(1, targetRate);
+        final List<Document> collector = new ArrayList<>();
+        final QueryStats stats = this.queryStats == null ? null : new QueryStats();
+        final boolean openLoop = targetRate > 0;
+        final double intervalNanos = openLoop ? threads * 1e9 / targetRate : 0;
+        final long recordStart = startTime + warmupNanos;
+        final long end = recordStart + durationNanos;
+        // workers start at different queries and, in open-loop mode, at staggered times
+        int queryIndex = (int) ((long) thread * this.queries.size() / threads);
+        long scheduled = 0;
+        while (true) {
+            final long intendedStart;
+            if (openLoop) {
+                intendedStart = startTime + (long) ((scheduled++ + (double) thread / threads) * intervalNanos);
+                long now;
+                while ((now = System.nanoTime()) < intendedStart) {
+                    LockSupport.parkNanos(intendedStart - now);
+                }
+            } else {
+                intendedStart = System.nanoTime();
+            }
+            if (intendedStart >= end || (openLoop && System.nanoTime() >= end)) {
+                break;
+            }
+            final double[][] query = this.queries.get(queryIndex);
+            this.tree.contains(query[0], query[1], collector, stats);
+            final long finish = System.nanoTime();
+            if (intendedStart >= recordStart) {
+                if (openLoop) {
+                    result.histogram.recordValue(finish - intendedStart);
+                } else {
+                    result.histogram.recordValueWithExpectedInterval(finish - intendedStart, expectedIntervalNanos);
+                }
+                result.queries++;
+                result.hits += collector.size();
+                if (stats != null) {
+                    this.queryStats.record(stats);
+                }
+            }
+            if (stats != null) {
+                stats.reset();
+            }
+            collector.clear();
+            if (++queryIndex == this.queries.size()) {
+                queryIndex = 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates random queries centered on randomly chosen documents so they follow the data distribution.
+     *
+     * @param documents  the indexed documents.
+     * @param numQueries the number of queries to generate.
+     * @param maxExtent  the maximum width and height of the queries in degrees.
+     * @param seed       the seed for the random generator.
+     * @return the queries, each one as {upperPoint, lowerPoint}.
+     */
+    static List<double[][]> generateQueries(final Document[] documents, final int numQueries, final double maxExtent, final long seed) {
+        final Random random = new Random(seed);
+        final List<double[][]> queries = new ArrayList<>(numQueries);
+        for (int i = 0; i < numQueries; i++) {
+            final double[] center = documents[random.nextInt(documents.length)].point;
+            final double halfWidth = random.nextDouble() * maxExtent / 2;
+            final double halfHeight = random.nextDouble() * maxExtent / 2;
+            double minLon = center[0] - halfWidth;
+            double maxLon = center[0] + halfWidth;
+            // boxes going over the dateline are wrapped
+            if (minLon < -180) {
+                minLon += 360;
+            }
+            if (maxLon > 180) {
+                maxLon -= 360;
+            }
+            final double minLat = Math.max(-90, center[1] - halfHeight);
+            final double maxLat = Math.min(90, center[1] + halfHeight);
+            queries.add(new double[][] {{maxLon, maxLat}, {minLon, minLat}});
+        }
+        return queries;
+    }
+
+    /**
+     * Result of a benchmark run.
+     */
+    static class Result {
+
+        /** Number of threads executing queries */
+        final int threads;
+        /** Target rate for open-loop mode, zero or lower for closed-loop mode */
+        final double targetRate;
+        /** Latency histogram */
+        final LatencyHistogram histogram = new LatencyHistogram();
+        /** Number of recorded queries */
+        long queries;
+        /** Total number of hits of the recorded queries */
+        long hits;
+        /** Duration of the recording period */
+        long elapsedNanos;
+
+        Result(final int threads, final double targetRate) {
+            this.threads = threads;
+            this.targetRate = targetRate;
+        }
+
+        /**
+         * Adds the result of a worker to this result.
+         *
+         * @param other the worker result.
+         */
+        void add(final Result other) {
+            this.histogram.add(other.histogram);
+            this.queries += other.queries;
+            this.hits += other.hits;
+        }
+
+        /**
+         * Computes the number of queries per second executed during the recording period.
+         *
+         * @return the throughput.
+         */
+        double throughput() {
+            return this.elapsedNanos == 0 ? 0 : this.queries / (1e-9 * this.elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package esproject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the time a query may run. The traversal checks it before visiting each node and each leaf, so a
+ * query that runs out of time stops between leaves and returns the documents found so far. A deadline can also be
+ * cancelled from any thread, for example when the client that sent the query is gone.
+ */
+public class QueryDeadline {
+
+    /**
+     * The time when the deadline expires in {@link System#nanoTime()} units, {@link Long#MAX_VALUE} if never.
+     */
+    private final long deadlineNanos;
+    /**
+     * Set when the deadline is cancelled.
+     */
+    private volatile boolean cancelled;
+
+    private QueryDeadline(final long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Creates a deadline that expires after the provided time.
+     *
+     * @param timeout the time the query may run.
+     * @param unit    the unit of the timeout.
+     * @return the deadline.
+     */
+    public static QueryDeadline after(final long timeout, final TimeUnit unit) {
+        final long now = System.nanoTime();
+        final long nanos = unit.toNanos(timeout);
+        // saturate instead of overflowing for very long timeouts
+        return new QueryDeadline(nanos >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos);
+    }
+
+    /**
+     * Creates a deadline that never expires but can be cancelled.
+     *
+     * @return the deadline.
+     */
+    public static QueryDeadline none() {
+        return new QueryDeadline(Long.MAX_VALUE);
+    }
+
+    /**
+     * Cancels the deadline, queries checking it stop at the next node or leaf.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Checks if the deadline has been cancelled.
+     *
+     * @return true if it has been cancelled.
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Checks if queries must stop, because the deadline has passed or it has been cancelled.
+     *
+     * @return true if queries must stop.
+     */
+    public boolean isExpired() {
+        return this.cancelled || (this.deadlineNanos != Long.MAX_VALUE && System.nanoTime() - this.deadlineNanos >= 0);
+    }
+}
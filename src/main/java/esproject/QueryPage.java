@@ -0,0 +1,41 @@
+package esproject;
+
+import java.util.List;
+
+/**
+ * One page of the documents inside a bounding box, see {@link BKDTree#page(double[], double[], AttributeFilter, int, String)}.
+ */
+public class QueryPage {
+
+    private final List<Document> documents;
+    private final String nextToken;
+
+    QueryPage(final List<Document> documents, final String nextToken) {
+        this.documents = documents;
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * The documents of this page.
+     *
+     * @return the documents.
+     */
+    public List<Document> getDocuments() {
+        return this.documents;
+    }
+
+    /**
+     * The token for requesting the next page, it holds the position where the traversal stopped so the
+     * next page continues from there without any state kept by the tree.
+     *
+     * @return the token, or null if this is the last page.
+     */
+    public String getNextToken() {
+        return this.nextToken;
+    }
+
+    @Override
+    public String toString() {
+        return this.documents.size() + " documents" + (this.nextToken == null ? "" : ", next page " + this.nextToken);
+    }
+}
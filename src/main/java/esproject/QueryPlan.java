@@ -0,0 +1,23 @@
+package esproject;
+
+/**
+ * How a {@link BKDTree} executes a bounding box query, chosen from the estimated cost of traversing
+ * each of its trees compared with checking all their documents in one sweep.
+ */
+public enum QueryPlan {
+
+    /**
+     * All trees are traversed from the root, pruning disjoint nodes and collecting within nodes.
+     */
+    TREE,
+
+    /**
+     * The documents of all the trees that might match are checked one by one in one straight sweep.
+     */
+    LINEAR_SCAN,
+
+    /**
+     * Some trees are traversed and the documents of the others are checked one by one.
+     */
+    PER_TREE_SWEEP
+}
@@ -0,0 +1,42 @@
+package esproject;
+
+import java.util.List;
+
+/**
+ * The result of a query with a {@link QueryDeadline}. If the deadline expired or was cancelled before the
+ * query finished, the result holds the documents found until then.
+ */
+public class QueryResult {
+
+    private final List<Document> documents;
+    private final boolean timedOut;
+
+    QueryResult(final List<Document> documents, final boolean timedOut) {
+        this.documents = documents;
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * The matching documents, all of them unless the query timed out.
+     *
+     * @return the documents.
+     */
+    public List<Document> getDocuments() {
+        return this.documents;
+    }
+
+    /**
+     * Checks if the query stopped before visiting all the matching documents because its deadline expired
+     * or it was cancelled.
+     *
+     * @return true if the documents are a partial result.
+     */
+    public boolean isTimedOut() {
+        return this.timedOut;
+    }
+
+    @Override
+    public String toString() {
+        return this.documents.size() + " documents" + (this.timedOut ? " (timed out)" : "");
+    }
+}
@@ -0,0 +1,378 @@
+package esproject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long running server that answers queries over one shared {@link BKDTree} using a line protocol
+ * on the loopback interface. Each request is one line and each response ends with one line
+ * starting with {@code END}, {@code COUNT} or {@code ERROR}:
+ * <pre>
+ *   BOX minLat maxLat minLon maxLon [minValue maxValue]   -&gt; one line "id lat lon" per hit, then "END hits"
+ *   COUNT minLat maxLat minLon maxLon [minValue maxValue] -&gt; "COUNT hits"
+ *   KNN lat lon k                     -&gt; one line "id lat lon meters" per neighbour, nearest first, then "END k"
+ *   QUIT                              -&gt; closes the connection
+ * </pre>
+ * Every connection is served by its own thread from a bounded pool, connections over the limit are
+ * rejected. Bounding box hits are written to the connection while the tree is traversed so the result
+ * is never materialized. The number of queries executing at the same time is bounded, requests that
+ * cannot be admitted in time are answered with {@code ERROR busy}. A client that stops reading would
+ * block the writer while it holds a query permit and the tree, so connections whose writes do not
+ * complete in time are closed.
+ * <p>
+ * The tree is read from an {@link IndexHolder} so it can be replaced while the server is running,
+ * each request executes on the tree that was current when it started.
+ */
+class QueryServer implements Closeable {
+
+    /**
+     * The holder of the tree to query.
+     */
+    private final IndexHolder<BKDTree> holder;
+    /**
+     * The server socket.
+     */
+    private final ServerSocket serverSocket;
+    /**
+     * Thread per connection executor.
+     */
+    private final ThreadPoolExecutor executor;
+    /**
+     * Permits for executing queries.
+     */
+    private final Semaphore queryPermits;
+    /**
+     * Maximum time waiting for a query permit.
+     */
+    private final long admissionTimeoutMillis;
+    /**
+     * Maximum time writing to a connection.
+     */
+    private final long writeTimeoutMillis;
+    /**
+     * Closes connections whose writes time out.
+     */
+    private final ScheduledThreadPoolExecutor writeTimeouts;
+    /**
+     * Thread accepting connections.
+     */
+    private final Thread acceptor;
+
+    /**
+     * Constructor, it binds the server to the loopback interface.
+     *
+     * @param tree                   the tree to query.
+     * @param port                   the port, 0 for any free port.
+     * @param maxConnections         the maximum number of open connections.
+     * @param maxConcurrentQueries   the maximum number of queries executing at the same time.
+     * @param admissionTimeoutMillis the maximum time a request waits to be executed.
+     * @param writeTimeoutMillis     the maximum time a write to a connection blocks before it is closed.
+     * @throws IOException if the server cannot be bound.
+     */
+    QueryServer(final BKDTree tree, final int port, final int maxConnections, final int maxConcurrentQueries,
+                final long admissionTimeoutMillis, final long writeTimeoutMillis) throws IOException {
+        this(new IndexHolder<>(tree), port, maxConnections, maxConcurrentQueries, admissionTimeoutMillis, writeTimeoutMillis);
+    }
+
+    /**
+     * Constructor, it binds the server to the loopback interface.
+     *
+     * @param holder                 the holder of the tree to query.
+     * @param port                   the port, 0 for any free port.
+     * @param maxConnections         the maximum number of open connections.
+     * @param maxConcurrentQueries   the maximum number of queries executing at the same time.
+     * @param admissionTimeoutMillis the maximum time a request waits to be executed.
+     * @param writeTimeoutMillis     the maximum time a write to a connection blocks before it is closed.
+     * @throws IOException if the server cannot be bound.
+     */
+    QueryServer(final IndexHolder<BKDTree> holder, final int port, final int maxConnections, final int maxConcurrentQueries,
+                final long admissionTimeoutMillis, final long writeTimeoutMillis) throws IOException {
+        this.holder = holder;
+        this.serverSocket = new ServerSocket(port, maxConnections, InetAddress.getLoopbackAddress());
+        this.executor = new ThreadPoolExecutor(0, maxConnections, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "query-server-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queryPermits = new Semaphore(maxConcurrentQueries);
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.writeTimeouts = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "query-server-write-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writeTimeouts.setRemoveOnCancelPolicy(true);
+        this.acceptor = new Thread(this::acceptConnections, "query-server-acceptor");
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    void start() {
+        this.acceptor.start();
+    }
+
+    /**
+     * The port the server is listening on.
+     *
+     * @return the port.
+     */
+    int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+        this.executor.shutdownNow();
+        this.writeTimeouts.shutdownNow();
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    private void acceptConnections() {
+        while (!this.serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+            } catch (IOException e) {
+                if (!this.serverSocket.isClosed()) {
+                    System.out.println("Error accepting connection: " + e.getMessage());
+                }
+                continue;
+            }
+            try {
+                this.executor.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                try (Socket rejected = socket) {
+                    Writer writer = new OutputStreamWriter(rejected.getOutputStream(), StandardCharsets.UTF_8);
+                    writer.write("ERROR too many connections\n");
+                    writer.flush();
+                } catch (IOException ignored) {
+                    //the client is gone
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of one connection until the client closes it.
+     *
+     * @param socket the connection.
+     */
+    private void serve(final Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new TimeoutOutputStream(connection), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] data = line.trim().split("\\s+");
+                if ("QUIT".equalsIgnoreCase(data[0])) {
+                    break;
+                }
+                handle(data, writer);
+                writer.flush();
+            }
+        } catch (SocketException | UncheckedIOException e) {
+            //the client is gone
+        } catch (IOException e) {
+            System.out.println("Error serving connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles one request.
+     *
+     * @param data   the request split by spaces.
+     * @param writer the writer of the response.
+     * @throws IOException if there is an error writing the response.
+     */
+    void handle(final String[] data, final Writer writer) throws IOException {
+        final String command = data[0].toUpperCase();
+        final double[] numbers = new double[data.length - 1];
+        try {
+            for (int i = 1; i < data.length; i++) {
+                numbers[i - 1] = Double.parseDouble(data[i]);
+            }
+        } catch (NumberFormatException e) {
+            writer.write("ERROR not a number: " + e.getMessage() + "\n");
+            return;
+        }
+        final boolean boxQuery = "BOX".equals(command) || "COUNT".equals(command);
+        if (boxQuery && numbers.length != 4 && numbers.length != 6 || "KNN".equals(command) && numbers.length != 3) {
+            writer.write("ERROR wrong number of arguments for " + command + "\n");
+            return;
+        } else if (!boxQuery && !"KNN".equals(command)) {
+            writer.write("ERROR unknown command: " + data[0] + "\n");
+            return;
+        }
+        double[] upperPoint = null;
+        double[] lowerPoint = null;
+        if (boxQuery) {
+            upperPoint = numbers.length == 6 ? new double[] {numbers[3], numbers[1], numbers[5]} : new double[] {numbers[3], numbers[1]};
+            lowerPoint = numbers.length == 6 ? new double[] {numbers[2], numbers[0], numbers[4]} : new double[] {numbers[2], numbers[0]};
+        }
+        if (boxQuery && !BoundingBoxUtils.checkBoundingBox(upperPoint, lowerPoint)) {
+            writer.write("ERROR not a valid bounding box\n");
+            return;
+        }
+        final double[] point = boxQuery ? null : new double[] {numbers[1], numbers[0]};
+        if (!boxQuery && (!BoundingBoxUtils.checkLongitude(point[0]) || !BoundingBoxUtils.checkLatitude(point[1]) || numbers[2] < 1)) {
+            writer.write("ERROR not a valid point or number of neighbours\n");
+            return;
+        }
+        try {
+            if (!this.queryPermits.tryAcquire(this.admissionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                writer.write("ERROR busy\n");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writer.write("ERROR server shutting down\n");
+            return;
+        }
+        try (IndexHolder.Lease<BKDTree> lease = this.holder.acquire()) {
+            final BKDTree tree = lease.index();
+            if ("COUNT".equals(command)) {
+                writer.write("COUNT " + tree.count(upperPoint, lowerPoint) + "\n");
+            } else if ("BOX".equals(command)) {
+                final DocumentVisitor.Counter counter = new DocumentVisitor.Counter() {
+                    @Override
+                    public void visit(final Document[] documents, final int index) {
+                        super.visit(documents, index);
+                        write(writer, tree.data(index), documents[index].point, null);
+                    }
+
+                    @Override
+                    public void visitRange(final Document[] documents, final int start, final int end) {
+                        super.visitRange(documents, start, end);
+                        for (int i = start; i < end; i++) {
+                            write(writer, tree.data(i), documents[i].point, null);
+                        }
+                    }
+                };
+                tree.query(upperPoint, lowerPoint, counter, null);
+                writer.write("END " + counter.count + "\n");
+            } else {
+                final List<Document> neighbors = new ArrayList<>();
+                tree.nearest(point, (int) numbers[2], neighbors);
+                for (Document document : neighbors) {
+                    write(writer, document.data, document.point, BoundingBoxUtils.distance(document.point, point));
+                }
+                writer.write("END " + neighbors.size() + "\n");
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            //an invalid query or a holder closed while shutting down
+            writer.write("ERROR " + e.getMessage() + "\n");
+        } finally {
+            this.queryPermits.release();
+        }
+    }
+
+    /**
+     * Writes one document of a response.
+     *
+     * @param writer   the writer of the response.
+     * @param data     the data of the document.
+     * @param point    the point of the document.
+     * @param distance the distance to the query point, or null for bounding box queries.
+     */
+    private static void write(final Writer writer, final String data, final double[] point, final Double distance) {
+        try {
+            writer.write(data);
+            writer.write(' ');
+            writer.write(Double.toString(point[1]));
+            writer.write(' ');
+            writer.write(Double.toString(point[0]));
+            if (distance != null) {
+                writer.write(' ');
+                writer.write(Double.toString(distance));
+            }
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stream of a connection that closes the connection if a write or a flush blocks longer than the write
+     * timeout, so the blocked thread fails and releases its query permit and tree.
+     */
+    private final class TimeoutOutputStream extends FilterOutputStream {
+
+        private final Socket socket;
+
+        TimeoutOutputStream(final Socket socket) throws IOException {
+            super(socket.getOutputStream());
+            this.socket = socket;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            final ScheduledFuture<?> timeout = scheduleTimeout();
+            try {
+                out.write(b);
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final ScheduledFuture<?> timeout = scheduleTimeout();
+            try {
+                out.write(b, off, len);
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            final ScheduledFuture<?> timeout = scheduleTimeout();
+            try {
+                out.flush();
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        private ScheduledFuture<?> scheduleTimeout() throws SocketException {
+            try {
+                return writeTimeouts.schedule(() -> {
+                    try {
+                        this.socket.close();
+                    } catch (IOException e) {
+                        //closing anyway
+                    }
+                }, writeTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                throw new SocketException("The server is closed");
+            }
+        }
+    }
+}
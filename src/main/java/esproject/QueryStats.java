@@ -0,0 +1,174 @@
+package esproject;
+
+import java.util.Arrays;
+
+/**
+ * Execution statistics of spatial queries. An instance can be provided to
+ * {@link Tree#contains(double[], double[], java.util.List, QueryStats)} to record how the query
+ * traversed the tree. Statistics of several queries can be accumulated on the same instance.
+ * <p>
+ * It is not thread safe, use {@link AggregatedQueryStats} to aggregate statistics from several threads.
+ */
+public class QueryStats {
+
+    /** number of nodes whose bounding box has been checked against the query */
+    long nodesVisited;
+    /** number of nodes skipped because they are disjoint with the query */
+    long nodesDisjoint;
+    /** number of nodes whose documents have been collected because they are within the query */
+    long withinShortcuts;
+    /** number of documents collected from nodes within the query */
+    long withinPoints;
+    /** number of leaf nodes whose documents have been checked one by one */
+    long leavesScanned;
+    /** number of documents checked one by one */
+    long pointsTested;
+    /** number of documents checked one by one that are inside the query */
+    long pointsMatched;
+    /** number of queries executed with each plan, indexed by the plan ordinal */
+    final long[] plans = new long[QueryPlan.values().length];
+
+    /**
+     * Number of nodes whose bounding box has been checked against the query.
+     *
+     * @return the number of visited nodes.
+     */
+    public long getNodesVisited() {
+        return this.nodesVisited;
+    }
+
+    /**
+     * Number of nodes skipped because they are disjoint with the query.
+     *
+     * @return the number of pruned nodes.
+     */
+    public long getNodesDisjoint() {
+        return this.nodesDisjoint;
+    }
+
+    /**
+     * Number of nodes whose documents have been collected without checking them because
+     * they are within the query.
+     *
+     * @return the number of within shortcuts.
+     */
+    public long getWithinShortcuts() {
+        return this.withinShortcuts;
+    }
+
+    /**
+     * Number of documents collected from nodes within the query.
+     *
+     * @return the number of documents covered by within shortcuts.
+     */
+    public long getWithinPoints() {
+        return this.withinPoints;
+    }
+
+    /**
+     * Number of leaf nodes whose documents have been checked one by one.
+     *
+     * @return the number of scanned leaves.
+     */
+    public long getLeavesScanned() {
+        return this.leavesScanned;
+    }
+
+    /**
+     * Number of documents checked one by one against the query.
+     *
+     * @return the number of tested documents.
+     */
+    public long getPointsTested() {
+        return this.pointsTested;
+    }
+
+    /**
+     * Number of documents checked one by one that are inside the query.
+     *
+     * @return the number of matched documents.
+     */
+    public long getPointsMatched() {
+        return this.pointsMatched;
+    }
+
+    /**
+     * Total number of hits, the documents collected from within nodes plus the matched documents.
+     *
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return this.withinPoints + this.pointsMatched;
+    }
+
+    /**
+     * Number of queries that have been executed with the provided plan. Queries are only planned when the
+     * planner of the {@link BKDTree} is enabled.
+     *
+     * @param plan the plan.
+     * @return the number of queries.
+     */
+    public long getPlanCount(final QueryPlan plan) {
+        return this.plans[plan.ordinal()];
+    }
+
+    /**
+     * Records that one query has been executed with the provided plan.
+     *
+     * @param plan the plan.
+     */
+    void recordPlan(final QueryPlan plan) {
+        this.plans[plan.ordinal()]++;
+    }
+
+    /**
+     * Adds the statistics of the provided instance to this instance.
+     *
+     * @param other the statistics to add.
+     */
+    public void add(final QueryStats other) {
+        this.nodesVisited += other.nodesVisited;
+        this.nodesDisjoint += other.nodesDisjoint;
+        this.withinShortcuts += other.withinShortcuts;
+        this.withinPoints += other.withinPoints;
+        this.leavesScanned += other.leavesScanned;
+        this.pointsTested += other.pointsTested;
+        this.pointsMatched += other.pointsMatched;
+        for (int i = 0; i < this.plans.length; i++) {
+            this.plans[i] += other.plans[i];
+        }
+    }
+
+    /**
+     * Resets all statistics to zero so the instance can be reused.
+     */
+    public void reset() {
+        this.nodesVisited = 0;
+        this.nodesDisjoint = 0;
+        this.withinShortcuts = 0;
+        this.withinPoints = 0;
+        this.leavesScanned = 0;
+        this.pointsTested = 0;
+        this.pointsMatched = 0;
+        Arrays.fill(this.plans, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "nodes visited: " + this.nodesVisited + "; nodes disjoint: " + this.nodesDisjoint
+                + "; within shortcuts: " + this.withinShortcuts + " (" + this.withinPoints + " points)"
+                + "; leaves scanned: " + this.leavesScanned + "; points tested: " + this.pointsTested
+                + "; points matched: " + this.pointsMatched + plansToString();
+    }
+
+    private String plansToString() {
+        final StringBuilder builder = new StringBuilder();
+        for (QueryPlan plan : QueryPlan.values()) {
+            if (this.plans[plan.ordinal()] > 0) {
+                builder.append(builder.length() == 0 ? "; plans: " : ", ");
+                builder.append(plan.name().toLowerCase().replace('_', '-')).append(' ').append(this.plans[plan.ordinal()]);
+            }
+        }
+        return builder.toString();
+    }
+}
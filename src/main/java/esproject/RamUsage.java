@@ -0,0 +1,68 @@
+package esproject;
+
+/**
+ * Estimation of the heap memory used by a {@link Tree}, broken down by the kind of data.
+ */
+public class RamUsage {
+
+    /** bytes used by the documents and their points, including the references from the documents array */
+    long points;
+    /** bytes used by the bounding boxes of the nodes and the tree objects */
+    long nodeBoundaries;
+    /** bytes used by the string data of the documents, either as strings or in a compact store */
+    long payloads;
+
+    /**
+     * Bytes used by the documents and their points, including the references from the documents array.
+     *
+     * @return the bytes used by the points.
+     */
+    public long getPoints() {
+        return this.points;
+    }
+
+    /**
+     * Bytes used by the bounding boxes of the nodes and the tree objects.
+     *
+     * @return the bytes used by the node boundaries.
+     */
+    public long getNodeBoundaries() {
+        return this.nodeBoundaries;
+    }
+
+    /**
+     * Bytes used by the string data of the documents.
+     *
+     * @return the bytes used by the payloads.
+     */
+    public long getPayloads() {
+        return this.payloads;
+    }
+
+    /**
+     * Total bytes used.
+     *
+     * @return the sum of all the parts.
+     */
+    public long getTotal() {
+        return this.points + this.nodeBoundaries + this.payloads;
+    }
+
+    /**
+     * Adds the provided usage to this usage.
+     *
+     * @param other the usage to add.
+     */
+    void add(final RamUsage other) {
+        this.points += other.points;
+        this.nodeBoundaries += other.nodeBoundaries;
+        this.payloads += other.payloads;
+    }
+
+    @Override
+    public String toString() {
+        return RamUsageEstimator.humanReadable(getTotal()) + " (points: " + RamUsageEstimator.humanReadable(this.points)
+                + ", node boundaries: " + RamUsageEstimator.humanReadable(this.nodeBoundaries)
+                + ", payloads: " + RamUsageEstimator.humanReadable(this.payloads) + ")";
+    }
+}
@@ -0,0 +1,108 @@
+package esproject;
+
+/**
+ * Methods for estimating the heap memory used by the objects of the index. Estimations
+ * assume a 64 bit JVM with compressed object pointers, which is the default for heaps
+ * smaller than 32 gigabytes.
+ */
+class RamUsageEstimator {
+
+    /** size of an object header */
+    public static final int NUM_BYTES_OBJECT_HEADER = 12;
+    /** size of an array header, including the length */
+    public static final int NUM_BYTES_ARRAY_HEADER = 16;
+    /** size of an object reference */
+    public static final int NUM_BYTES_OBJECT_REF = 4;
+    /** objects are aligned to this number of bytes */
+    public static final int NUM_BYTES_OBJECT_ALIGNMENT = 8;
+    /** size of a {@link Document} without its point, its attributes and its data */
+    public static final long SHALLOW_SIZE_DOCUMENT = alignObjectSize(NUM_BYTES_OBJECT_HEADER + 3 * NUM_BYTES_OBJECT_REF);
+    /** size of a {@link String} without its characters */
+    public static final long SHALLOW_SIZE_STRING = alignObjectSize(NUM_BYTES_OBJECT_HEADER + NUM_BYTES_OBJECT_REF + 2 * Integer.BYTES);
+    /** whether strings store latin1 characters in one byte (java 9+) */
+    private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version").startsWith("1.");
+
+    /**
+     * Aligns the provided size to the object alignment.
+     *
+     * @param size the size in bytes.
+     * @return the aligned size.
+     */
+    public static long alignObjectSize(final long size) {
+        return (size + NUM_BYTES_OBJECT_ALIGNMENT - 1) / NUM_BYTES_OBJECT_ALIGNMENT * NUM_BYTES_OBJECT_ALIGNMENT;
+    }
+
+    /**
+     * Size of an array of doubles.
+     *
+     * @param length the length of the array.
+     * @return the size in bytes.
+     */
+    public static long sizeOfDoubleArray(final int length) {
+        return alignObjectSize(NUM_BYTES_ARRAY_HEADER + (long) Double.BYTES * length);
+    }
+
+    /**
+     * Size of an array of ints.
+     *
+     * @param length the length of the array.
+     * @return the size in bytes.
+     */
+    public static long sizeOfIntArray(final int length) {
+        return alignObjectSize(NUM_BYTES_ARRAY_HEADER + (long) Integer.BYTES * length);
+    }
+
+    /**
+     * Size of an array of objects without the referenced objects.
+     *
+     * @param length the length of the array.
+     * @return the size in bytes.
+     */
+    public static long sizeOfObjectArray(final int length) {
+        return alignObjectSize(NUM_BYTES_ARRAY_HEADER + (long) NUM_BYTES_OBJECT_REF * length);
+    }
+
+    /**
+     * Size of a string including its characters.
+     *
+     * @param string the string.
+     * @return the size in bytes.
+     */
+    public static long sizeOf(final String string) {
+        if (string == null) {
+            return 0;
+        }
+        final int bytesPerChar = COMPACT_STRINGS && isLatin1(string) ? 1 : 2;
+        return SHALLOW_SIZE_STRING + alignObjectSize(NUM_BYTES_ARRAY_HEADER + (long) bytesPerChar * string.length());
+    }
+
+    /**
+     * Formats a number of bytes for output.
+     *
+     * @param bytes the number of bytes.
+     * @return the bytes formatted as string using the biggest suitable unit.
+     */
+    public static String humanReadable(final long bytes) {
+        if (bytes >= 1L << 30) {
+            return BKDTreeMain.formatDouble((double) bytes / (1L << 30)) + " GB";
+        } else if (bytes >= 1L << 20) {
+            return BKDTreeMain.formatDouble((double) bytes / (1L << 20)) + " MB";
+        } else if (bytes >= 1L << 10) {
+            return BKDTreeMain.formatDouble((double) bytes / (1L << 10)) + " KB";
+        }
+        return bytes + " bytes";
+    }
+
+    private static boolean isLatin1(final String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private RamUsageEstimator() {
+        //no instances
+    }
+}
@@ -0,0 +1,418 @@
+package esproject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the hits of queries to a file through a buffered {@link FileChannel}. On one thread the hits are encoded
+ * straight into the write buffer. The queries can also run on several threads, which encode the hits of each query
+ * into chunks of bounded size, and the chunks are written in the order of the queries by the calling thread. Either
+ * way only the ranges of the hits of a query are held in memory, never all its encoded hits. The time spent
+ * querying, encoding and writing is measured separately.
+ * <p>
+ * The binary format writes for each query its number and its number of hits as big endian ints, followed by
+ * the position of each hit on the documents array of the tree as an int and its latitude and longitude as
+ * doubles. The CSV format writes one line per hit with the query number, the position, the id, the latitude
+ * and the longitude. Ids containing commas, quotes or line breaks are quoted as in RFC 4180.
+ */
+class ResultExporter implements AutoCloseable {
+
+    /**
+     * Format of the exported hits.
+     */
+    enum Format { BINARY, CSV }
+
+    /** bytes of the header of each query in the binary format */
+    static final int BINARY_HEADER_BYTES = 2 * Integer.BYTES;
+    /** bytes of each hit in the binary format */
+    static final int BINARY_HIT_BYTES = Integer.BYTES + 2 * Double.BYTES;
+    /** size of the write buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** maximum number of hits of a chunk encoded on another thread */
+    static final int CHUNK_HITS = 1 << 14;
+    /** number of characters of CSV lines encoded at once */
+    private static final int CSV_BATCH_CHARS = 1 << 13;
+
+    private final FileChannel channel;
+    private final Format format;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long bytesWritten;
+
+    /**
+     * Creates the exporter, replacing the provided file if it exists.
+     *
+     * @param file   the output file.
+     * @param format the format of the hits.
+     * @throws IOException if the file cannot be opened.
+     */
+    ResultExporter(final Path file, final Format format) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.format = format;
+    }
+
+    /**
+     * Runs the queries and writes their hits in the order of the queries.
+     *
+     * @param tree    the tree.
+     * @param queries the queries, each one as {upperPoint, lowerPoint}.
+     * @param threads the number of threads running the queries, 1 runs them on the calling thread.
+     * @return the summary of the export.
+     * @throws IOException if there is an error writing the file.
+     */
+    Summary export(final BKDTree tree, final List<double[][]> queries, final int threads) throws IOException {
+        final Summary summary = new Summary();
+        final long start = System.nanoTime();
+        final long bytesBefore = this.bytesWritten;
+        if (threads > 1) {
+            exportOnThreads(tree, queries, threads, summary);
+        } else {
+            //hits are encoded straight into the write buffer, which is written whenever it is full
+            final Output output = new Output() {
+                @Override
+                public ByteBuffer buffer() {
+                    return buffer;
+                }
+
+                @Override
+                public void makeRoom() throws IOException {
+                    final long flushStart = System.nanoTime();
+                    flush();
+                    summary.writeNanos += System.nanoTime() - flushStart;
+                }
+            };
+            for (int q = 0; q < queries.size(); q++) {
+                final Hits hits = runQuery(tree, queries.get(q));
+                summary.hits += hits.count;
+                summary.queryNanos += hits.queryNanos;
+                final long encodeStart = System.nanoTime();
+                final long writeNanos = summary.writeNanos;
+                encode(q, tree, hits, 0, hits.size == 0 ? 0 : hits.starts[0], hits.count, true, output);
+                summary.encodeNanos += System.nanoTime() - encodeStart - (summary.writeNanos - writeNanos);
+            }
+        }
+        final long flushStart = System.nanoTime();
+        flush();
+        summary.writeNanos += System.nanoTime() - flushStart;
+        summary.queries = queries.size();
+        summary.bytes = this.bytesWritten - bytesBefore;
+        summary.wallNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * Runs the queries and encodes their hits on an executor, and writes the encoded chunks in order on the calling
+     * thread. The hits of each query are encoded in chunks of at most {@link #CHUNK_HITS} hits, and the number of
+     * queries and chunks in flight is bounded, so the hits of large queries are never encoded at once.
+     */
+    private void exportOnThreads(final BKDTree tree, final List<double[][]> queries, final int threads, final Summary summary) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final Deque<Future<Hits>> running = new ArrayDeque<>();
+            final Deque<Future<Chunk>> chunks = new ArrayDeque<>();
+            int next = 0;
+            for (int q = 0; q < queries.size(); q++) {
+                for (; next < queries.size() && running.size() < threads; next++) {
+                    final double[][] query = queries.get(next);
+                    running.add(executor.submit(() -> runQuery(tree, query)));
+                }
+                final Hits hits = running.poll().get();
+                summary.hits += hits.count;
+                summary.queryNanos += hits.queryNanos;
+                final int number = q;
+                //cursor on the ranges of hits where each chunk starts
+                int range = 0;
+                int position = hits.size == 0 ? 0 : hits.starts[0];
+                long remaining = hits.count;
+                boolean header = true;
+                do {
+                    final int chunkRange = range;
+                    final int chunkPosition = position;
+                    final int chunkHits = (int) Math.min(remaining, CHUNK_HITS);
+                    final boolean chunkHeader = header;
+                    chunks.add(executor.submit(() -> encodeChunk(number, tree, hits, chunkRange, chunkPosition, chunkHits, chunkHeader)));
+                    if (chunks.size() == 2 * threads) {
+                        write(chunks.poll().get(), summary);
+                    }
+                    for (int skip = chunkHits; skip > 0; ) {
+                        final int available = hits.ends[range] - position;
+                        if (available > skip) {
+                            position += skip;
+                            break;
+                        }
+                        skip -= available;
+                        range++;
+                        position = range < hits.size ? hits.starts[range] : 0;
+                    }
+                    remaining -= chunkHits;
+                    header = false;
+                } while (remaining > 0);
+            }
+            while (!chunks.isEmpty()) {
+                write(chunks.poll().get(), summary);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while exporting", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Export failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs one query, collecting the ranges of its hits.
+     */
+    private static Hits runQuery(final BKDTree tree, final double[][] query) {
+        final long start = System.nanoTime();
+        final Hits hits = new Hits();
+        tree.query(query[0], query[1], null, hits, null);
+        hits.queryNanos = System.nanoTime() - start;
+        return hits;
+    }
+
+    /**
+     * Encodes some hits of one query into a new chunk.
+     */
+    private Chunk encodeChunk(final int query, final BKDTree tree, final Hits hits, final int range, final int position,
+                              final int count, final boolean header) throws IOException {
+        final long start = System.nanoTime();
+        final int estimate = (header ? BINARY_HEADER_BYTES : 0) + count * (this.format == Format.BINARY ? BINARY_HIT_BYTES : 48);
+        final Output output = new Output() {
+            private ByteBuffer chunk = ByteBuffer.allocate(Math.max(estimate, BINARY_HEADER_BYTES));
+
+            @Override
+            public ByteBuffer buffer() {
+                return this.chunk;
+            }
+
+            @Override
+            public void makeRoom() {
+                this.chunk.flip();
+                this.chunk = ByteBuffer.allocate(2 * this.chunk.capacity()).put(this.chunk);
+            }
+        };
+        encode(query, tree, hits, range, position, count, header, output);
+        final ByteBuffer bytes = output.buffer();
+        bytes.flip();
+        return new Chunk(bytes, System.nanoTime() - start);
+    }
+
+    private void write(final Chunk chunk, final Summary summary) throws IOException {
+        final long start = System.nanoTime();
+        write(chunk.bytes);
+        summary.writeNanos += System.nanoTime() - start;
+        summary.encodeNanos += chunk.encodeNanos;
+    }
+
+    /**
+     * Encodes hits of one query.
+     *
+     * @param query    the number of the query.
+     * @param tree     the queried tree.
+     * @param hits     the positions of the hits on the documents array of the tree.
+     * @param range    the range of the first hit to encode.
+     * @param position the position of the first hit to encode.
+     * @param count    the number of hits to encode.
+     * @param header   whether to start with the header of the query, only for the binary format.
+     * @param output   the destination of the encoded hits.
+     * @throws IOException if there is an error making room in the output.
+     */
+    private void encode(final int query, final BKDTree tree, final Hits hits, final int range, final int position,
+                        final long count, final boolean header, final Output output) throws IOException {
+        final Document[] documents = tree.getDocuments();
+        int r = range;
+        int i = position;
+        if (this.format == Format.BINARY) {
+            if (header) {
+                if (output.buffer().remaining() < BINARY_HEADER_BYTES) {
+                    output.makeRoom();
+                }
+                output.buffer().putInt(query).putInt((int) hits.count);
+            }
+            for (long n = 0; n < count; n++, i++) {
+                if (i == hits.ends[r]) {
+                    i = hits.starts[++r];
+                }
+                if (output.buffer().remaining() < BINARY_HIT_BYTES) {
+                    output.makeRoom();
+                }
+                output.buffer().putInt(i).putDouble(documents[i].point[1]).putDouble(documents[i].point[0]);
+            }
+            return;
+        }
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        final StringBuilder builder = new StringBuilder();
+        for (long n = 0; n < count; n++, i++) {
+            if (i == hits.ends[r]) {
+                i = hits.starts[++r];
+            }
+            builder.append(query).append(',').append(i).append(',');
+            appendCsvField(builder, tree.data(i));
+            builder.append(',').append(documents[i].point[1]).append(',').append(documents[i].point[0]).append('\n');
+            if (builder.length() >= CSV_BATCH_CHARS) {
+                encodeLines(builder, encoder, output);
+            }
+        }
+        encodeLines(builder, encoder, output);
+    }
+
+    /**
+     * Encodes whole CSV lines as UTF-8 into the output and clears them.
+     */
+    private static void encodeLines(final StringBuilder lines, final CharsetEncoder encoder, final Output output) throws IOException {
+        final CharBuffer chars = CharBuffer.wrap(lines);
+        encoder.reset();
+        while (encoder.encode(chars, output.buffer(), true).isOverflow()) {
+            output.makeRoom();
+        }
+        lines.setLength(0);
+    }
+
+    /**
+     * Appends a CSV field, enclosed in double quotes with its double quotes doubled if it contains a comma, a double
+     * quote or a line break.
+     *
+     * @param builder the builder of the line.
+     * @param field   the field.
+     */
+    static void appendCsvField(final StringBuilder builder, final String field) {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            final char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            builder.append(field);
+            return;
+        }
+        builder.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+            if (c == '"') {
+                builder.append('"');
+            }
+            builder.append(c);
+        }
+        builder.append('"');
+    }
+
+    /**
+     * Writes an encoded chunk after the previous ones. Small chunks are gathered in the write buffer.
+     *
+     * @param chunk the chunk.
+     * @throws IOException if there is an error writing the file.
+     */
+    private void write(final ByteBuffer chunk) throws IOException {
+        if (chunk.remaining() > this.buffer.remaining()) {
+            flush();
+            if (chunk.remaining() >= this.buffer.capacity()) {
+                writeFully(chunk);
+                return;
+            }
+        }
+        this.buffer.put(chunk);
+    }
+
+    private void flush() throws IOException {
+        this.buffer.flip();
+        writeFully(this.buffer);
+        this.buffer.clear();
+    }
+
+    private void writeFully(final ByteBuffer chunk) throws IOException {
+        this.bytesWritten += chunk.remaining();
+        while (chunk.hasRemaining()) {
+            this.channel.write(chunk);
+        }
+    }
+
+    /**
+     * Destination of encoded hits.
+     */
+    private interface Output {
+
+        /**
+         * The buffer to encode into, it might change after {@link #makeRoom()}.
+         *
+         * @return the buffer.
+         */
+        ByteBuffer buffer();
+
+        /**
+         * Makes room in the buffer when the next hit does not fit.
+         *
+         * @throws IOException if there is an error writing the buffer.
+         */
+        void makeRoom() throws IOException;
+    }
+
+    /**
+     * The ranges of hits of one query.
+     */
+    private static class Hits extends DocumentVisitor.RangeCollector {
+
+        long queryNanos;
+    }
+
+    /**
+     * Encoded hits of one query.
+     */
+    private static class Chunk {
+
+        final ByteBuffer bytes;
+        final long encodeNanos;
+
+        Chunk(final ByteBuffer bytes, final long encodeNanos) {
+            this.bytes = bytes;
+            this.encodeNanos = encodeNanos;
+        }
+    }
+
+    /**
+     * Counts and times of an export. Query and encode times are summed over all the threads.
+     */
+    static class Summary {
+
+        /** number of queries */
+        long queries;
+        /** number of hits */
+        long hits;
+        /** bytes written */
+        long bytes;
+        /** time spent traversing the tree */
+        long queryNanos;
+        /** time spent encoding the hits */
+        long encodeNanos;
+        /** time spent writing the file on the calling thread */
+        long writeNanos;
+        /** elapsed time of the export */
+        long wallNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+}
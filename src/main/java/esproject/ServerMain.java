@@ -0,0 +1,240 @@
+package esproject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class to execute the query server. It loads the points, builds the {@link BKDTree} once and serves
+ * queries on the loopback interface until the process is stopped. See {@link QueryServer} for the protocol.
+ * Optionally the points file is checked periodically and, when it has changed, a new tree is built in the
+ * background and swapped in while the server keeps answering queries with the previous one.
+ */
+public class ServerMain {
+
+    /**
+     * Entry point of the server.
+     *
+     * @param args Provided arguments. See usage.
+     * @throws IOException if there is an error reading the input file or binding the server.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 && ("-h".equals(args[0]) || "--help".equals(args[0]))) {
+            printUsage();
+            System.exit(0);
+        }
+        final CommandLineOptions options;
+        final int docsPerLeaf;
+        final int port;
+        final int maxConnections;
+        final int maxConcurrentQueries;
+        final int admissionTimeout;
+        final int writeTimeout;
+        final String payloads;
+        final int reloadInterval;
+        try {
+            options = new CommandLineOptions(args);
+            docsPerLeaf = options.getInt("leaf", options.positional().isEmpty() ? KDBTree.DEFAULT_DOCUMENTS_PER_LEAF
+                    : IndexSettings.load(new File(options.positional().get(0))).maxDocumentsPerLeaf);
+            port = options.getInt("port", 9300);
+            maxConnections = options.getInt("max-connections", 256);
+            maxConcurrentQueries = options.getInt("max-concurrent-queries", 2 * Runtime.getRuntime().availableProcessors());
+            admissionTimeout = options.getInt("admission-timeout-ms", 1000);
+            writeTimeout = options.getInt("write-timeout-ms", 10000);
+            payloads = BenchmarkMain.parsePayloads(options.getString("payloads", "string"));
+            reloadInterval = options.getInt("reload-interval", 0);
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            printUsage();
+            System.exit(0);
+            return;
+        }
+        if (options.positional().size() != 1) {
+            System.out.println("The server has been called with incorrect parameters:");
+            printUsage();
+            System.exit(0);
+        }
+        if (docsPerLeaf < 2) {
+            System.out.println("The input for points per leaf must be bigger than 1: " + docsPerLeaf);
+            printUsage();
+            System.exit(0);
+        }
+        if (maxConnections < 1 || maxConcurrentQueries < 1 || writeTimeout < 1 || admissionTimeout < 0 || reloadInterval < 0) {
+            System.out.println("The connection and query limits and the write timeout must be bigger than 0 and the admission timeout and reload interval positive");
+            printUsage();
+            System.exit(0);
+        }
+        File dataFile = new File(options.positional().get(0));
+        if (!dataFile.exists()) {
+            System.out.println("The input data file does not exists: " + dataFile);
+            System.exit(0);
+        }
+        System.out.println("Server started, loading points in memory....");
+        final FileWatcher watcher = new FileWatcher(dataFile);
+        BKDTree tree = null;
+        try {
+            tree = buildTree(dataFile, docsPerLeaf, payloads);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+            System.exit(0);
+        }
+        if (tree == null) {
+            System.out.println("The input data file does not contain points: " + dataFile);
+            System.exit(0);
+        }
+        IndexHolder<BKDTree> holder = new IndexHolder<>(tree);
+
+        QueryServer server = new QueryServer(holder, port, maxConnections, maxConcurrentQueries, admissionTimeout, writeTimeout);
+        ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-server-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (reloadInterval > 0) {
+            reloader.scheduleWithFixedDelay(() -> {
+                if (watcher.changed()) {
+                    reload(dataFile, docsPerLeaf, payloads, holder);
+                }
+            }, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            reloader.shutdownNow();
+            try {
+                server.close();
+            } catch (IOException e) {
+                //shutting down anyway
+            }
+            holder.close();
+        }));
+        server.start();
+        System.out.println("Listening on localhost:" + server.getPort());
+    }
+
+    /**
+     * Rebuilds the tree from the points file and swaps it in. If the file cannot be read, is not properly
+     * formed or does not contain points, the current generation keeps serving queries.
+     *
+     * @param dataFile    the points file.
+     * @param docsPerLeaf the number of points per leaf.
+     * @param payloads    how the string data of the points is stored.
+     * @param holder      the holder of the serving tree.
+     * @return true if a new generation has been swapped in.
+     */
+    static boolean reload(final File dataFile, final int docsPerLeaf, final String payloads, final IndexHolder<BKDTree> holder) {
+        try {
+            BKDTree newTree = buildTree(dataFile, docsPerLeaf, payloads);
+            if (newTree == null) {
+                System.out.println("The input data file does not contain points, keeping the current index: " + dataFile);
+                return false;
+            }
+            System.out.println("Index generation " + holder.swap(newTree) + " is now serving queries");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error reloading the input data file, keeping the current index: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Loads the points and builds a tree.
+     *
+     * @param dataFile    the points file.
+     * @param docsPerLeaf the number of points per leaf.
+     * @param payloads    how the string data of the points is stored.
+     * @return the tree, or null if the file does not contain points.
+     * @throws IOException if there is an error reading the file.
+     * @throws IllegalArgumentException if the file is not properly formed.
+     * @throws IllegalStateException if the heap runs short, so a partial index is never served.
+     */
+    private static BKDTree buildTree(final File dataFile, final int docsPerLeaf, final String payloads) throws IOException {
+        Document[] documents = BKDTreeMain.readDocuments(dataFile, false);
+        if (documents.length == 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        BKDTree tree = new BKDTree(documents, docsPerLeaf);
+        if (!"string".equals(payloads)) {
+            tree.compactPayloads("dictionary".equals(payloads));
+        }
+        long end = System.nanoTime();
+        System.out.println("Index with " + documents.length + " points has been built in : " + BKDTreeMain.formatDouble(1e-9 * (end - start)) + " seconds");
+        return tree;
+    }
+
+    /**
+     * Detects changes of the points file. A change is only reported once the size and modification time of the
+     * file are the same in two consecutive checks, so a file that is still being written is not loaded.
+     */
+    static final class FileWatcher {
+
+        private final File file;
+        /** the modification time and size of the last reported or initial file */
+        private long loadedModified;
+        private long loadedLength;
+        /** the modification time and size seen by the previous check */
+        private long seenModified;
+        private long seenLength;
+
+        FileWatcher(final File file) {
+            this.file = file;
+            this.loadedModified = this.seenModified = file.lastModified();
+            this.loadedLength = this.seenLength = file.length();
+        }
+
+        /**
+         * Checks the file.
+         *
+         * @return true if the file changed since the last reported change and did not change since the previous check.
+         */
+        boolean changed() {
+            final long modified = file.lastModified();
+            final long length = file.length();
+            final boolean stable = modified == seenModified && length == seenLength;
+            seenModified = modified;
+            seenLength = length;
+            if (!stable || (modified == loadedModified && length == loadedLength)) {
+                return false;
+            }
+            loadedModified = modified;
+            loadedLength = length;
+            return true;
+        }
+    }
+
+    /**
+     * Prints the usage of the server.
+     */
+    private static void printUsage() {
+        System.out.println();
+        System.out.println("  usage: java -jar <jarfile>.jar --server /path/to/geo_points.csv [options]");
+        System.out.println();
+        System.out.println("       --leaf N                         :       number of points per leaf (default 1024 or the value stored by --tune)");
+        System.out.println("       --port N                         :       port on the loopback interface (default 9300)");
+        System.out.println("       --max-connections N              :       maximum number of open connections (default 256)");
+        System.out.println("       --max-concurrent-queries N       :       maximum number of queries executing at the same time");
+        System.out.println("                                                (default twice the number of processors)");
+        System.out.println("       --admission-timeout-ms N         :       maximum time a request waits to be executed (default 1000)");
+        System.out.println("       --write-timeout-ms N             :       maximum time a response write blocks before the connection is");
+        System.out.println("                                                closed (default 10000)");
+        System.out.println("       --payloads string|compact|dictionary:   keep point ids as strings, in a compact UTF-8 store or in a");
+        System.out.println("                                                compact store with duplicated ids stored once (default string)");
+        System.out.println("       --reload-interval S              :       check the points file every S seconds and, if it changed, rebuild");
+        System.out.println("                                                the index in the background and swap it in (default 0, disabled)");
+        System.out.println("                                                once its size and time are unchanged for one interval; replace the");
+        System.out.println("                                                file with an atomic rename to avoid the delay");
+        System.out.println();
+        System.out.println("  Requests, one per line:");
+        System.out.println("       BOX minLat maxLat minLon maxLon  :       one line 'id lat lon' per hit, then 'END hits'");
+        System.out.println("       COUNT minLat maxLat minLon maxLon:       'COUNT hits'");
+        System.out.println("                                                both accept optional 'minValue maxValue' for points with a value");
+        System.out.println("       KNN lat lon k                    :       one line 'id lat lon meters' per neighbour, then 'END k'");
+        System.out.println("       QUIT                             :       closes the connection");
+        System.out.println();
+    }
+
+    private ServerMain() {
+        //no instances
+    }
+}
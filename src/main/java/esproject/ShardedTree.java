@@ -0,0 +1,268 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Implementation of a {@link Tree} that splits the documents into several {@link BKDTree} shards so one query
+ * can use several cores. Shards are built in parallel and queries are executed on all the shards that might
+ * contain matching documents using a shared executor, merging the results afterwards.
+ * <p>
+ * Documents can be partitioned spatially, by ranges of longitude, so each query only visits the shards whose
+ * bounding box intersects the query, or round-robin, so every shard covers the whole data and any query is
+ * spread evenly among the shards.
+ */
+public class ShardedTree implements Tree {
+
+    /**
+     * How documents are assigned to shards.
+     */
+    public enum Partitioning {
+        /** contiguous ranges of longitude */
+        SPATIAL,
+        /** document i goes to shard i modulo the number of shards */
+        ROUND_ROBIN
+    }
+
+    /**
+     * The shards.
+     */
+    private final BKDTree[] shards;
+    /**
+     * Upper point of the bounding box of each shard.
+     */
+    private final double[][] maxBoundaries;
+    /**
+     * Lower point of the bounding box of each shard.
+     */
+    private final double[][] minBoundaries;
+    /**
+     * Executor running the shard builds and queries.
+     */
+    private final ExecutorService executor;
+    /**
+     * Time spent on each phase of the build, summed over all the shards.
+     */
+    private final BuildTimings buildTimings = new BuildTimings();
+
+    /**
+     * Constructor.
+     *
+     * @param documents           the documents to index. The array is sorted for spatial partitioning.
+     * @param maxDocumentsPerLeaf the maximum number of documents per leaf.
+     * @param numberShards        the number of shards.
+     * @param partitioning        how documents are assigned to shards.
+     * @param executor            executor used for building the shards and executing queries.
+     */
+    public ShardedTree(final Document[] documents, final int maxDocumentsPerLeaf, final int numberShards,
+                       final Partitioning partitioning, final ExecutorService executor) {
+        this(documents, maxDocumentsPerLeaf, numberShards, partitioning, SplitPolicy.FIXED, executor);
+    }
+
+    /**
+     * Constructor with the policy for choosing the dimension each node of the shards is divided by.
+     *
+     * @param documents           the documents to index. The array is sorted for spatial partitioning.
+     * @param maxDocumentsPerLeaf the maximum number of documents per leaf.
+     * @param numberShards        the number of shards.
+     * @param partitioning        how documents are assigned to shards.
+     * @param splitPolicy         the policy for choosing the dimension of each node.
+     * @param executor            executor used for building the shards and executing queries.
+     */
+    public ShardedTree(final Document[] documents, final int maxDocumentsPerLeaf, final int numberShards,
+                       final Partitioning partitioning, final SplitPolicy splitPolicy, final ExecutorService executor) {
+        if (numberShards < 1) {
+            throw new IllegalArgumentException("The number of shards must be bigger than 0: " + numberShards);
+        }
+        if (documents.length < numberShards) {
+            throw new IllegalArgumentException("Not enough documents for " + numberShards + " shards: " + documents.length);
+        }
+        this.executor = executor;
+        this.shards = new BKDTree[numberShards];
+        this.maxBoundaries = new double[numberShards][];
+        this.minBoundaries = new double[numberShards][];
+        final Document[][] partitions = partition(documents, numberShards, partitioning);
+        final List<Callable<BKDTree>> builds = new ArrayList<>(numberShards);
+        for (Document[] partition : partitions) {
+            builds.add(() -> new BKDTree(partition, maxDocumentsPerLeaf, splitPolicy));
+        }
+        final List<BKDTree> trees = TaskUtils.invokeAll(builds, this.executor, "shard");
+        for (int i = 0; i < numberShards; i++) {
+            this.shards[i] = trees.get(i);
+            this.buildTimings.add(this.shards[i].getBuildTimings());
+            computeBoundaries(partitions[i], i);
+        }
+    }
+
+    /**
+     * Splits the documents into the provided number of partitions.
+     *
+     * @param documents    the documents.
+     * @param numberShards the number of partitions.
+     * @param partitioning how documents are assigned to partitions.
+     * @return the partitions.
+     */
+    private static Document[][] partition(final Document[] documents, final int numberShards, final Partitioning partitioning) {
+        final Document[][] partitions = new Document[numberShards][];
+        if (partitioning == Partitioning.SPATIAL) {
+            SortingUtils.parallelSortByDimension(documents, 0);
+            for (int i = 0; i < numberShards; i++) {
+                final int start = (int) ((long) i * documents.length / numberShards);
+                final int end = (int) ((long) (i + 1) * documents.length / numberShards);
+                partitions[i] = Arrays.copyOfRange(documents, start, end);
+            }
+        } else {
+            for (int i = 0; i < numberShards; i++) {
+                partitions[i] = new Document[(documents.length - i + numberShards - 1) / numberShards];
+            }
+            for (int i = 0; i < documents.length; i++) {
+                partitions[i % numberShards][i / numberShards] = documents[i];
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Computes the bounding box of one shard.
+     *
+     * @param documents the documents of the shard.
+     * @param shard     the shard.
+     */
+    private void computeBoundaries(final Document[] documents, final int shard) {
+        final double[] upperPoint = documents[0].point.clone();
+        final double[] lowerPoint = documents[0].point.clone();
+        for (Document document : documents) {
+            for (int dim = 0; dim < upperPoint.length; dim++) {
+                upperPoint[dim] = Math.max(upperPoint[dim], document.point[dim]);
+                lowerPoint[dim] = Math.min(lowerPoint[dim], document.point[dim]);
+            }
+        }
+        this.maxBoundaries[shard] = upperPoint;
+        this.minBoundaries[shard] = lowerPoint;
+    }
+
+    @Override
+    public void contains(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final List<Document> collector, final QueryStats stats) {
+        final List<Callable<Object[]>> tasks = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            if (BoundingBoxUtils.relate(this.maxBoundaries[i], this.minBoundaries[i], upperPoint, lowerPoint) != BoundingBoxUtils.DISJOINT) {
+                final BKDTree shard = this.shards[i];
+                tasks.add(() -> {
+                    final List<Document> shardCollector = new ArrayList<>();
+                    final QueryStats shardStats = stats == null ? null : new QueryStats();
+                    shard.contains(upperPoint, lowerPoint, filter, shardCollector, shardStats);
+                    return new Object[] {shardCollector, shardStats};
+                });
+            }
+        }
+        for (Object[] result : TaskUtils.invokeAll(tasks, this.executor, "shard")) {
+            @SuppressWarnings("unchecked")
+            final List<Document> shardCollector = (List<Document>) result[0];
+            collector.addAll(shardCollector);
+            if (stats != null) {
+                stats.add((QueryStats) result[1]);
+            }
+        }
+    }
+
+    @Override
+    public long count(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter) {
+        final List<Callable<Long>> tasks = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            if (BoundingBoxUtils.relate(this.maxBoundaries[i], this.minBoundaries[i], upperPoint, lowerPoint) != BoundingBoxUtils.DISJOINT) {
+                final BKDTree shard = this.shards[i];
+                tasks.add(() -> shard.count(upperPoint, lowerPoint, filter));
+            }
+        }
+        long count = 0;
+        for (long shardCount : TaskUtils.invokeAll(tasks, this.executor, "shard")) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    @Override
+    public void nearest(final double[] point, final int k, final List<Document> collector) {
+        final List<Callable<List<Document>>> tasks = new ArrayList<>(this.shards.length);
+        for (BKDTree shard : this.shards) {
+            tasks.add(() -> {
+                final List<Document> shardCollector = new ArrayList<>(k);
+                shard.nearest(point, k, shardCollector);
+                return shardCollector;
+            });
+        }
+        final PriorityQueue<Neighbor> neighbors = new PriorityQueue<>(Neighbor.FARTHEST_FIRST);
+        for (List<Document> shardCollector : TaskUtils.invokeAll(tasks, this.executor, "shard")) {
+            for (Document document : shardCollector) {
+                final double distance = BoundingBoxUtils.distance(document.point, point);
+                if (neighbors.size() < k) {
+                    neighbors.add(new Neighbor(document, distance));
+                } else if (distance < neighbors.peek().distance) {
+                    neighbors.poll();
+                    neighbors.add(new Neighbor(document, distance));
+                } else {
+                    //shard results are sorted, the rest are farther
+                    break;
+                }
+            }
+        }
+        Neighbor.collect(neighbors, collector);
+    }
+
+    /**
+     * Enables the query planner of every shard, see {@link BKDTree#setQueryPlanning(int)}.
+     *
+     * @param estimateDepth the number of levels traversed for estimating the cost of a query, 0 disables planning.
+     */
+    public void setQueryPlanning(final int estimateDepth) {
+        for (BKDTree shard : this.shards) {
+            shard.setQueryPlanning(estimateDepth);
+        }
+    }
+
+    /**
+     * Moves the string data of the documents of every shard to a compact store, see
+     * {@link BKDTree#compactPayloads(boolean)}.
+     *
+     * @param deduplicate if equal strings should be stored once.
+     */
+    public void compactPayloads(final boolean deduplicate) {
+        for (BKDTree shard : this.shards) {
+            shard.compactPayloads(deduplicate);
+        }
+    }
+
+    /**
+     * Time spent on each phase of the build, summed over all the shards.
+     *
+     * @return the build timings.
+     */
+    public BuildTimings getBuildTimings() {
+        return this.buildTimings;
+    }
+
+    @Override
+    public RamUsage ramUsage() {
+        final RamUsage usage = new RamUsage();
+        for (BKDTree shard : this.shards) {
+            usage.add(shard.ramUsage());
+        }
+        usage.nodeBoundaries += RamUsageEstimator.sizeOfObjectArray(this.shards.length)
+                + 2 * (RamUsageEstimator.sizeOfObjectArray(this.shards.length) + this.shards.length * RamUsageEstimator.sizeOfDoubleArray(this.maxBoundaries[0].length));
+        return usage;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Sharded tree built with " + this.shards.length + " shards:\n");
+        for (int i = 0; i < this.shards.length; i++) {
+            builder.append("Shard " + (i + 1) + ": " + this.shards[i].toString());
+        }
+        return builder.toString();
+    }
+}
@@ -29,6 +29,180 @@ class SortingUtils {
         Arrays.sort(documents, start, end, (o1, o2) -> (o1.point[dimension] > o2.point[dimension]) ? 1 : o1.point[dimension] < o2.point[dimension] ? -1 : 0);
     }
 
+    /**
+     * Sort documents by provided dimension using several threads.
+     *
+     * @param documents the documents to sort.
+     * @param dimension the dimension, 0 is longitude, 1 is latitude.
+     */
+    public static void parallelSortByDimension(Document[] documents, int dimension) {
+        Arrays.parallelSort(documents, (o1, o2) -> (o1.point[dimension] > o2.point[dimension]) ? 1 : o1.point[dimension] < o2.point[dimension] ? -1 : 0);
+    }
+
+    /**
+     * Reorders a subset of documents so the document at the provided position is the one that would be
+     * there if the subset was sorted by the provided dimension, documents before it are lower or equal and
+     * documents after it are bigger or equal. It runs in linear time on average.
+     *
+     * @param documents the documents to reorder.
+     * @param start the start of the subset.
+     * @param end the end of the subset.
+     * @param k the position to select, between start and end.
+     * @param dimension the dimension, 0 is longitude, 1 is latitude.
+     */
+    public static void selectByDimension(Document[] documents, int start, int end, int k, int dimension) {
+        int left = start;
+        int right = end - 1;
+        // bound the iterations so degenerated inputs fall back to sorting
+        int iterations = 2 * (32 - Integer.numberOfLeadingZeros(end - start));
+        while (right - left > 16) {
+            if (iterations-- == 0) {
+                sortByDimension(documents, left, right + 1, dimension);
+                return;
+            }
+            // median of three as pivot
+            int middle = (left + right) >>> 1;
+            if (documents[middle].point[dimension] < documents[left].point[dimension]) {
+                swap(documents, left, middle);
+            }
+            if (documents[right].point[dimension] < documents[left].point[dimension]) {
+                swap(documents, left, right);
+            }
+            if (documents[right].point[dimension] < documents[middle].point[dimension]) {
+                swap(documents, middle, right);
+            }
+            final double pivot = documents[middle].point[dimension];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (documents[i].point[dimension] < pivot) {
+                    i++;
+                }
+                while (documents[j].point[dimension] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(documents, i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+        sortByDimension(documents, left, right + 1, dimension);
+    }
+
+    /**
+     * Reorders a subset of documents so the documents at all the provided positions are the ones that would be
+     * there if the subset was sorted by the provided dimension, so the documents between two consecutive positions
+     * are the ones that would be there too. It runs in O(n log k) on average for k positions.
+     *
+     * @param documents the documents to reorder.
+     * @param start the start of the subset.
+     * @param end the end of the subset.
+     * @param positions the positions to select, sorted and between start and end.
+     * @param dimension the dimension, 0 is longitude, 1 is latitude.
+     */
+    public static void selectByDimension(Document[] documents, int start, int end, int[] positions, int dimension) {
+        selectByDimension(documents, start, end, positions, 0, positions.length, dimension);
+    }
+
+    private static void selectByDimension(Document[] documents, int start, int end, int[] positions, int from, int to, int dimension) {
+        if (from >= to || end - start < 2) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        final int k = positions[middle];
+        selectByDimension(documents, start, end, k, dimension);
+        selectByDimension(documents, start, k, positions, from, middle, dimension);
+        selectByDimension(documents, k + 1, end, positions, middle + 1, to, dimension);
+    }
+
+    /**
+     * Sort documents subset by their position along a Hilbert curve over the quantized longitude and latitude.
+     * The position of each document is computed once and packed with the document index in one long, so the
+     * documents are ordered with a single primitive sort. The precision of the curve depends on the size of the
+     * subset, it uses all the bits that are not needed for the index.
+     *
+     * @param documents the documents to sort.
+     * @param start the start of the subset.
+     * @param end the end of the subset.
+     */
+    public static void sortByHilbertCurve(Document[] documents, int start, int end) {
+        final int size = end - start;
+        if (size < 2) {
+            return;
+        }
+        final int indexBits = 32 - Integer.numberOfLeadingZeros(size - 1);
+        final int order = Math.min(31, (63 - indexBits) / 2);
+        final long indexMask = (1L << indexBits) - 1;
+        final long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            final double[] point = documents[start + i].point;
+            final long key = hilbertKey(quantize(point[0], -180, 180, order), quantize(point[1], -90, 90, order), order);
+            keys[i] = (key << indexBits) | i;
+        }
+        Arrays.sort(keys);
+        final Document[] sorted = new Document[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = documents[start + (int) (keys[i] & indexMask)];
+        }
+        System.arraycopy(sorted, 0, documents, start, size);
+    }
+
+    /**
+     * Computes the position of a cell along a Hilbert curve.
+     *
+     * @param x the cell position on the first dimension.
+     * @param y the cell position on the second dimension.
+     * @param order the number of bits per dimension, the curve covers 2^order x 2^order cells.
+     * @return the position along the curve, between 0 and 4^order - 1.
+     */
+    static long hilbertKey(long x, long y, int order) {
+        final long n = 1L << order;
+        long key = 0;
+        for (long s = n >>> 1; s > 0; s >>>= 1) {
+            final long rx = (x & s) > 0 ? 1 : 0;
+            final long ry = (y & s) > 0 ? 1 : 0;
+            key += s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant so the curve is continuous
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                final long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Quantizes a coordinate into the cells of a curve.
+     *
+     * @param value the coordinate.
+     * @param min the minimum value of the coordinate.
+     * @param max the maximum value of the coordinate.
+     * @param order the number of bits of the cell.
+     * @return the cell, between 0 and 2^order - 1.
+     */
+    private static long quantize(double value, double min, double max, int order) {
+        final long cells = 1L << order;
+        return Math.min(cells - 1, (long) ((value - min) / (max - min) * cells));
+    }
+
+    private static void swap(Document[] documents, int i, int j) {
+        final Document document = documents[i];
+        documents[i] = documents[j];
+        documents[j] = document;
+    }
+
     private SortingUtils() {
         //no instances
     }
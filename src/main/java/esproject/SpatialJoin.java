@@ -0,0 +1,92 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Finds the pairs of documents of two trees whose haversine distance is at most a given distance by walking
+ * both trees together. Pairs of nodes that are too far apart are skipped at once, so the cost depends on the
+ * number of close node pairs instead of running one distance query per document. The walk is divided into
+ * the pairs of the nodes of the top levels of each tree, which run in parallel on an executor.
+ */
+public class SpatialJoin {
+
+    /**
+     * Depth of the nodes of each tree whose pairs are joined by one task.
+     */
+    private static final int TASK_DEPTH = 2;
+
+    /**
+     * Receives the pairs found while walking two {@link KDBTree} instances.
+     */
+    interface PairVisitor {
+
+        /**
+         * Visits one pair of documents within the join distance.
+         *
+         * @param leftIndex  the position of the document on the documents array of the left tree.
+         * @param rightIndex the position of the document on the documents array of the right tree.
+         * @param distance   the distance in meters.
+         */
+        void visit(int leftIndex, int rightIndex, double distance);
+    }
+
+    /**
+     * Visits the pairs of documents of the left and the right tree whose distance is at most the provided one.
+     * Each pair is visited once. Joining a tree with itself visits every pair in both orders and every
+     * document paired with itself.
+     *
+     * @param left     the left tree, a {@link BKDTree} or a {@link KDBTree}.
+     * @param right    the right tree, a {@link BKDTree} or a {@link KDBTree}.
+     * @param meters   the maximum distance in meters.
+     * @param visitor  the visitor of the pairs, it must be thread safe if there is an executor.
+     * @param executor the executor running the join, or null to run it on the calling thread.
+     * @throws IllegalArgumentException if the distance is negative or a tree is not supported.
+     */
+    public static void join(final Tree left, final Tree right, final double meters, final JoinVisitor visitor, final ExecutorService executor) {
+        if (!(meters >= 0)) {
+            throw new IllegalArgumentException("The distance must be positive: " + meters);
+        }
+        final List<KDBTree> leftTrees = BKDTree.kdbTrees(left);
+        final List<KDBTree> rightTrees = BKDTree.kdbTrees(right);
+        final BKDTree leftOwner = left instanceof BKDTree ? (BKDTree) left : null;
+        final BKDTree rightOwner = right instanceof BKDTree ? (BKDTree) right : null;
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (KDBTree leftTree : leftTrees) {
+            final double[][][] expanded = leftTree.expandedBoundaries(meters);
+            final Document[] leftDocuments = leftTree.getDocuments();
+            final int leftFirst = leftTree.firstNodeAtDepth(TASK_DEPTH);
+            for (KDBTree rightTree : rightTrees) {
+                final Document[] rightDocuments = rightTree.getDocuments();
+                final PairVisitor pairVisitor = (leftIndex, rightIndex, distance) ->
+                        visitor.visit(document(leftOwner, leftDocuments, leftIndex), document(rightOwner, rightDocuments, rightIndex), distance);
+                final int rightFirst = rightTree.firstNodeAtDepth(TASK_DEPTH);
+                for (int leftNode = leftFirst; leftNode < 2 * leftFirst; leftNode++) {
+                    for (int rightNode = rightFirst; rightNode < 2 * rightFirst; rightNode++) {
+                        final int leftNodeId = leftNode;
+                        final int rightNodeId = rightNode;
+                        tasks.add(() -> {
+                            leftTree.join(leftNodeId, expanded, rightTree, rightNodeId, meters, pairVisitor);
+                            return null;
+                        });
+                    }
+                }
+            }
+        }
+        TaskUtils.invokeAll(tasks, executor, "join");
+    }
+
+    /**
+     * Returns the document at the provided position, decoding its data if the payloads of the tree are compacted.
+     */
+    private static Document document(final BKDTree owner, final Document[] documents, final int index) {
+        final Document document = documents[index];
+        return owner == null || document.data != null ? document : new Document(owner.data(index), document.point, document.attributes);
+    }
+
+    private SpatialJoin() {
+        //no instances
+    }
+}
@@ -0,0 +1,183 @@
+package esproject;
+
+import java.util.BitSet;
+
+/**
+ * Boolean combination of bounding box queries, for example "in box A AND in box B but NOT in box C",
+ * evaluated over a {@link BKDTree} with {@link BKDTree#matching(SpatialQuery, QueryStats)}. The result is a bit set
+ * of the positions of the matching documents on the documents array of the tree, so combining results
+ * costs one operation per 64 documents instead of hashing every document.
+ * <p>
+ * Instances are immutable. When the right side of an {@code AND} or {@code AND NOT} is a plain longitude and
+ * latitude box expected to match more documents than the left side already holds, the documents of the left
+ * side are checked against the box instead of traversing the tree.
+ */
+public class SpatialQuery {
+
+    private enum Operator { BOX, AND, OR, AND_NOT }
+
+    private final Operator operator;
+    /** the upper corner of the box for box queries */
+    private final double[] upperPoint;
+    /** the lower corner of the box for box queries */
+    private final double[] lowerPoint;
+    /** the filter on the attributes for box queries, it might be null */
+    private final AttributeFilter filter;
+    private final SpatialQuery left;
+    private final SpatialQuery right;
+
+    private SpatialQuery(final Operator operator, final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter,
+                         final SpatialQuery left, final SpatialQuery right) {
+        this.operator = operator;
+        this.upperPoint = upperPoint;
+        this.lowerPoint = lowerPoint;
+        this.filter = filter;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Creates a query matching the documents inside a bounding box.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @return the query.
+     * @throws IllegalArgumentException if the bounding box is not valid.
+     */
+    public static SpatialQuery box(final double[] upperPoint, final double[] lowerPoint) {
+        return box(upperPoint, lowerPoint, null);
+    }
+
+    /**
+     * Creates a query matching the documents inside a bounding box whose attributes match a filter.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes, or null to match any value.
+     * @return the query.
+     * @throws IllegalArgumentException if the bounding box is not valid.
+     */
+    public static SpatialQuery box(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter) {
+        if (!BoundingBoxUtils.checkBoundingBox(upperPoint, lowerPoint)) {
+            throw new IllegalArgumentException("Not a valid bounding box");
+        }
+        return new SpatialQuery(Operator.BOX, upperPoint.clone(), lowerPoint.clone(), filter, null, null);
+    }
+
+    /**
+     * Creates a query matching the documents that match this query and the provided one.
+     *
+     * @param other the other query.
+     * @return the query.
+     */
+    public SpatialQuery and(final SpatialQuery other) {
+        return new SpatialQuery(Operator.AND, null, null, null, this, other);
+    }
+
+    /**
+     * Creates a query matching the documents that match this query or the provided one.
+     *
+     * @param other the other query.
+     * @return the query.
+     */
+    public SpatialQuery or(final SpatialQuery other) {
+        return new SpatialQuery(Operator.OR, null, null, null, this, other);
+    }
+
+    /**
+     * Creates a query matching the documents that match this query but not the provided one.
+     *
+     * @param other the other query.
+     * @return the query.
+     */
+    public SpatialQuery andNot(final SpatialQuery other) {
+        return new SpatialQuery(Operator.AND_NOT, null, null, null, this, other);
+    }
+
+    /**
+     * Evaluates the query over the provided tree.
+     *
+     * @param tree  the tree.
+     * @param stats the query statistics, it might be null.
+     * @return the positions of the matching documents.
+     */
+    BitSet evaluate(final BKDTree tree, final QueryStats stats) {
+        if (this.operator == Operator.BOX) {
+            final BitSet ordinals = new BitSet(tree.getDocuments().length);
+            tree.query(this.upperPoint, this.lowerPoint, this.filter, DocumentVisitor.ordinals(ordinals), stats);
+            return ordinals;
+        }
+        final BitSet ordinals = this.left.evaluate(tree, stats);
+        switch (this.operator) {
+            case OR:
+                ordinals.or(this.right.evaluate(tree, stats));
+                break;
+            case AND:
+                if (!ordinals.isEmpty()) {
+                    if (checkDocuments(tree, ordinals)) {
+                        retainMatching(tree.getDocuments(), ordinals, true, stats);
+                    } else {
+                        ordinals.and(this.right.evaluate(tree, stats));
+                    }
+                }
+                break;
+            default:
+                if (!ordinals.isEmpty()) {
+                    if (checkDocuments(tree, ordinals)) {
+                        retainMatching(tree.getDocuments(), ordinals, false, stats);
+                    } else {
+                        ordinals.andNot(this.right.evaluate(tree, stats));
+                    }
+                }
+        }
+        return ordinals;
+    }
+
+    /**
+     * Checks if it is cheaper to check the documents of the left side against the box of the right side
+     * than to traverse the tree with it.
+     */
+    private boolean checkDocuments(final BKDTree tree, final BitSet ordinals) {
+        return this.right.operator == Operator.BOX && this.right.filter == null && this.right.upperPoint.length == 2
+                && ordinals.cardinality() < tree.estimateCount(this.right.upperPoint, this.right.lowerPoint);
+    }
+
+    /**
+     * Keeps the documents of the provided set that match, or that do not match, the box of the right side.
+     */
+    private void retainMatching(final Document[] documents, final BitSet ordinals, final boolean matching, final QueryStats stats) {
+        final SpatialQuery box = this.right;
+        long tested = 0;
+        long matched = 0;
+        for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals.nextSetBit(i + 1)) {
+            tested++;
+            final Document document = documents[i];
+            final boolean matches = BoundingBoxUtils.contains(box.upperPoint, box.lowerPoint, document.point);
+            if (matches) {
+                matched++;
+            }
+            if (matches != matching) {
+                ordinals.clear(i);
+            }
+        }
+        if (stats != null) {
+            stats.pointsTested += tested;
+            stats.pointsMatched += matched;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (this.operator) {
+            case BOX:
+                return "BOX(" + this.lowerPoint[1] + ", " + this.upperPoint[1] + ", " + this.lowerPoint[0] + ", " + this.upperPoint[0]
+                        + (this.filter == null ? "" : ", " + this.filter) + ")";
+            case AND:
+                return "(" + this.left + " AND " + this.right + ")";
+            case OR:
+                return "(" + this.left + " OR " + this.right + ")";
+            default:
+                return "(" + this.left + " AND NOT " + this.right + ")";
+        }
+    }
+}
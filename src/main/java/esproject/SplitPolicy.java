@@ -0,0 +1,30 @@
+package esproject;
+
+/**
+ * How a {@link KDBTree} divides the documents of each node between its two children.
+ */
+public enum SplitPolicy {
+
+    /**
+     * The first half of the levels divide by longitude and the rest by latitude, so the leaves form
+     * a fixed matrix of longitude partitions, each one divided by latitude.
+     */
+    FIXED,
+
+    /**
+     * Each node divides by the dimension where its documents have the widest extent in degrees.
+     */
+    WIDEST_EXTENT,
+
+    /**
+     * Each node divides by the dimension where its documents have the highest variance.
+     */
+    MAX_VARIANCE,
+
+    /**
+     * Documents are ordered along a Hilbert curve over the quantized longitude and latitude and each node
+     * holds a consecutive run of that order. It only needs one sort by a single key and gives tight leaves
+     * on skewed data.
+     */
+    HILBERT
+}
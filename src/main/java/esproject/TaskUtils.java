@@ -0,0 +1,77 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Methods for running tasks in parallel on an executor.
+ */
+final class TaskUtils {
+
+    /**
+     * Executes the tasks, all but the first one on the executor and the first one on the calling thread, and
+     * waits for all of them. Without executor all the tasks run on the calling thread.
+     * <p>
+     * While waiting, the calling thread runs the tasks the executor has not started yet, so it only waits for
+     * tasks that are running on other threads. This makes it safe to call from a thread of the same executor,
+     * for example from a task of a bounded pool, which would otherwise wait for tasks queued behind itself.
+     * <p>
+     * If a task fails the tasks that did not complete are cancelled and unchecked exceptions, for example an
+     * {@link IllegalArgumentException} for an invalid query, are rethrown as they are so callers see the same
+     * exception as when running the work on a single thread.
+     *
+     * @param tasks     the tasks.
+     * @param executor  the executor, it might be null.
+     * @param operation the name of the operation for error messages, for example "shard".
+     * @param <T>       the type of the results.
+     * @return the results in the same order as the tasks.
+     */
+    static <T> List<T> invokeAll(final List<Callable<T>> tasks, final Executor executor, final String operation) {
+        final List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<>(task));
+        }
+        try {
+            if (executor != null) {
+                for (int i = 1; i < futures.size(); i++) {
+                    try {
+                        executor.execute(futures.get(i));
+                    } catch (RejectedExecutionException e) {
+                        //the calling thread runs it below
+                    }
+                }
+            }
+            final List<T> results = new ArrayList<>(tasks.size());
+            for (FutureTask<T> future : futures) {
+                //does nothing if the executor already started the task
+                future.run();
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the " + operation + " tasks", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("A " + operation + " task failed", e.getCause());
+        } finally {
+            for (FutureTask<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private TaskUtils() {
+        //no instances
+    }
+}
@@ -3,7 +3,7 @@ package esproject;
 import java.util.List;
 
 /**
- * Interface for trees that can be searched using bounding boxes.
+ * Interface for trees that can be searched using bounding boxes or by distance to a point.
  */
 public interface Tree {
 
@@ -15,5 +15,80 @@ public interface Tree {
      * @param lowerPoint The lower right corner of the bounding box.
      * @param collector  The list collector.
      */
-     void contains(final double[] upperPoint, final double[] lowerPoint, final List<Document> collector);
+     default void contains(final double[] upperPoint, final double[] lowerPoint, final List<Document> collector) {
+         contains(upperPoint, lowerPoint, collector, null);
+     }
+
+    /**
+     * Computes the points inside the provided bounding box like {@link #contains(double[], double[], List)} and
+     * records how the tree has been traversed on the provided statistics.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param collector  The list collector.
+     * @param stats      The statistics where the traversal is recorded, or null to not record statistics.
+     */
+     default void contains(final double[] upperPoint, final double[] lowerPoint, final List<Document> collector, final QueryStats stats) {
+         contains(upperPoint, lowerPoint, null, collector, stats);
+     }
+
+    /**
+     * Computes the points inside the provided bounding box whose attributes match the provided filter. Nodes whose
+     * attribute values cannot match the filter are skipped like nodes outside the bounding box.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes of the points, or null to match any value.
+     * @param collector  The list collector.
+     * @param stats      The statistics where the traversal is recorded, or null to not record statistics.
+     */
+     void contains(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter, final List<Document> collector, final QueryStats stats);
+
+    /**
+     * Counts the points inside the provided bounding box without collecting them.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @return the number of points inside the bounding box.
+     */
+     default long count(final double[] upperPoint, final double[] lowerPoint) {
+         return count(upperPoint, lowerPoint, null);
+     }
+
+    /**
+     * Counts the points inside the provided bounding box whose attributes match the provided filter without
+     * collecting them.
+     *
+     * @param upperPoint The upper left corner of the bounding box.
+     * @param lowerPoint The lower right corner of the bounding box.
+     * @param filter     The filter on the attributes of the points, or null to match any value.
+     * @return the number of matching points.
+     */
+     long count(final double[] upperPoint, final double[] lowerPoint, final AttributeFilter filter);
+
+    /**
+     * Computes the points nearest to the provided point using the haversine distance. Adds the result
+     * to the list collector, nearest first.
+     *
+     * @param point     The point, longitude first.
+     * @param k         The maximum number of points to collect.
+     * @param collector The list collector.
+     */
+     void nearest(final double[] point, final int k, final List<Document> collector);
+
+    /**
+     * Estimates the heap memory used by the tree, broken down by the kind of data.
+     *
+     * @return the estimated memory usage.
+     */
+     RamUsage ramUsage();
+
+    /**
+     * Estimates the heap memory used by the tree.
+     *
+     * @return the estimated number of bytes.
+     */
+     default long ramBytesUsed() {
+         return ramUsage().getTotal();
+     }
 }
@@ -0,0 +1,243 @@
+package esproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Merges the documents of trees built with the {@link SplitPolicy#FIXED} policy into the layout of one
+ * {@link BKDTree} without sorting them again. The documents of each longitude partition of the input trees
+ * are already sorted by latitude, so the merge selects the documents of each output longitude partition
+ * by rank, distributes the documents of every input partition in order between the output partitions and
+ * merges the sorted runs that end up in each output partition by latitude. Output partitions are merged
+ * in parallel.
+ */
+class TreeMerger {
+
+    /**
+     * Minimum number of documents merged by one task.
+     */
+    private static final int DOCUMENTS_PER_TASK = 1 << 16;
+
+    /**
+     * Merges the documents of the provided trees.
+     *
+     * @param trees               the trees, {@link BKDTree} or {@link KDBTree} instances built with the fixed policy.
+     * @param maxDocumentsPerLeaf the maximum number of documents per leaf of the merged tree.
+     * @param executor            the executor merging the output partitions, or null to merge them on the calling thread.
+     * @return the documents sorted by longitude and each longitude partition of the merged tree sorted by latitude.
+     * @throws IllegalArgumentException if a tree cannot be merged.
+     */
+    static Document[] merge(final List<? extends Tree> trees, final int maxDocumentsPerLeaf, final ExecutorService executor) {
+        final Document[] runs = collectRuns(trees);
+        final int[] runStarts = runStarts(trees);
+        final int total = runs.length;
+        if (total == 0) {
+            throw new IllegalArgumentException("The trees do not contain documents");
+        }
+        final int[] partitions = outputPartitions(total, maxDocumentsPerLeaf);
+        final int numberPartitions = partitions.length - 1;
+        //find the documents of each output partition by rank
+        final Document[] merged = runs.clone();
+        SortingUtils.selectByDimension(merged, 0, total, Arrays.copyOfRange(partitions, 1, numberPartitions), 0);
+        final double[] thresholds = new double[numberPartitions];
+        final int[] ties = new int[numberPartitions];
+        for (int j = 0; j < numberPartitions - 1; j++) {
+            thresholds[j] = merged[partitions[j + 1]].point[0];
+            for (int i = partitions[j]; i < partitions[j + 1]; i++) {
+                if (merged[i].point[0] == thresholds[j]) {
+                    ties[j]++;
+                }
+            }
+        }
+        thresholds[numberPartitions - 1] = Double.POSITIVE_INFINITY;
+        //distribute the documents of each run in order, so they stay sorted by latitude
+        final Document[] staged = new Document[total];
+        final int[] cursors = Arrays.copyOf(partitions, numberPartitions);
+        final int[] lastRun = new int[numberPartitions];
+        Arrays.fill(lastRun, -1);
+        final List<List<Integer>> segments = new ArrayList<>(numberPartitions);
+        for (int j = 0; j < numberPartitions; j++) {
+            segments.add(new ArrayList<>());
+        }
+        for (int r = 0; r < runStarts.length - 1; r++) {
+            for (int i = runStarts[r]; i < runStarts[r + 1]; i++) {
+                final double longitude = runs[i].point[0];
+                int j = firstNotLower(thresholds, longitude);
+                while (longitude == thresholds[j] && ties[j] == 0) {
+                    j++;
+                }
+                if (longitude == thresholds[j]) {
+                    ties[j]--;
+                }
+                if (lastRun[j] != r) {
+                    segments.get(j).add(cursors[j]);
+                    lastRun[j] = r;
+                }
+                staged[cursors[j]++] = runs[i];
+            }
+        }
+        //merge the runs of each output partition by latitude
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        int first = 0;
+        for (int j = 0; j < numberPartitions; j++) {
+            if (j == numberPartitions - 1 || partitions[j + 1] - partitions[first] >= DOCUMENTS_PER_TASK) {
+                final int from = first;
+                final int to = j + 1;
+                tasks.add(() -> {
+                    for (int p = from; p < to; p++) {
+                        mergeRuns(staged, merged, segments.get(p), partitions[p + 1]);
+                    }
+                    return null;
+                });
+                first = j + 1;
+            }
+        }
+        TaskUtils.invokeAll(tasks, executor, "merge");
+        return merged;
+    }
+
+    /**
+     * Copies the documents of the longitude partitions of all the trees one after the other.
+     *
+     * @param trees the trees.
+     * @return the documents, each partition sorted by latitude.
+     */
+    private static Document[] collectRuns(final List<? extends Tree> trees) {
+        int total = 0;
+        for (Tree tree : trees) {
+            for (KDBTree kdbTree : BKDTree.kdbTrees(tree)) {
+                if (kdbTree.getSplitPolicy() != SplitPolicy.FIXED) {
+                    throw new IllegalArgumentException("Only trees built with the fixed split policy can be merged: "
+                            + kdbTree.getSplitPolicy().name().toLowerCase());
+                }
+                total += kdbTree.size();
+            }
+        }
+        final Document[] runs = new Document[total];
+        int position = 0;
+        for (Tree tree : trees) {
+            final BKDTree owner = tree instanceof BKDTree ? (BKDTree) tree : null;
+            for (KDBTree kdbTree : BKDTree.kdbTrees(tree)) {
+                final Document[] documents = kdbTree.getDocuments();
+                final int[] partitions = kdbTree.longitudePartitions();
+                for (int i = partitions[0]; i < partitions[partitions.length - 1]; i++) {
+                    final Document document = documents[i];
+                    // compacted payloads are materialized again
+                    runs[position++] = owner == null || document.data != null ? document : new Document(owner.data(i), document.point, document.attributes);
+                }
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Computes the start of each longitude partition of the trees on the array of {@link #collectRuns(List)}.
+     *
+     * @param trees the trees.
+     * @return the start of each run followed by the end of the last one.
+     */
+    private static int[] runStarts(final List<? extends Tree> trees) {
+        final List<Integer> runBounds = new ArrayList<>();
+        int position = 0;
+        runBounds.add(position);
+        for (Tree tree : trees) {
+            for (KDBTree kdbTree : BKDTree.kdbTrees(tree)) {
+                final int[] partitions = kdbTree.longitudePartitions();
+                for (int p = 1; p < partitions.length; p++) {
+                    position += partitions[p] - partitions[p - 1];
+                    runBounds.add(position);
+                }
+            }
+        }
+        final int[] runStarts = new int[runBounds.size()];
+        for (int i = 0; i < runStarts.length; i++) {
+            runStarts[i] = runBounds.get(i);
+        }
+        return runStarts;
+    }
+
+    /**
+     * Computes the longitude partitions of all the trees of a {@link BKDTree} with the provided number of documents.
+     *
+     * @param numberDocuments     the number of documents.
+     * @param maxDocumentsPerLeaf the maximum number of documents per leaf.
+     * @return the start of each partition followed by the end of the last one.
+     */
+    static int[] outputPartitions(final int numberDocuments, final int maxDocumentsPerLeaf) {
+        final List<Integer> bounds = new ArrayList<>();
+        int start = 0;
+        while (start < numberDocuments) {
+            final int end = start + BKDTree.getDocumentsForFullTree(numberDocuments - start, maxDocumentsPerLeaf);
+            final int[] partitions = KDBTree.longitudePartitions(start, end, KDBTree.getTreeLevels(end - start, maxDocumentsPerLeaf));
+            for (int p = 0; p < partitions.length - 1; p++) {
+                bounds.add(partitions[p]);
+            }
+            start = end;
+        }
+        bounds.add(numberDocuments);
+        final int[] partitions = new int[bounds.size()];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = bounds.get(i);
+        }
+        return partitions;
+    }
+
+    /**
+     * Finds the first value that is not lower than the provided one.
+     *
+     * @param values the sorted values, the last one is bigger than any other value.
+     * @param value  the value.
+     * @return the position of the value.
+     */
+    private static int firstNotLower(final double[] values, final double value) {
+        int low = 0;
+        int high = values.length - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Merges the runs of one output partition by latitude.
+     *
+     * @param staged   the documents with the runs of the partition one after the other.
+     * @param merged   the array where the partition is written, at the same positions.
+     * @param segments the start of each run.
+     * @param end      the end of the partition.
+     */
+    private static void mergeRuns(final Document[] staged, final Document[] merged, final List<Integer> segments, final int end) {
+        final int start = segments.get(0);
+        if (segments.size() == 1) {
+            System.arraycopy(staged, start, merged, start, end - start);
+            return;
+        }
+        // each entry holds the current position and the end of one run
+        final PriorityQueue<int[]> heads = new PriorityQueue<>(segments.size(),
+                (o1, o2) -> Double.compare(staged[o1[0]].point[1], staged[o2[0]].point[1]));
+        for (int s = 0; s < segments.size(); s++) {
+            heads.add(new int[] {segments.get(s), s == segments.size() - 1 ? end : segments.get(s + 1)});
+        }
+        int position = start;
+        while (!heads.isEmpty()) {
+            final int[] head = heads.poll();
+            merged[position++] = staged[head[0]++];
+            if (head[0] < head[1]) {
+                heads.add(head);
+            }
+        }
+    }
+
+    private TreeMerger() {
+        //no instances
+    }
+}
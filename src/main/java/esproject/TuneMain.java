@@ -0,0 +1,138 @@
+package esproject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Class to execute the leaf size tuning. It loads the points, takes a sample, measures the queries
+ * for several leaf sizes using {@link LeafSizeTuner} and stores the best leaf size in the settings
+ * of the points file, so it is used when the points are indexed afterwards.
+ */
+public class TuneMain {
+
+    /**
+     * Entry point of the tuning.
+     *
+     * @param args Provided arguments. See usage.
+     * @throws IOException if there is an error reading the input files or writing the settings.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 && ("-h".equals(args[0]) || "--help".equals(args[0]))) {
+            printUsage();
+            System.exit(0);
+        }
+        final CommandLineOptions options;
+        final int[] leafSizes;
+        final int sampleSize;
+        final int rounds;
+        final int syntheticQueries;
+        final double maxExtent;
+        final long seed;
+        final boolean apply;
+        try {
+            options = new CommandLineOptions(args);
+            leafSizes = options.getIntList("leaf-sizes", new int[] {32, 64, 128, 256, 512, 1024, 2048, 4096});
+            sampleSize = options.getInt("sample-size", 1000000);
+            rounds = options.getInt("rounds", 5);
+            syntheticQueries = options.getInt("synthetic-queries", 1000);
+            maxExtent = options.getDouble("max-extent", 10);
+            seed = options.getLong("seed", 0);
+            apply = Boolean.parseBoolean(options.getString("apply", "true"));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            printUsage();
+            System.exit(0);
+            return;
+        }
+        if (options.positional().size() != 1 && options.positional().size() != 2) {
+            System.out.println("The tuning has been called with incorrect parameters:");
+            printUsage();
+            System.exit(0);
+        }
+        for (int leafSize : leafSizes) {
+            if (leafSize < 2) {
+                System.out.println("The leaf sizes must be bigger than 1: " + leafSize);
+                printUsage();
+                System.exit(0);
+            }
+        }
+        if (sampleSize < 1 || rounds < 1) {
+            System.out.println("The sample size and the number of rounds must be bigger than 0");
+            printUsage();
+            System.exit(0);
+        }
+        File dataFile = new File(options.positional().get(0));
+        if (!dataFile.exists()) {
+            System.out.println("The input data file does not exists: " + dataFile);
+            System.exit(0);
+        }
+        System.out.println("Tuning started, loading points in memory....");
+        Document[] documents = BKDTreeMain.readDocumentsOrExit(dataFile);
+        if (documents.length == 0) {
+            System.out.println("The input data file does not contain points: " + dataFile);
+            System.exit(0);
+        }
+        Document[] sample = LeafSizeTuner.sample(documents, sampleSize, seed);
+        final List<double[][]> queries;
+        if (options.positional().size() == 2) {
+            File queryFile = new File(options.positional().get(1));
+            if (!queryFile.exists()) {
+                System.out.println("The input query file does not exists: " + queryFile);
+                System.exit(0);
+            }
+            queries = BKDTreeMain.readQueries(queryFile);
+        } else {
+            queries = QueryBenchmark.generateQueries(sample, syntheticQueries, maxExtent, seed);
+        }
+        if (queries.isEmpty()) {
+            System.out.println("No valid queries to execute");
+            System.exit(0);
+        }
+        System.out.println("Measuring " + queries.size() + " queries over a sample of " + sample.length + " points");
+        System.out.println();
+
+        List<LeafSizeTuner.Result> results = new LeafSizeTuner(sample, queries).tune(leafSizes, rounds);
+        System.out.println(String.format("%10s %10s %14s %14s %14s %10s %10s",
+                "leaf size", "build s", "nodes/query", "leaves/query", "tested/query", "mean ms", "p99 ms"));
+        for (LeafSizeTuner.Result result : results) {
+            System.out.println(String.format("%10d %10s %14s %14s %14s %10s %10s",
+                    result.leafSize, BKDTreeMain.formatDouble(1e-9 * result.buildNanos),
+                    BKDTreeMain.formatDouble((double) result.stats.getNodesVisited() / queries.size()),
+                    BKDTreeMain.formatDouble((double) result.stats.getLeavesScanned() / queries.size()),
+                    BKDTreeMain.formatDouble((double) result.stats.getPointsTested() / queries.size()),
+                    BKDTreeMain.formatDouble(1e-6 * result.histogram.getMean()),
+                    BKDTreeMain.formatDouble(1e-6 * result.histogram.getValueAtPercentile(99))));
+        }
+        System.out.println();
+        LeafSizeTuner.Result best = LeafSizeTuner.best(results);
+        System.out.println("Recommended number of points per leaf: " + best.leafSize);
+        if (apply) {
+            new IndexSettings(best.leafSize).store(dataFile);
+            System.out.println("Stored in " + IndexSettings.settingsFile(dataFile) + ", it will be used when indexing " + dataFile);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Prints the usage of the tuning.
+     */
+    private static void printUsage() {
+        System.out.println();
+        System.out.println("  usage: java -jar <jarfile>.jar --tune /path/to/geo_points.csv [/path/to/queries.csv] [options]");
+        System.out.println();
+        System.out.println("       --leaf-sizes 64,128,...          :       comma separated list of candidate points per leaf");
+        System.out.println("                                                (default 32,64,128,256,512,1024,2048,4096)");
+        System.out.println("       --sample-size N                  :       number of points sampled for building the trees (default 1000000)");
+        System.out.println("       --rounds N                       :       times the queries are replayed for measuring latency (default 5)");
+        System.out.println("       --synthetic-queries N            :       number of queries to generate if no query file is provided (default 1000)");
+        System.out.println("       --max-extent D                   :       maximum width and height in degrees of generated queries (default 10)");
+        System.out.println("       --seed S                         :       seed for sampling points and generating queries (default 0)");
+        System.out.println("       --apply true|false               :       store the recommended value next to the points file (default true)");
+        System.out.println();
+    }
+
+    private TuneMain() {
+        //no instances
+    }
+}
@@ -3,6 +3,7 @@ package esproject;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -127,5 +128,90 @@ public abstract class AbstractTreeTest {
 
     }
 
+    @Test
+    public void testQueryStats() {
+        Random random = new Random();
+        int docs = random.nextInt(50000) + 50000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        Tree tree = getTree(documents, random.nextInt(1024) + 2);
+
+        List<Document> treeAnswer = new ArrayList<>();
+        QueryStats stats = new QueryStats();
+        tree.contains(new double[]{180, 90}, new double[]{-180, -90}, treeAnswer, stats);
+        assert treeAnswer.size() == docs;
+        assert stats.getHits() == docs;
+        assert stats.getWithinShortcuts() > 0;
+        assert stats.getLeavesScanned() == 0;
+
+        for (int j = 0; j < 100; j++) {
+            treeAnswer.clear();
+            stats.reset();
+            double minLon = random.nextDouble() * 360 - 180;
+            double minLat = random.nextDouble() * 170 - 90;
+            double[] lowerPoint = new double[]{minLon, minLat};
+            double[] upperPoint = new double[]{Math.min(180, minLon + random.nextDouble() * 20), minLat + random.nextDouble() * 10};
+            tree.contains(upperPoint, lowerPoint, treeAnswer, stats);
+            assert stats.getHits() == treeAnswer.size() : "Expected: " + treeAnswer.size() + " got: " + stats.getHits();
+            assert stats.getNodesVisited() >= stats.getNodesDisjoint() + stats.getWithinShortcuts() + stats.getLeavesScanned();
+            assert stats.getPointsTested() >= stats.getPointsMatched();
+        }
+    }
+
+    @Test
+    public void testRamUsage() {
+        Random random = new Random();
+        int docs = random.nextInt(10000) + 10000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        Tree tree = getTree(documents, random.nextInt(1024) + 2);
+        RamUsage usage = tree.ramUsage();
+        assert usage.getTotal() == tree.ramBytesUsed();
+        assert usage.getTotal() == usage.getPoints() + usage.getNodeBoundaries() + usage.getPayloads();
+        // every document has an object, a point array and a reference
+        assert usage.getPoints() >= docs * (RamUsageEstimator.SHALLOW_SIZE_DOCUMENT + RamUsageEstimator.sizeOfDoubleArray(2) + RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+        assert usage.getPayloads() >= docs * RamUsageEstimator.SHALLOW_SIZE_STRING;
+        assert usage.getNodeBoundaries() > 0;
+    }
+
+    @Test
+    public void testRandomCount() {
+        Random random = new Random();
+        int docs = random.nextInt(50000) + 50000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        Tree tree = getTree(documents, random.nextInt(1024) + 2);
+        List<Document> treeAnswer = new ArrayList<>();
+        for (int j = 0; j < 100; j++) {
+            double[][] box = TestDocuments.randomBox(random);
+            double[] lowerPoint = box[1];
+            double[] upperPoint = box[0];
+            tree.contains(upperPoint, lowerPoint, treeAnswer);
+            assert tree.count(upperPoint, lowerPoint) == treeAnswer.size();
+            treeAnswer.clear();
+        }
+    }
+
+    @Test
+    public void testRandomNearest() {
+        Random random = new Random();
+        int docs = random.nextInt(50000) + 50000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        Tree tree = getTree(documents.clone(), random.nextInt(1024) + 2);
+        List<Document> treeAnswer = new ArrayList<>();
+        for (int j = 0; j < 50; j++) {
+            double[] point = new double[]{random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90};
+            int k = random.nextInt(100) + 1;
+            tree.nearest(point, k, treeAnswer);
+            double[] distances = new double[docs];
+            for (int i = 0; i < docs; i++) {
+                distances[i] = BoundingBoxUtils.distance(documents[i].point, point);
+            }
+            Arrays.sort(distances);
+            assert treeAnswer.size() == k;
+            for (int i = 0; i < k; i++) {
+                assert BoundingBoxUtils.distance(treeAnswer.get(i).point, point) == distances[i] : "Expected: " + distances[i] + " got: " + BoundingBoxUtils.distance(treeAnswer.get(i).point, point);
+            }
+            treeAnswer.clear();
+        }
+    }
+
     public abstract Tree getTree(Document[] documents, int maxDocsPerLeaf);
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Test for KDBTree with adaptive split policies.
+ */
+public class AdaptiveKDBTreeTest extends AbstractTreeTest {
+
+    @Override
+    public Tree getTree(Document[] documents, int maxDocsPerLeaf) {
+        SplitPolicy splitPolicy = new Random().nextBoolean() ? SplitPolicy.WIDEST_EXTENT : SplitPolicy.MAX_VARIANCE;
+        return new KDBTree(documents, maxDocsPerLeaf, 0, documents.length, false, splitPolicy);
+    }
+
+    @Test
+    public void testSplitDimension() {
+        Random random = new Random();
+        // a thin band along the equator should only be divided by longitude
+        Document[] documents = new Document[8192];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document(Integer.toString(i), random.nextDouble() * 360 - 180, random.nextDouble() - 0.5);
+        }
+        KDBTree tree = new KDBTree(documents, 64, 0, documents.length, false, SplitPolicy.WIDEST_EXTENT);
+        for (int nodeId = 1; nodeId < 128; nodeId++) {
+            assert tree.splitDimension(nodeId) == 0;
+        }
+        tree = new KDBTree(documents, 64, 0, documents.length, false, SplitPolicy.FIXED);
+        assert tree.splitDimension(1) == 0;
+        assert tree.splitDimension(127) == 1;
+    }
+
+    @Test
+    public void testSelect() {
+        Random random = new Random();
+        for (int j = 0; j < 100; j++) {
+            int size = random.nextInt(1000) + 1;
+            Document[] documents = new Document[size];
+            for (int i = 0; i < size; i++) {
+                // few distinct values to exercise duplicates
+                documents[i] = new Document(Integer.toString(i), random.nextInt(10), random.nextDouble());
+            }
+            int dimension = random.nextInt(2);
+            int k = random.nextInt(size);
+            SortingUtils.selectByDimension(documents, 0, size, k, dimension);
+            for (int i = 0; i < size; i++) {
+                if (i < k) {
+                    assert documents[i].point[dimension] <= documents[k].point[dimension];
+                } else {
+                    assert documents[i].point[dimension] >= documents[k].point[dimension];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test for the tree of areas.
+ */
+public class AreaTreeTest {
+
+    @Test
+    public void testRandomQueries() {
+        Random random = new Random();
+        // coordinates on a grid of one degree share edges often
+        boolean grid = random.nextBoolean();
+        Area[] areas = new Area[random.nextInt(10000) + 1];
+        for (int i = 0; i < areas.length; i++) {
+            double[][] box = randomBox(random, grid, random.nextBoolean() ? 5 : 60);
+            areas[i] = new Area(Integer.toString(i), box[0], box[1]);
+        }
+        AreaTree tree = new AreaTree(areas.clone(), random.nextInt(64) + 1);
+        assert tree.size() == areas.length;
+        for (int i = 0; i < 200; i++) {
+            double[][] box = randomBox(random, grid, random.nextBoolean() ? 2 : 90);
+            List<Area> intersecting = new ArrayList<>();
+            tree.intersecting(box[0], box[1], intersecting);
+            assertAreas(intersecting, areas, box[0], box[1], false);
+            List<Area> containing = new ArrayList<>();
+            tree.containing(box[0], box[1], containing);
+            assertAreas(containing, areas, box[0], box[1], true);
+            double[] point = new double[]{box[1][0], box[1][1]};
+            containing.clear();
+            tree.containing(point, containing);
+            assertAreas(containing, areas, point, point, true);
+        }
+    }
+
+    @Test
+    public void testDateline() {
+        Area[] areas = new Area[]{
+                new Area("pacific", new double[]{-170, 10}, new double[]{170, -10}),
+                new Area("east", new double[]{179, 5}, new double[]{175, -5}),
+                new Area("west", new double[]{-175, 5}, new double[]{-179, -5}),
+                new Area("greenwich", new double[]{10, 10}, new double[]{-10, -10}),
+                new Area("world", new double[]{180, 90}, new double[]{-180, -90})};
+        AreaTree tree = new AreaTree(areas, 1);
+        List<Area> collector = new ArrayList<>();
+        tree.containing(new double[]{180, 0}, collector);
+        assert names(collector).equals(new HashSet<>(Arrays.asList("pacific", "world"))) : collector;
+        collector.clear();
+        tree.containing(new double[]{-177, 0}, collector);
+        assert names(collector).equals(new HashSet<>(Arrays.asList("pacific", "west", "world"))) : collector;
+        collector.clear();
+        tree.intersecting(new double[]{-178, 1}, new double[]{178, -1}, collector);
+        assert names(collector).equals(new HashSet<>(Arrays.asList("pacific", "east", "west", "world"))) : collector;
+        collector.clear();
+        tree.containing(new double[]{-178, 1}, new double[]{178, -1}, collector);
+        assert names(collector).equals(new HashSet<>(Arrays.asList("pacific", "world"))) : collector;
+        collector.clear();
+        tree.intersecting(new double[]{20, 1}, new double[]{11, -1}, collector);
+        assert names(collector).equals(new HashSet<>(Arrays.asList("world"))) : collector;
+    }
+
+    @Test
+    public void testInvalidArea() {
+        try {
+            new Area("a", new double[]{10, -10}, new double[]{0, 10});
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new AreaTree(new Area[0]);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertAreas(List<Area> result, Area[] areas, double[] upperPoint, double[] lowerPoint, boolean containing) {
+        List<Area> expected = new ArrayList<>();
+        for (Area area : areas) {
+            int rel = BoundingBoxUtils.relate(area.upperPoint, area.lowerPoint, upperPoint, lowerPoint);
+            if (containing ? rel == BoundingBoxUtils.CONTAINS : rel != BoundingBoxUtils.DISJOINT) {
+                expected.add(area);
+            }
+        }
+        assert result.size() == expected.size() : result.size() + " != " + expected.size();
+        assert new HashSet<>(result).equals(new HashSet<>(expected));
+    }
+
+    private static HashSet<String> names(List<Area> areas) {
+        HashSet<String> names = new HashSet<>();
+        for (Area area : areas) {
+            names.add(area.getData());
+        }
+        return names;
+    }
+
+    private static double[][] randomBox(Random random, boolean grid, double maxExtent) {
+        double minLon = random.nextDouble() * 360 - 180;
+        double minLat = random.nextDouble() * 180 - 90;
+        double width = random.nextDouble() * maxExtent;
+        double height = random.nextDouble() * maxExtent;
+        if (grid) {
+            minLon = Math.floor(minLon);
+            minLat = Math.floor(minLat);
+            width = Math.floor(width);
+            height = Math.floor(height);
+        }
+        // the box crosses the dateline if it goes past 180
+        double maxLon = minLon + width > 180 ? minLon + width - 360 : minLon + width;
+        return new double[][]{{maxLon, Math.min(90, minLat + height)}, {minLon, minLat}};
+    }
+}
@@ -0,0 +1,129 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test for queries filtered by the attributes of the documents.
+ */
+public class AttributeFilterTest {
+
+    @Test
+    public void testRandomContains() {
+        Random random = new Random();
+        int docs = random.nextInt(20000) + 20000;
+        Document[] documents = new Document[docs];
+        for (int i = 0; i < docs; i++) {
+            double[] attributes = new double[] {random.nextInt(10), random.nextDouble() * 1000};
+            documents[i] = new Document(Integer.toString(i), random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90, attributes);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Tree tree;
+            switch (random.nextInt(3)) {
+                case 0:
+                    tree = new KDBTree(documents.clone(), random.nextInt(1024) + 2, 0, docs, false, SplitPolicy.FIXED);
+                    break;
+                case 1:
+                    tree = new BKDTree(documents.clone(), random.nextInt(1024) + 2);
+                    break;
+                default:
+                    tree = new ShardedTree(documents.clone(), random.nextInt(1024) + 2, 3, ShardedTree.Partitioning.SPATIAL, executor);
+            }
+            List<Document> treeAnswer = new ArrayList<>();
+            for (int j = 0; j < 100; j++) {
+                double[][] box = TestDocuments.randomBox(random);
+                double[] lowerPoint = box[1];
+                double[] upperPoint = box[0];
+                int category = random.nextInt(10);
+                double minPrice = random.nextDouble() * 1000;
+                AttributeFilter filter = AttributeFilter.range(0, category, category + random.nextInt(3));
+                if (random.nextBoolean()) {
+                    filter = filter.and(1, minPrice, minPrice + random.nextDouble() * 500);
+                }
+                int expected = 0;
+                for (Document document : documents) {
+                    if (BoundingBoxUtils.contains(upperPoint, lowerPoint, document.point) && filter.matches(document.attributes)) {
+                        expected++;
+                    }
+                }
+                tree.contains(upperPoint, lowerPoint, filter, treeAnswer, null);
+                assert treeAnswer.size() == expected : "Expected: " + expected + " got: " + treeAnswer.size();
+                for (Document document : treeAnswer) {
+                    assert filter.matches(document.attributes);
+                }
+                assert tree.count(upperPoint, lowerPoint, filter) == expected;
+                treeAnswer.clear();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testZoneMaps() {
+        Random random = new Random();
+        Document[] documents = new Document[1 << 16];
+        for (int i = 0; i < documents.length; i++) {
+            double longitude = random.nextDouble() * 360 - 180;
+            // the region id follows the longitude
+            documents[i] = new Document(Integer.toString(i), longitude, random.nextDouble() * 180 - 90, new double[] {Math.floor((longitude + 180) / 36)});
+        }
+        KDBTree tree = new KDBTree(documents, 64, 0, documents.length, false, SplitPolicy.FIXED);
+        double[] upperPoint = new double[]{180, 90};
+        double[] lowerPoint = new double[]{-180, -90};
+        QueryStats stats = new QueryStats();
+        List<Document> answer = new ArrayList<>();
+        tree.contains(upperPoint, lowerPoint, AttributeFilter.range(0, 3, 3), answer, stats);
+        assert stats.nodesDisjoint > 0;
+        assert stats.pointsTested + stats.withinPoints < documents.length / 4 : stats.toString();
+        // all the values of the root match, it is collected without checking the documents
+        stats.reset();
+        tree.contains(upperPoint, lowerPoint, AttributeFilter.range(0, 0, 10), answer, stats);
+        assert stats.withinShortcuts == 1 && stats.pointsTested == 0;
+    }
+
+    @Test
+    public void testFilter() {
+        AttributeFilter filter = AttributeFilter.range(0, 1, 2).and(2, 10, 20);
+        assert filter.requiredAttributes() == 3;
+        assert filter.matches(new double[] {1, 100, 20});
+        assert !filter.matches(new double[] {3, 100, 20});
+        assert !filter.matches(new double[] {1, 100, 21});
+        double[] max = new double[] {2, 0, 20};
+        double[] min = new double[] {1, 0, 10};
+        assert filter.relate(max, min, 0) == BoundingBoxUtils.WITHIN;
+        max[2] = 25;
+        assert filter.relate(max, min, 0) == BoundingBoxUtils.INTERSECTS;
+        min[0] = 3;
+        max[0] = 4;
+        assert filter.relate(max, min, 0) == BoundingBoxUtils.DISJOINT;
+        try {
+            AttributeFilter.range(0, 2, 1);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // a NaN attribute would make the range of its nodes NaN, which relates as within any filter
+        for (double attribute : new double[] {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            try {
+                new Document("1", 0, 0, new double[] {1, attribute});
+                assert false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        KDBTree tree = new KDBTree(new Document[] {new Document("1", 0, 0)}, 2, 0, 1, false, SplitPolicy.FIXED);
+        try {
+            tree.count(new double[] {1, 1}, new double[] {-1, -1}, filter);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
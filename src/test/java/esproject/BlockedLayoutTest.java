@@ -0,0 +1,83 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Test for trees with the node boxes stored in blocks of several levels.
+ */
+public class BlockedLayoutTest extends AbstractTreeTest {
+
+    @Override
+    public Tree getTree(Document[] documents, int maxDocsPerLeaf) {
+        if (new Random().nextBoolean()) {
+            return new KDBTree(documents, maxDocsPerLeaf, 0, documents.length, false, SplitPolicy.FIXED, NodeLayout.BLOCKED);
+        }
+        return new BKDTree(documents, maxDocsPerLeaf, SplitPolicy.FIXED, NodeLayout.BLOCKED);
+    }
+
+    @Test
+    public void testBoxPositions() {
+        Random random = new Random();
+        for (int dimensions = 2; dimensions <= 3; dimensions++) {
+            int blockLevels = KDBTree.blockLevels(dimensions);
+            for (int levels = 1; levels <= 2 * blockLevels + 1; levels++) {
+                // two documents per leaf
+                Document[] documents = new Document[1 << levels];
+                for (int i = 0; i < documents.length; i++) {
+                    double lon = random.nextDouble() * 360 - 180;
+                    double lat = random.nextDouble() * 180 - 90;
+                    documents[i] = dimensions == 2 ? new Document(Integer.toString(i), lon, lat) : new Document(Integer.toString(i), lon, lat, random.nextDouble());
+                }
+                KDBTree tree = new KDBTree(documents, 2, 0, documents.length, false, SplitPolicy.FIXED, NodeLayout.BLOCKED);
+                int nodes = documents.length - 1;
+                boolean[] used = new boolean[nodes];
+                for (int nodeId = 1; nodeId <= nodes; nodeId++) {
+                    int position = tree.boxPosition(nodeId);
+                    assert position >= 0 && position < nodes && !used[position] : "node " + nodeId + " of " + levels + " levels";
+                    used[position] = true;
+                    // the box of a node is in the same block as its parent unless it starts a new block
+                    int depth = 31 - Integer.numberOfLeadingZeros(nodeId);
+                    if (depth % blockLevels != 0) {
+                        int blockRoot = nodeId >>> (depth % blockLevels);
+                        assert position - tree.boxPosition(blockRoot) < (1 << blockLevels) - 1;
+                        assert position > tree.boxPosition(nodeId >>> 1);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlockTermsRamUsage() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(10000) + 1000);
+        int docsPerLeaf = random.nextInt(64) + 2;
+        KDBTree tree = new KDBTree(documents.clone(), docsPerLeaf, 0, documents.length, false, SplitPolicy.FIXED, NodeLayout.BREADTH_FIRST);
+        KDBTree blocked = new KDBTree(documents.clone(), docsPerLeaf, 0, documents.length, false, SplitPolicy.FIXED, NodeLayout.BLOCKED);
+        // the blocked layout only adds the table of terms of each level
+        long difference = blocked.ramUsage().getNodeBoundaries() - tree.ramUsage().getNodeBoundaries();
+        assert difference == RamUsageEstimator.sizeOfIntArray(3 * KDBTree.getTreeLevels(documents.length, docsPerLeaf)) : difference;
+    }
+
+    @Test
+    public void testSameEstimates() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(20000) + 1000);
+        int leaf = random.nextInt(8) + 2;
+        KDBTree breadthFirst = new KDBTree(documents.clone(), leaf, 0, documents.length, false, SplitPolicy.FIXED, NodeLayout.BREADTH_FIRST);
+        KDBTree blocked = new KDBTree(documents.clone(), leaf, 0, documents.length, false, SplitPolicy.FIXED, NodeLayout.BLOCKED);
+        for (int i = 0; i < 100; i++) {
+            double lon = random.nextDouble() * 350 - 180;
+            double lat = random.nextDouble() * 170 - 90;
+            double[] upperPoint = {lon + random.nextDouble() * 10, lat + random.nextDouble() * 10};
+            double[] lowerPoint = {lon, lat};
+            KDBTree.CountEstimate expected = new KDBTree.CountEstimate();
+            breadthFirst.estimate(upperPoint, lowerPoint, 64, expected);
+            KDBTree.CountEstimate estimate = new KDBTree.CountEstimate();
+            blocked.estimate(upperPoint, lowerPoint, 64, estimate);
+            assert estimate.count == expected.count && estimate.nodes == expected.nodes;
+        }
+    }
+}
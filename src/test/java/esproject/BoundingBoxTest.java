@@ -3,6 +3,9 @@ package esproject;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Random;
+
 /**
  * Bounding box tests.
  */
@@ -116,4 +119,119 @@ public class BoundingBoxTest {
         rel = BoundingBoxUtils.relate(new double[]{maxLon2, maxLat2}, new double[]{minLon2, minLat2}, new double[]{maxLon1, maxLat1}, new double[]{minLon1, minLat1});
         assert rel == BoundingBoxUtils.DISJOINT;
     }
+
+    @Test
+    public void testThirdDimension(){
+        double[] upperPoint1 = new double[]{2, 2, 10};
+        double[] lowerPoint1 = new double[]{-2, -2, 5};
+        // spatially within but the values only intersect
+        int rel = BoundingBoxUtils.relate(upperPoint1, lowerPoint1, new double[]{3, 3, 8}, new double[]{-3, -3, 0});
+        assert rel == BoundingBoxUtils.INTERSECTS;
+        rel = BoundingBoxUtils.relate(upperPoint1, lowerPoint1, new double[]{3, 3, 10}, new double[]{-3, -3, 5});
+        assert rel == BoundingBoxUtils.WITHIN;
+        rel = BoundingBoxUtils.relate(upperPoint1, lowerPoint1, new double[]{3, 3, 20}, new double[]{-3, -3, 11});
+        assert rel == BoundingBoxUtils.DISJOINT;
+        // the third dimension is ignored if one of the boxes does not have it
+        rel = BoundingBoxUtils.relate(upperPoint1, lowerPoint1, new double[]{3, 3}, new double[]{-3, -3});
+        assert rel == BoundingBoxUtils.WITHIN;
+        assert BoundingBoxUtils.contains(new double[]{3, 3, 8}, new double[]{-3, -3, 0}, new double[]{0, 0, 8});
+        assert !BoundingBoxUtils.contains(new double[]{3, 3, 8}, new double[]{-3, -3, 0}, new double[]{0, 0, 9});
+        assert BoundingBoxUtils.contains(new double[]{3, 3}, new double[]{-3, -3}, new double[]{0, 0, 9});
+    }
+
+    @Test
+    public void testDistance() {
+        // one degree of latitude
+        double distance = BoundingBoxUtils.distance(new double[]{0, 0}, new double[]{0, 1});
+        assert Math.abs(distance - 111195) < 1 : distance;
+        distance = BoundingBoxUtils.distance(new double[]{179.5, 0}, new double[]{-179.5, 0});
+        assert Math.abs(distance - 111195) < 1 : distance;
+    }
+
+    @Test
+    public void testDistanceToBoundingBox() {
+        Random random = new Random();
+        for (int i = 0; i < 1000; i++) {
+            double minLat = random.nextDouble() * 180 - 90;
+            double maxLat = Math.min(90, minLat + random.nextDouble() * 60);
+            double minLon = random.nextDouble() * 360 - 180;
+            double maxLon = random.nextDouble() * 360 - 180;
+            double[] upperPoint = new double[]{maxLon, maxLat};
+            double[] lowerPoint = new double[]{minLon, minLat};
+            double[] point = new double[]{random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90};
+            double distance = BoundingBoxUtils.distance(upperPoint, lowerPoint, point);
+            double width = maxLon >= minLon ? maxLon - minLon : maxLon - minLon + 360;
+            // the distance is a lower bound of the distance to any point of the box
+            double minSampled = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < 200; j++) {
+                double lon = minLon + random.nextDouble() * width;
+                double[] boxPoint = new double[]{lon > 180 ? lon - 360 : lon, minLat + random.nextDouble() * (maxLat - minLat)};
+                minSampled = Math.min(minSampled, BoundingBoxUtils.distance(boxPoint, point));
+            }
+            assert distance <= minSampled + 1e-6 : "Expected: " + distance + " to be lower than: " + minSampled;
+            if (BoundingBoxUtils.contains(upperPoint, lowerPoint, point)) {
+                assert distance == 0;
+            }
+        }
+    }
+
+    @Test
+    public void testExpand() {
+        Random random = new Random();
+        for (int i = 0; i < 1000; i++) {
+            double minLat = random.nextDouble() * 180 - 90;
+            double maxLat = Math.min(90, minLat + random.nextDouble() * 10);
+            double minLon = random.nextDouble() * 360 - 180;
+            double maxLon = Math.min(180, minLon + random.nextDouble() * 10);
+            double meters = random.nextDouble() * (random.nextBoolean() ? 10_000 : 2_000_000);
+            double[][] expanded = BoundingBoxUtils.expand(new double[]{maxLon, maxLat}, new double[]{minLon, minLat}, meters);
+            // every point close enough to a point of the box is inside the expanded box
+            for (int j = 0; j < 100; j++) {
+                double[] boxPoint = new double[]{minLon + random.nextDouble() * (maxLon - minLon), minLat + random.nextDouble() * (maxLat - minLat)};
+                double[] point = new double[]{random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90};
+                if (random.nextBoolean()) {
+                    // near the box, possibly across the dateline
+                    double lon = boxPoint[0] + (random.nextDouble() - 0.5) * 40;
+                    point = new double[]{lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon,
+                            Math.max(-90, Math.min(90, boxPoint[1] + (random.nextDouble() - 0.5) * 40))};
+                }
+                if (BoundingBoxUtils.distance(boxPoint, point) <= meters) {
+                    assert BoundingBoxUtils.contains(expanded[0], expanded[1], point)
+                            : Arrays.toString(point) + " not in " + Arrays.toString(expanded[0]) + " " + Arrays.toString(expanded[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackedBoxes() {
+        Random random = new Random();
+        for (int i = 0; i < 10000; i++) {
+            int dimensions = random.nextBoolean() ? 2 : 3;
+            double[][] box1 = randomBox(random, dimensions);
+            double[][] box2 = randomBox(random, random.nextBoolean() ? 2 : 3);
+            // the first box is packed after some other values
+            int offset = random.nextInt(10);
+            double[] boxes = new double[offset + 2 * dimensions + random.nextInt(10)];
+            System.arraycopy(box1[0], 0, boxes, offset, dimensions);
+            System.arraycopy(box1[1], 0, boxes, offset + dimensions, dimensions);
+            assert BoundingBoxUtils.relate(boxes, offset, dimensions, box2[0], box2[1]) == BoundingBoxUtils.relate(box1[0], box1[1], box2[0], box2[1]);
+            assert BoundingBoxUtils.overlapFraction(boxes, offset, dimensions, box2[0], box2[1]) == BoundingBoxUtils.overlapFraction(box1[0], box1[1], box2[0], box2[1]);
+        }
+    }
+
+    private static double[][] randomBox(Random random, int dimensions) {
+        // small integer coordinates so boxes often share edges, boxes might cross the dateline
+        double[] upper = new double[dimensions];
+        double[] lower = new double[dimensions];
+        lower[0] = random.nextInt(9) * 45 - 180;
+        upper[0] = random.nextInt(9) * 45 - 180;
+        lower[1] = random.nextInt(5) * 45 - 90;
+        upper[1] = Math.min(90, lower[1] + random.nextInt(3) * 45);
+        if (dimensions > 2) {
+            lower[2] = random.nextInt(4);
+            upper[2] = lower[2] + random.nextInt(3);
+        }
+        return new double[][]{upper, lower};
+    }
 }
@@ -0,0 +1,97 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test for grouping the documents inside a bounding box into clusters.
+ */
+public class ClusterTest {
+
+    @Test
+    public void testRandomClusters() {
+        Random random = new Random();
+        BKDTree tree = new BKDTree(TestDocuments.randomDocuments(random, random.nextInt(20000) + 1), random.nextInt(256) + 2,
+                SplitPolicy.values()[random.nextInt(SplitPolicy.values().length)]);
+        for (int i = 0; i < 100; i++) {
+            double[][] box = TestDocuments.randomBox(random);
+            double[] lowerPoint = box[1];
+            double[] upperPoint = box[0];
+            long count = tree.count(upperPoint, lowerPoint);
+            double cellSize = random.nextDouble() * 20 + 0.01;
+            List<Cluster> clusters = tree.clustersByCellSize(upperPoint, lowerPoint, null, cellSize);
+            assertClusters(clusters, upperPoint, lowerPoint, count);
+            double width = upperPoint[0] >= lowerPoint[0] ? upperPoint[0] - lowerPoint[0] : upperPoint[0] - lowerPoint[0] + 360;
+            assert clusters.size() <= Math.max(1, Math.ceil(width / cellSize)) * Math.max(1, Math.ceil((upperPoint[1] - lowerPoint[1]) / cellSize));
+            int maxClusters = random.nextInt(500) + 1;
+            clusters = tree.clustersByCount(upperPoint, lowerPoint, null, maxClusters);
+            assertClusters(clusters, upperPoint, lowerPoint, count);
+            assert clusters.size() <= maxClusters : clusters.size() + " > " + maxClusters;
+        }
+    }
+
+    @Test
+    public void testOneCluster() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(5000) + 1);
+        double longitude = 0;
+        double latitude = 0;
+        for (Document document : documents) {
+            longitude += document.point[0];
+            latitude += document.point[1];
+        }
+        BKDTree tree = new BKDTree(documents, random.nextInt(256) + 2);
+        List<Cluster> clusters = tree.clustersByCount(new double[]{180, 90}, new double[]{-180, -90}, null, 1);
+        assert clusters.size() == 1;
+        assert clusters.get(0).getCount() == documents.length;
+        assert Math.abs(clusters.get(0).getLongitude() - longitude / documents.length) < 1e-6;
+        assert Math.abs(clusters.get(0).getLatitude() - latitude / documents.length) < 1e-6;
+    }
+
+    @Test
+    public void testSmallCells() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(2000) + 1);
+        BKDTree tree = new BKDTree(documents.clone(), random.nextInt(64) + 2);
+        // crossing the dateline
+        double[] upperPoint = new double[]{-150, 60};
+        double[] lowerPoint = new double[]{150, -60};
+        List<Cluster> clusters = tree.clustersByCellSize(upperPoint, lowerPoint, null, 1e-6);
+        List<Document> expected = new ArrayList<>();
+        tree.contains(upperPoint, lowerPoint, expected);
+        // cells smaller than any node hold one document each
+        assert clusters.size() == expected.size();
+        for (Document document : expected) {
+            boolean found = false;
+            for (Cluster cluster : clusters) {
+                if (cluster.getCount() == 1 && Math.abs(cluster.getLongitude() - document.point[0]) < 1e-9
+                        && Math.abs(cluster.getLatitude() - document.point[1]) < 1e-9) {
+                    found = true;
+                    break;
+                }
+            }
+            assert found : document;
+        }
+        try {
+            tree.clustersByCellSize(upperPoint, lowerPoint, null, 0);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertClusters(List<Cluster> clusters, double[] upperPoint, double[] lowerPoint, long count) {
+        long total = 0;
+        for (Cluster cluster : clusters) {
+            assert cluster.getCount() > 0;
+            double[] centroid = new double[]{cluster.getLongitude(), cluster.getLatitude()};
+            // centroids of documents inside a box are inside it, up to rounding
+            assert BoundingBoxUtils.distance(upperPoint, lowerPoint, centroid) < 1e-3 : cluster;
+            total += cluster.getCount();
+        }
+        assert total == count : "Expected: " + count + " got: " + total;
+    }
+}
@@ -0,0 +1,52 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Test for trees with documents ordered along a Hilbert curve.
+ */
+public class HilbertTreeTest extends AbstractTreeTest {
+
+    @Override
+    public Tree getTree(Document[] documents, int maxDocsPerLeaf) {
+        if (new Random().nextBoolean()) {
+            return new KDBTree(documents, maxDocsPerLeaf, 0, documents.length, false, SplitPolicy.HILBERT);
+        }
+        return new BKDTree(documents, maxDocsPerLeaf, SplitPolicy.HILBERT);
+    }
+
+    @Test
+    public void testHilbertKey() {
+        // every cell has one position and consecutive positions are neighbour cells
+        int order = 5;
+        int cells = 1 << order;
+        long[][] positions = new long[cells * cells][];
+        for (long x = 0; x < cells; x++) {
+            for (long y = 0; y < cells; y++) {
+                long key = SortingUtils.hilbertKey(x, y, order);
+                assert key >= 0 && key < positions.length;
+                assert positions[(int) key] == null;
+                positions[(int) key] = new long[] {x, y};
+            }
+        }
+        for (int i = 1; i < positions.length; i++) {
+            assert Math.abs(positions[i][0] - positions[i - 1][0]) + Math.abs(positions[i][1] - positions[i - 1][1]) == 1;
+        }
+    }
+
+    @Test
+    public void testSortByHilbertCurve() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(1000) + 2);
+        SortingUtils.sortByHilbertCurve(documents, 1, documents.length);
+        boolean[] seen = new boolean[documents.length];
+        for (Document document : documents) {
+            int id = Integer.parseInt(document.data);
+            assert !seen[id];
+            seen[id] = true;
+        }
+        assert documents[0].data.equals("0");
+    }
+}
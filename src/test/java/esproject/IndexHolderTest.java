@@ -0,0 +1,183 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test for replacing the index while it is queried.
+ */
+public class IndexHolderTest {
+
+    @Test
+    public void testReleaseAfterLeases() {
+        List<BKDTree> released = new ArrayList<>();
+        BKDTree first = new BKDTree(TestDocuments.randomDocuments(new Random(), 100));
+        IndexHolder<BKDTree> holder = new IndexHolder<>(first, released::add);
+        IndexHolder.Lease<BKDTree> lease = holder.acquire();
+        assert lease.index() == first;
+        BKDTree second = new BKDTree(TestDocuments.randomDocuments(new Random(), 200));
+        assert holder.swap(second) == 1;
+        // the lease keeps the first index
+        assert released.isEmpty();
+        assert lease.index() == first;
+        try (IndexHolder.Lease<BKDTree> newLease = holder.acquire()) {
+            assert newLease.index() == second;
+            assert newLease.generation() == 1;
+        }
+        lease.close();
+        lease.close();
+        assert released.size() == 1 && released.get(0) == first;
+        holder.close();
+        assert released.size() == 2 && released.get(1) == second;
+        try {
+            holder.acquire();
+            assert false;
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailedRefreshKeepsIndex() throws InterruptedException {
+        BKDTree tree = new BKDTree(TestDocuments.randomDocuments(new Random(), 100));
+        IndexHolder<BKDTree> holder = new IndexHolder<>(tree);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<BKDTree> future = holder.refreshAsync(() -> {
+                throw new IOException("missing file");
+            }, executor);
+            try {
+                future.get();
+                assert false;
+            } catch (ExecutionException e) {
+                assert e.getCause() instanceof IOException;
+            }
+            assert holder.getGeneration() == 0;
+            try (IndexHolder.Lease<BKDTree> lease = holder.acquire()) {
+                assert lease.index() == tree;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReloadMalformedFile() throws IOException {
+        File dataFile = File.createTempFile("points", ".csv");
+        dataFile.deleteOnExit();
+        Files.write(dataFile.toPath(), Arrays.asList("a 10 20", "b -10 -20"), StandardCharsets.UTF_8);
+        BKDTree tree = new BKDTree(BKDTreeMain.readDocuments(dataFile));
+        IndexHolder<BKDTree> holder = new IndexHolder<>(tree);
+        double[] upperPoint = new double[] {180, 90};
+        double[] lowerPoint = new double[] {-180, -90};
+        // the file caught in the middle of a rewrite
+        for (String line : new String[] {"c 10", "c 10 x", "c 10 200", "c 100 20"}) {
+            Files.write(dataFile.toPath(), Arrays.asList("a 10 20", line), StandardCharsets.UTF_8);
+            try {
+                BKDTreeMain.readDocuments(dataFile);
+                assert false;
+            } catch (IllegalArgumentException e) {
+                assert e.getMessage().endsWith(line) : e.getMessage();
+            }
+            assert !ServerMain.reload(dataFile, 1024, "string", holder);
+            assert holder.getGeneration() == 0;
+            try (IndexHolder.Lease<BKDTree> lease = holder.acquire()) {
+                assert lease.index() == tree;
+                assert lease.index().count(upperPoint, lowerPoint) == 2;
+            }
+        }
+        Files.write(dataFile.toPath(), Arrays.asList("a 10 20", "b -10 -20", "c 0 0"), StandardCharsets.UTF_8);
+        assert ServerMain.reload(dataFile, 1024, "string", holder);
+        assert holder.getGeneration() == 1;
+        try (IndexHolder.Lease<BKDTree> lease = holder.acquire()) {
+            assert lease.index().count(upperPoint, lowerPoint) == 3;
+        }
+        holder.close();
+    }
+
+    @Test
+    public void testReloadOnlyStableFile() throws IOException {
+        File dataFile = File.createTempFile("points", ".csv");
+        dataFile.deleteOnExit();
+        Files.write(dataFile.toPath(), Arrays.asList("a 10 20", "b -10 -20"), StandardCharsets.UTF_8);
+        long modified = dataFile.lastModified();
+        ServerMain.FileWatcher watcher = new ServerMain.FileWatcher(dataFile);
+        assert !watcher.changed();
+        // the file is being written, it changes between checks
+        Files.write(dataFile.toPath(), Arrays.asList("a 10 20", "b -10 -20", "c 0"), StandardCharsets.UTF_8);
+        assert dataFile.setLastModified(modified + 2000);
+        assert !watcher.changed();
+        Files.write(dataFile.toPath(), Arrays.asList("a 10 20", "b -10 -20", "c 0 0"), StandardCharsets.UTF_8);
+        assert dataFile.setLastModified(modified + 4000);
+        assert !watcher.changed();
+        // unchanged since the previous check
+        assert watcher.changed();
+        assert !watcher.changed();
+        assert !watcher.changed();
+        // a change of size only
+        Files.write(dataFile.toPath(), Arrays.asList("a 10 20", "b -10 -20", "c 0 0", "d 1 1"), StandardCharsets.UTF_8);
+        assert dataFile.setLastModified(modified + 4000);
+        assert !watcher.changed();
+        assert watcher.changed();
+    }
+
+    @Test
+    public void testQueriesWhileSwapping() throws Exception {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(5000) + 5000);
+        double[] upperPoint = new double[] {180, 90};
+        double[] lowerPoint = new double[] {-180, -90};
+        List<BKDTree> released = new ArrayList<>();
+        IndexHolder<BKDTree> holder = new IndexHolder<>(new BKDTree(documents.clone()), tree -> {
+            synchronized (released) {
+                released.add(tree);
+            }
+        });
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> queries = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                queries.add(executor.submit(() -> {
+                    while (!stop.get()) {
+                        try (IndexHolder.Lease<BKDTree> lease = holder.acquire()) {
+                            // every index holds the same points and it is not released while it is queried
+                            synchronized (released) {
+                                assert !released.contains(lease.index());
+                            }
+                            assert lease.index().count(upperPoint, lowerPoint) == documents.length;
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < 10; i++) {
+                holder.refreshAsync(() -> new BKDTree(documents.clone()), executor).get();
+            }
+            stop.set(true);
+            for (Future<?> query : queries) {
+                query.get();
+            }
+            assert holder.getGeneration() == 10;
+            synchronized (released) {
+                assert released.size() == 10;
+            }
+        } finally {
+            stop.set(true);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test for joining two trees by distance.
+ */
+public class JoinTest {
+
+    @Test
+    public void testRandomJoin() {
+        Random random = new Random();
+        Document[] left = randomDocuments(random, "l", random.nextInt(3000) + 1);
+        Document[] right = randomDocuments(random, "r", random.nextInt(3000) + 1);
+        double meters = random.nextBoolean() ? random.nextDouble() * 50_000 : random.nextDouble() * 2_000_000;
+        Set<String> expected = new HashSet<>();
+        for (Document l : left) {
+            for (Document r : right) {
+                if (BoundingBoxUtils.distance(l.point, r.point) <= meters) {
+                    expected.add(l.data + "," + r.data);
+                }
+            }
+        }
+        Tree leftTree = random.nextBoolean() ? new BKDTree(left.clone(), random.nextInt(64) + 2) : new KDBTree(left.clone(), random.nextInt(64) + 2);
+        BKDTree rightTree = new BKDTree(right.clone(), random.nextInt(64) + 2, SplitPolicy.values()[random.nextInt(SplitPolicy.values().length)]);
+        if (random.nextBoolean()) {
+            rightTree.compactPayloads(random.nextBoolean());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Set<String> pairs = new HashSet<>();
+            SpatialJoin.join(leftTree, rightTree, meters, (l, r, distance) -> {
+                assert distance <= meters;
+                synchronized (pairs) {
+                    assert pairs.add(l.data + "," + r.data) : "Duplicated pair";
+                }
+            }, random.nextBoolean() ? executor : null);
+            assert pairs.equals(expected) : "Expected: " + expected.size() + " got: " + pairs.size();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSelfJoin() {
+        Document[] documents = new Document[] {
+                new Document("a", 179.9999, 0), new Document("b", -179.9999, 0), new Document("c", 0, 89.9999), new Document("d", 180, 89.9999)
+        };
+        Set<String> pairs = new HashSet<>();
+        BKDTree tree = new BKDTree(documents, 2);
+        // close points across the dateline and next to the pole
+        SpatialJoin.join(tree, tree, 100, (l, r, distance) -> pairs.add(l.data + r.data), null);
+        assert pairs.size() == 8 : pairs;
+        assert pairs.contains("ab") && pairs.contains("ba") && pairs.contains("cd") && pairs.contains("dc");
+        try {
+            SpatialJoin.join(tree, tree, -1, (l, r, distance) -> { }, null);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static Document[] randomDocuments(final Random random, final String prefix, final int docs) {
+        Document[] documents = new Document[docs];
+        for (int i = 0; i < docs; i++) {
+            // half of the documents around the dateline and the poles
+            double longitude = random.nextBoolean() ? random.nextDouble() * 360 - 180 : (random.nextBoolean() ? 1 : -1) * (180 - random.nextDouble() * 2);
+            double latitude = random.nextBoolean() ? random.nextDouble() * 180 - 90 : (random.nextBoolean() ? 1 : -1) * (90 - random.nextDouble() * 5);
+            documents[i] = new Document(prefix + i, longitude, latitude);
+        }
+        return documents;
+    }
+}
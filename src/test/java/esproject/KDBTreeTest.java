@@ -1,5 +1,7 @@
 package esproject;
 
+import org.junit.Test;
+
 /**
  * Test for KDBTree.
  */
@@ -9,4 +11,28 @@ public class KDBTreeTest extends AbstractTreeTest {
     public Tree getTree(Document[] documents, int maxDocsPerLeaf) {
         return new KDBTree(documents, maxDocsPerLeaf);
     }
+
+    @Test
+    public void testNextNode() {
+        for (int levels = 1; levels <= 12; levels++) {
+            int[] order = new int[(1 << levels) - 1];
+            preorder(1, 1 << (levels - 1), order, 0);
+            for (int position = 0; position < order.length; position++) {
+                int nodeId = order[position];
+                // the subtree of the node is next to it in depth first order
+                int subtreeLevels = levels - (32 - Integer.numberOfLeadingZeros(nodeId)) + 1;
+                int next = position + (1 << subtreeLevels) - 1;
+                assert KDBTree.nextNode(nodeId) == (next < order.length ? order[next] : 1) : nodeId;
+            }
+        }
+    }
+
+    private static int preorder(int nodeId, int startLeafNodes, int[] order, int position) {
+        order[position++] = nodeId;
+        if (nodeId < startLeafNodes) {
+            position = preorder(2 * nodeId, startLeafNodes, order, position);
+            position = preorder(2 * nodeId + 1, startLeafNodes, order, position);
+        }
+        return position;
+    }
 }
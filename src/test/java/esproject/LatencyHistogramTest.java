@@ -0,0 +1,73 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Latency histogram tests.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.recordValue(i * 1000L);
+        }
+        assert histogram.getTotalCount() == 10000;
+        assert histogram.getMinValue() == 1000;
+        assert histogram.getMaxValue() == 10000000;
+        assertWithinPrecision(5000000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(9900000, histogram.getValueAtPercentile(99));
+        assertWithinPrecision(10000000, histogram.getValueAtPercentile(100));
+        assert histogram.getMean() == 5000500;
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 2048; i++) {
+            histogram.recordValue(i);
+        }
+        assert histogram.getValueAtPercentile(50) == 1023;
+        assert histogram.getValueAtPercentile(100) == 2047;
+    }
+
+    @Test
+    public void testCoordinatedOmissionCorrection() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.recordValueWithExpectedInterval(1000, 10000);
+        }
+        // one stall of 100 intervals hides 99 samples
+        histogram.recordValueWithExpectedInterval(1000000, 10000);
+        assert histogram.getTotalCount() == 199 : histogram.getTotalCount();
+        assert histogram.getValueAtPercentile(40) == 1000;
+        assert histogram.getValueAtPercentile(90) > 500000 : histogram.getValueAtPercentile(90);
+    }
+
+    @Test
+    public void testAdd() {
+        Random random = new Random();
+        LatencyHistogram histogram1 = new LatencyHistogram();
+        LatencyHistogram histogram2 = new LatencyHistogram();
+        LatencyHistogram total = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            long value = Math.abs(random.nextLong());
+            (random.nextBoolean() ? histogram1 : histogram2).recordValue(value);
+            total.recordValue(value);
+        }
+        histogram1.add(histogram2);
+        assert histogram1.getTotalCount() == total.getTotalCount();
+        assert histogram1.getMaxValue() == total.getMaxValue();
+        assert histogram1.getMinValue() == total.getMinValue();
+        for (double percentile : new double[] {10, 50, 90, 99, 99.9}) {
+            assert histogram1.getValueAtPercentile(percentile) == total.getValueAtPercentile(percentile);
+        }
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assert Math.abs(expected - actual) <= expected / 1000 : "Expected: " + expected + " got: " + actual;
+    }
+}
@@ -0,0 +1,55 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Leaf size tuner tests.
+ */
+public class LeafSizeTunerTest {
+
+    @Test
+    public void testTune() {
+        Random random = new Random();
+        int docs = random.nextInt(20000) + 20000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        Document[] sample = LeafSizeTuner.sample(documents, docs / 2, random.nextLong());
+        assert sample.length == docs / 2;
+        assert new HashSet<>(Arrays.asList(sample)).size() == docs / 2;
+
+        List<double[][]> queries = QueryBenchmark.generateQueries(sample, 50, 20, random.nextLong());
+        int[] leafSizes = new int[] {16, 128, 1024};
+        List<LeafSizeTuner.Result> results = new LeafSizeTuner(sample, queries).tune(leafSizes, 1);
+        assert results.size() == leafSizes.length;
+        long hits = results.get(0).stats.getHits();
+        for (int i = 0; i < leafSizes.length; i++) {
+            LeafSizeTuner.Result result = results.get(i);
+            assert result.leafSize == leafSizes[i];
+            assert result.histogram.getTotalCount() == queries.size();
+            // the work changes with the leaf size but not the result
+            assert result.stats.getHits() == hits;
+        }
+        // smaller leaves need more nodes but test fewer points
+        assert results.get(0).stats.getNodesVisited() > results.get(2).stats.getNodesVisited();
+        assert results.get(0).stats.getPointsTested() < results.get(2).stats.getPointsTested();
+        LeafSizeTuner.Result best = LeafSizeTuner.best(results);
+        for (LeafSizeTuner.Result result : results) {
+            assert best.histogram.getMean() <= result.histogram.getMean();
+        }
+    }
+
+    @Test
+    public void testSettings() throws Exception {
+        File dataFile = File.createTempFile("points", ".csv");
+        dataFile.deleteOnExit();
+        IndexSettings.settingsFile(dataFile).deleteOnExit();
+        assert IndexSettings.load(dataFile).maxDocumentsPerLeaf == KDBTree.DEFAULT_DOCUMENTS_PER_LEAF;
+        new IndexSettings(256).store(dataFile);
+        assert IndexSettings.load(dataFile).maxDocumentsPerLeaf == 256;
+    }
+}
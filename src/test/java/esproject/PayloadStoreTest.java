@@ -0,0 +1,123 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test for the compact storage of the document data.
+ */
+public class PayloadStoreTest extends AbstractTreeTest {
+
+    @Override
+    public Tree getTree(Document[] documents, int maxDocsPerLeaf) {
+        BKDTree tree = new BKDTree(documents, maxDocsPerLeaf);
+        tree.compactPayloads(new Random().nextBoolean());
+        return tree;
+    }
+
+    @Override
+    @Test
+    public void testRamUsage() {
+        Random random = new Random();
+        int docs = random.nextInt(10000) + 10000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        Tree tree = getTree(documents, random.nextInt(1024) + 2);
+        RamUsage usage = tree.ramUsage();
+        assert usage.getTotal() == usage.getPoints() + usage.getNodeBoundaries() + usage.getPayloads();
+        // the compact store needs less than the string objects alone
+        assert usage.getPayloads() > 0;
+        assert usage.getPayloads() < docs * RamUsageEstimator.SHALLOW_SIZE_STRING;
+    }
+
+    @Test
+    public void testNullData() {
+        for (boolean deduplicate : new boolean[] {false, true}) {
+            Document[] documents = new Document[] {new Document(null, 0, 0), new Document("", 1, 1), new Document(null, 2, 2), new Document("a", 3, 3)};
+            PayloadStore store = PayloadStore.build(documents, deduplicate);
+            for (int i = 0; i < documents.length; i++) {
+                assert documents[i].data == null ? store.get(i) == null : documents[i].data.equals(store.get(i));
+            }
+            BKDTree tree = new BKDTree(documents, 2);
+            tree.compactPayloads(deduplicate);
+            List<Document> results = new ArrayList<>();
+            tree.contains(new double[] {180, 90}, new double[] {-180, -90}, results);
+            int nulls = 0;
+            for (Document document : results) {
+                nulls += document.data == null ? 1 : 0;
+            }
+            assert results.size() == 4 && nulls == 2 : results;
+        }
+    }
+
+    @Test
+    public void testStore() {
+        Random random = new Random();
+        String[] alphabet = {"a", "Z", "9", "\u00e9", "\u65e5\u672c", "\ud83d\ude00", " "};
+        for (boolean deduplicate : new boolean[] {false, true}) {
+            Document[] documents = new Document[random.nextInt(5000) + 1];
+            for (int i = 0; i < documents.length; i++) {
+                StringBuilder data = new StringBuilder();
+                int length = random.nextInt(10) == 0 ? random.nextInt(300) : random.nextInt(4);
+                for (int j = 0; j < length; j++) {
+                    data.append(alphabet[random.nextInt(alphabet.length)]);
+                }
+                documents[i] = new Document(data.toString(), 0, 0);
+            }
+            PayloadStore store = PayloadStore.build(documents, deduplicate);
+            assert store.size() == documents.length;
+            for (int i = 0; i < documents.length; i++) {
+                assert store.get(i).equals(documents[i].data);
+            }
+            if (deduplicate) {
+                assert store.numberEntries() < documents.length || documents.length == 1;
+            } else {
+                assert store.numberEntries() == documents.length;
+            }
+        }
+    }
+
+    @Test
+    public void testPages() {
+        // entries spanning several pages
+        Document[] documents = new Document[3000];
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            data.append('x');
+        }
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document(i + data.toString(), 0, 0);
+        }
+        PayloadStore store = PayloadStore.build(documents, false);
+        for (int i = 0; i < documents.length; i++) {
+            assert store.get(i).equals(documents[i].data);
+        }
+    }
+
+    @Test
+    public void testCompactTree() {
+        Random random = new Random();
+        Document[] documents = new Document[10000];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document("city" + random.nextInt(100), random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90);
+        }
+        BKDTree tree = new BKDTree(documents.clone(), 64);
+        BKDTree compactTree = new BKDTree(documents.clone(), 64);
+        compactTree.compactPayloads(true);
+        assert compactTree.ramUsage().getPayloads() < tree.ramUsage().getPayloads();
+        double[] upperPoint = {50, 40};
+        double[] lowerPoint = {-50, -40};
+        List<Document> expected = new ArrayList<>();
+        tree.contains(upperPoint, lowerPoint, expected);
+        List<Document> actual = new ArrayList<>();
+        compactTree.contains(upperPoint, lowerPoint, actual);
+        assert expected.equals(actual);
+        expected.clear();
+        actual.clear();
+        tree.nearest(new double[] {10, 10}, 20, expected);
+        compactTree.nearest(new double[] {10, 10}, 20, actual);
+        assert expected.equals(actual);
+    }
+}
@@ -0,0 +1,171 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for queries bounded by a deadline.
+ */
+public class QueryDeadlineTest {
+
+    @Test
+    public void testDeadlines() throws Exception {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(50000) + 50000);
+        BKDTree tree = new BKDTree(documents, random.nextInt(256) + 2);
+        double[] upperPoint = new double[] {179, 89};
+        double[] lowerPoint = new double[] {-179, -89};
+        long expected = tree.count(upperPoint, lowerPoint);
+
+        QueryResult result = tree.contains(upperPoint, lowerPoint, null, QueryDeadline.after(1, TimeUnit.HOURS));
+        assert !result.isTimedOut();
+        assert result.getDocuments().size() == expected;
+
+        QueryDeadline cancelled = QueryDeadline.none();
+        cancelled.cancel();
+        result = tree.contains(upperPoint, lowerPoint, null, cancelled);
+        assert result.isTimedOut();
+        assert result.getDocuments().isEmpty();
+
+        // partial results only hold matching documents
+        result = tree.contains(upperPoint, lowerPoint, null, QueryDeadline.after(random.nextInt(200), TimeUnit.MICROSECONDS));
+        List<Document> partial = result.getDocuments();
+        assert result.isTimedOut() ? partial.size() < expected : partial.size() == expected;
+        Set<Document> unique = new HashSet<>(partial);
+        assert unique.size() == partial.size();
+        for (Document document : partial) {
+            assert BoundingBoxUtils.contains(upperPoint, lowerPoint, document.point);
+        }
+    }
+
+    @Test
+    public void testWithinNodesAndSweeps() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(50000) + 50000);
+        int docsPerLeaf = random.nextInt(256) + 2;
+        KDBTree tree = new KDBTree(documents, docsPerLeaf);
+        double[] upperPoint = new double[] {180, 90};
+        double[] lowerPoint = new double[] {-180, -90};
+        // the root is within the box and the sweep reads the whole tree, both stop at the first leaf after cancelling
+        for (boolean sweep : new boolean[] {false, true}) {
+            QueryDeadline deadline = QueryDeadline.none();
+            DocumentVisitor.Counter counter = new DocumentVisitor.Counter() {
+                @Override
+                public void visit(final Document[] documents, final int index) {
+                    super.visit(documents, index);
+                    deadline.cancel();
+                }
+
+                @Override
+                public void visitRange(final Document[] documents, final int start, final int end) {
+                    super.visitRange(documents, start, end);
+                    deadline.cancel();
+                }
+            };
+            QueryStats stats = new QueryStats();
+            boolean complete = sweep ? tree.sweep(upperPoint, lowerPoint, null, counter, stats, deadline)
+                    : tree.query(upperPoint, lowerPoint, null, counter, stats, deadline);
+            assert !complete;
+            assert counter.count > 0 && counter.count <= docsPerLeaf : counter.count;
+            assert (sweep ? stats.pointsMatched : stats.withinPoints) == counter.count;
+        }
+        assert tree.sweep(upperPoint, lowerPoint, null, new DocumentVisitor.Counter(), null, QueryDeadline.none());
+    }
+
+    @Test
+    public void testCancelRunningQuery() throws Exception {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(50000) + 50000);
+        int docsPerLeaf = random.nextInt(256) + 2;
+        BKDTree tree = new BKDTree(documents, docsPerLeaf);
+        double[] upperPoint = new double[] {180, 90};
+        double[] lowerPoint = new double[] {-180, -90};
+        QueryDeadline deadline = QueryDeadline.none();
+        CountDownLatch visiting = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        // the traversal waits in its first leaf until the deadline is cancelled from the test thread
+        DocumentVisitor.Counter counter = new DocumentVisitor.Counter() {
+            @Override
+            public void visit(final Document[] documents, final int index) {
+                super.visit(documents, index);
+                await();
+            }
+
+            @Override
+            public void visitRange(final Document[] documents, final int start, final int end) {
+                super.visitRange(documents, start, end);
+                await();
+            }
+
+            private void await() {
+                visiting.countDown();
+                try {
+                    cancelled.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> running = executor.submit(() -> tree.query(upperPoint, lowerPoint, null, counter, null, deadline));
+            assert visiting.await(1, TimeUnit.MINUTES);
+            deadline.cancel();
+            cancelled.countDown();
+            assert !running.get(1, TimeUnit.MINUTES);
+            // it stopped at the next leaf instead of visiting the whole tree
+            assert counter.count > 0 && counter.count <= docsPerLeaf : counter.count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, 10000);
+        BKDTree tree = new BKDTree(documents, 64);
+        tree.compactPayloads(false);
+        double[] upperPoint = new double[] {50, 50};
+        double[] lowerPoint = new double[] {-50, -50};
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            QueryResult result = tree.containsAsync(upperPoint, lowerPoint, null, QueryDeadline.none(), executor).get();
+            assert !result.isTimedOut();
+            assert result.getDocuments().size() == tree.count(upperPoint, lowerPoint);
+            assert result.getDocuments().get(0).data != null;
+            // cancelling the future cancels the deadline, the executor is kept busy so the query cannot complete before
+            CountDownLatch busy = new CountDownLatch(1);
+            executor.execute(() -> {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            QueryDeadline deadline = QueryDeadline.none();
+            CompletableFuture<QueryResult> future = tree.containsAsync(upperPoint, lowerPoint, null, deadline, executor);
+            assert future.cancel(true);
+            busy.countDown();
+            assert deadline.isCancelled();
+            try {
+                tree.containsAsync(upperPoint, lowerPoint, null, null, executor);
+                assert false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test for paging through the documents inside a bounding box.
+ */
+public class QueryPageTest {
+
+    @Test
+    public void testRandomPages() {
+        Random random = new Random();
+        int docs = random.nextInt(20000) + 1;
+        Document[] documents = new Document[docs];
+        for (int i = 0; i < docs; i++) {
+            documents[i] = new Document(Integer.toString(i), random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90,
+                    new double[] {random.nextInt(10)});
+        }
+        BKDTree tree = new BKDTree(documents, random.nextInt(512) + 2);
+        if (random.nextBoolean()) {
+            tree.compactPayloads(false);
+        }
+        for (int j = 0; j < 50; j++) {
+            double[][] box = TestDocuments.randomBox(random);
+            double[] lowerPoint = box[1];
+            double[] upperPoint = box[0];
+            AttributeFilter filter = random.nextBoolean() ? null : AttributeFilter.range(0, 2, 6);
+            List<Document> expected = new ArrayList<>();
+            tree.contains(upperPoint, lowerPoint, filter, expected, null);
+            int pageSize = random.nextInt(1000) + 1;
+            List<Document> paged = new ArrayList<>();
+            String token = null;
+            int pages = 0;
+            do {
+                QueryPage page = tree.page(upperPoint, lowerPoint, filter, pageSize, token);
+                assert page.getDocuments().size() <= pageSize;
+                if (page.getNextToken() != null) {
+                    assert page.getDocuments().size() == pageSize;
+                }
+                paged.addAll(page.getDocuments());
+                token = page.getNextToken();
+                pages++;
+            } while (token != null);
+            // the same documents in the same order, and no empty last page
+            assert paged.equals(expected) : "Expected: " + expected.size() + " got: " + paged.size();
+            assert pages == Math.max(1, (expected.size() + pageSize - 1) / pageSize);
+        }
+    }
+
+    @Test
+    public void testInvalidToken() {
+        Document[] documents = new Document[100];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document(Integer.toString(i), i, 0);
+        }
+        BKDTree tree = new BKDTree(documents, 8);
+        double[] upperPoint = new double[] {180, 90};
+        double[] lowerPoint = new double[] {-180, -90};
+        for (String token : new String[] {"x", "0.1", "5.1.0", "0.1000.0", "0.1.1000"}) {
+            try {
+                tree.page(upperPoint, lowerPoint, null, 10, token);
+                assert false : token;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test for the estimation of the number of hits and the planning of queries.
+ */
+public class QueryPlannerTest {
+
+    @Test
+    public void testEstimateCount() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(20000) + 20000);
+        BKDTree tree = new BKDTree(documents, random.nextInt(512) + 64);
+        // the whole world and a box far from any point are exact
+        assert tree.estimateCount(new double[]{180, 90}, new double[]{-180, -90}) == documents.length;
+        assert tree.estimateCount(new double[]{10, 100}, new double[]{-10, 95}) == 0;
+        for (int j = 0; j < 100; j++) {
+            double minLon = random.nextDouble() * 300 - 180;
+            double minLat = random.nextDouble() * 150 - 90;
+            double[] lowerPoint = new double[]{minLon, minLat};
+            double[] upperPoint = new double[]{minLon + 60, minLat + 30};
+            long actual = tree.count(upperPoint, lowerPoint);
+            long estimate = tree.estimateCount(upperPoint, lowerPoint);
+            // the points are uniform so the estimate is close to the actual count, the error comes from the points
+            // of the leaves on the border of the box and grows like the square root of the count
+            assert Math.abs(estimate - actual) <= 5 * Math.sqrt(actual) : "Expected about: " + actual + " got: " + estimate;
+        }
+    }
+
+    @Test
+    public void testPlannedQueries() {
+        Random random = new Random();
+        int docs = random.nextInt(20000) + 20000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        BKDTree tree = new BKDTree(documents, random.nextInt(1024) + 2);
+        tree.setQueryPlanning(random.nextInt(10) + 1);
+        QueryStats stats = new QueryStats();
+        List<Document> treeAnswer = new ArrayList<>();
+        for (int j = 0; j < 100; j++) {
+            double[][] box = TestDocuments.randomBox(random);
+            double[] lowerPoint = box[1];
+            double[] upperPoint = box[0];
+            int expected = 0;
+            for (Document document : documents) {
+                if (BoundingBoxUtils.contains(upperPoint, lowerPoint, document.point)) {
+                    expected++;
+                }
+            }
+            tree.contains(upperPoint, lowerPoint, treeAnswer, stats);
+            assert treeAnswer.size() == expected : "Expected: " + expected + " got: " + treeAnswer.size();
+            treeAnswer.clear();
+        }
+        long plans = 0;
+        for (QueryPlan plan : QueryPlan.values()) {
+            plans += stats.getPlanCount(plan);
+        }
+        assert plans == 100;
+    }
+
+    @Test
+    public void testLinearScanPlan() {
+        Document[] documents = new Document[5];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document(Integer.toString(i), 10 * i, 10 * i);
+        }
+        // checking the nodes of such small trees costs more than checking their points
+        BKDTree tree = new BKDTree(documents, 4);
+        tree.setQueryPlanning(KDBTree.DEFAULT_ESTIMATE_DEPTH);
+        QueryStats stats = new QueryStats();
+        List<Document> answer = new ArrayList<>();
+        tree.contains(new double[]{35, 35}, new double[]{5, 5}, answer, stats);
+        assert answer.size() == 3;
+        assert stats.getPlanCount(QueryPlan.LINEAR_SCAN) == 1;
+        assert stats.nodesVisited == 0;
+        // the tree with the last point is disjoint with the query
+        assert stats.pointsTested == documents.length - 1;
+        stats.reset();
+        answer.clear();
+        tree.contains(new double[]{-5, -5}, new double[]{-10, -10}, answer, stats);
+        assert answer.isEmpty();
+        assert stats.getPlanCount(QueryPlan.TREE) == 1;
+        assert stats.pointsTested == 0;
+    }
+}
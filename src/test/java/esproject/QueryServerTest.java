@@ -0,0 +1,113 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Query server tests.
+ */
+public class QueryServerTest {
+
+    @Test
+    public void testRequests() throws Exception {
+        Random random = new Random();
+        int docs = random.nextInt(10000) + 10000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        BKDTree tree = new BKDTree(documents, random.nextInt(1024) + 2);
+        try (QueryServer server = new QueryServer(tree, 0, 4, 2, 1000, 10000)) {
+            double[] upperPoint = new double[]{20, 10};
+            double[] lowerPoint = new double[]{-20, -10};
+            long expected = tree.count(upperPoint, lowerPoint);
+
+            StringWriter writer = new StringWriter();
+            server.handle("COUNT -10 10 -20 20".split(" "), writer);
+            assert writer.toString().equals("COUNT " + expected + "\n") : writer.toString();
+
+            writer = new StringWriter();
+            server.handle("BOX -10 10 -20 20".split(" "), writer);
+            String[] lines = writer.toString().split("\n");
+            assert lines.length == expected + 1;
+            assert lines[lines.length - 1].equals("END " + expected);
+
+            writer = new StringWriter();
+            server.handle("KNN 0 0 5".split(" "), writer);
+            lines = writer.toString().split("\n");
+            assert lines.length == 6;
+            assert lines[5].equals("END 5");
+            assert Double.parseDouble(lines[0].split(" ")[3]) <= Double.parseDouble(lines[4].split(" ")[3]);
+
+            writer = new StringWriter();
+            server.handle("BOX -10 10".split(" "), writer);
+            assert writer.toString().startsWith("ERROR");
+            writer = new StringWriter();
+            server.handle("NEAREST 0 0 5".split(" "), writer);
+            assert writer.toString().startsWith("ERROR");
+        }
+    }
+
+    @Test
+    public void testConnection() throws Exception {
+        Document[] documents = new Document[] {new Document("London", -0.118092, 51.509865), new Document("Paris", 2.349014, 48.864716)};
+        try (QueryServer server = new QueryServer(new BKDTree(documents), 0, 4, 2, 1000, 10000)) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                writer.write("KNN 51.5 0 1\nCOUNT 40 60 -10 10\nQUIT\n");
+                writer.flush();
+                assert reader.readLine().startsWith("London ");
+                assert reader.readLine().equals("END 1");
+                assert reader.readLine().equals("COUNT 2");
+            }
+        }
+    }
+
+    @Test
+    public void testClosedHolder() throws Exception {
+        Document[] documents = new Document[] {new Document("London", -0.118092, 51.509865), new Document("Paris", 2.349014, 48.864716)};
+        IndexHolder<BKDTree> holder = new IndexHolder<>(new BKDTree(documents));
+        try (QueryServer server = new QueryServer(holder, 0, 4, 2, 1000, 10000)) {
+            holder.close();
+            StringWriter writer = new StringWriter();
+            server.handle("COUNT 40 60 -10 10".split(" "), writer);
+            assert writer.toString().startsWith("ERROR") : writer.toString();
+            // the permit has been released
+            writer = new StringWriter();
+            server.handle("BOX 40 60 -10 10".split(" "), writer);
+            assert writer.toString().startsWith("ERROR") : writer.toString();
+        }
+    }
+
+    @Test
+    public void testClientNotReading() throws Exception {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, 500000);
+        BKDTree tree = new BKDTree(documents);
+        try (QueryServer server = new QueryServer(tree, 0, 4, 1, 30000, 200)) {
+            server.start();
+            try (Socket stalled = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                // far more hits than the socket buffers hold, and never read
+                Writer stalledWriter = new OutputStreamWriter(stalled.getOutputStream(), StandardCharsets.UTF_8);
+                stalledWriter.write("BOX -90 90 -180 180\n");
+                stalledWriter.flush();
+                Thread.sleep(100);
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                writer.write("COUNT -90 90 -180 180\n");
+                writer.flush();
+                // the only query permit is released once the stalled connection is closed
+                assert reader.readLine().equals("COUNT " + documents.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test for exporting the hits of queries to a file.
+ */
+public class ResultExporterTest {
+
+    @Test
+    public void testBinaryExport() throws IOException {
+        Random random = new Random();
+        BKDTree tree = new BKDTree(TestDocuments.randomDocuments(random, random.nextInt(20000) + 1), random.nextInt(256) + 2);
+        List<double[][]> queries = randomQueries(random, random.nextInt(50) + 1);
+        File file = File.createTempFile("export", ".bin");
+        try {
+            ResultExporter.Summary summary;
+            try (ResultExporter exporter = new ResultExporter(file.toPath(), ResultExporter.Format.BINARY)) {
+                summary = exporter.export(tree, queries, random.nextInt(4) + 1);
+            }
+            assert summary.queries == queries.size();
+            assert summary.bytes == file.length();
+            long hits = 0;
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                for (int q = 0; q < queries.size(); q++) {
+                    // hits are written in the order of the queries
+                    assert input.readInt() == q;
+                    int count = input.readInt();
+                    assert count == tree.count(queries.get(q)[0], queries.get(q)[1]);
+                    for (int i = 0; i < count; i++) {
+                        Document document = tree.getDocuments()[input.readInt()];
+                        assert input.readDouble() == document.point[1];
+                        assert input.readDouble() == document.point[0];
+                        assert BoundingBoxUtils.contains(queries.get(q)[0], queries.get(q)[1], document.point);
+                    }
+                    hits += count;
+                }
+                assert input.read() == -1;
+            }
+            assert summary.hits == hits;
+        } finally {
+            assert file.delete();
+        }
+    }
+
+    @Test
+    public void testCsvExport() throws IOException {
+        Random random = new Random();
+        BKDTree tree = new BKDTree(TestDocuments.randomDocuments(random, random.nextInt(20000) + 1), random.nextInt(256) + 2);
+        if (random.nextBoolean()) {
+            tree.compactPayloads(random.nextBoolean());
+        }
+        List<double[][]> queries = randomQueries(random, random.nextInt(50) + 1);
+        File file = File.createTempFile("export", ".csv");
+        try {
+            try (ResultExporter exporter = new ResultExporter(file.toPath(), ResultExporter.Format.CSV)) {
+                exporter.export(tree, queries, random.nextInt(4) + 1);
+            }
+            List<List<String>> exported = new ArrayList<>();
+            for (int q = 0; q < queries.size(); q++) {
+                exported.add(new ArrayList<>());
+            }
+            int previous = 0;
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                String[] data = line.split(",");
+                assert data.length == 5 : line;
+                int query = Integer.parseInt(data[0]);
+                assert query >= previous;
+                previous = query;
+                exported.get(query).add(data[2]);
+            }
+            for (int q = 0; q < queries.size(); q++) {
+                List<Document> answer = new ArrayList<>();
+                tree.contains(queries.get(q)[0], queries.get(q)[1], answer);
+                List<String> expected = new ArrayList<>();
+                for (Document document : answer) {
+                    expected.add(document.data);
+                }
+                Collections.sort(expected);
+                Collections.sort(exported.get(q));
+                assert expected.equals(exported.get(q));
+            }
+        } finally {
+            assert file.delete();
+        }
+    }
+
+    @Test
+    public void testChunkedExport() throws IOException {
+        Random random = new Random();
+        // queries with several chunks of hits, partly matching the ranges
+        BKDTree tree = new BKDTree(TestDocuments.randomDocuments(random, 3 * ResultExporter.CHUNK_HITS + random.nextInt(1000)), random.nextInt(256) + 2);
+        List<double[][]> queries = randomQueries(random, random.nextInt(5) + 1);
+        queries.add(random.nextInt(queries.size() + 1), new double[][]{{180, 90}, {-180, -90}});
+        queries.add(random.nextInt(queries.size() + 1), new double[][]{{180, 90}, {0, -90}});
+        for (ResultExporter.Format format : ResultExporter.Format.values()) {
+            File single = File.createTempFile("export", ".out");
+            File threaded = File.createTempFile("export", ".out");
+            try {
+                try (ResultExporter exporter = new ResultExporter(single.toPath(), format)) {
+                    exporter.export(tree, queries, 1);
+                }
+                ResultExporter.Summary summary;
+                try (ResultExporter exporter = new ResultExporter(threaded.toPath(), format)) {
+                    summary = exporter.export(tree, queries, random.nextInt(3) + 2);
+                }
+                assert summary.bytes == threaded.length();
+                assert Arrays.equals(Files.readAllBytes(single.toPath()), Files.readAllBytes(threaded.toPath())) : format;
+            } finally {
+                assert single.delete();
+                assert threaded.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testCsvQuoting() throws IOException {
+        Document[] documents = new Document[] {
+                new Document("plain", 0, 0),
+                new Document("a,b", 1, 1),
+                new Document("say \"hi\"", 2, 2),
+                new Document("two\nlines", 3, 3)};
+        BKDTree tree = new BKDTree(documents, 2);
+        List<double[][]> queries = new ArrayList<>();
+        queries.add(new double[][]{{180, 90}, {-180, -90}});
+        File file = File.createTempFile("export", ".csv");
+        try {
+            try (ResultExporter exporter = new ResultExporter(file.toPath(), ResultExporter.Format.CSV)) {
+                exporter.export(tree, queries, 1);
+            }
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            assert content.contains(",plain,") : content;
+            assert content.contains(",\"a,b\",") : content;
+            assert content.contains(",\"say \"\"hi\"\"\",") : content;
+            assert content.contains(",\"two\nlines\",") : content;
+            // one line per hit once the quoted line break is removed
+            assert content.replace("two\nlines", "").split("\n").length == documents.length : content;
+        } finally {
+            assert file.delete();
+        }
+    }
+
+    private static List<double[][]> randomQueries(final Random random, final int number) {
+        List<double[][]> queries = new ArrayList<>();
+        for (int j = 0; j < number; j++) {
+            queries.add(TestDocuments.randomBox(random));
+        }
+        return queries;
+    }
+}
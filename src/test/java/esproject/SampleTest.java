@@ -0,0 +1,63 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Test for drawing random samples of the documents inside a bounding box.
+ */
+public class SampleTest {
+
+    @Test
+    public void testRandomSamples() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(20000) + 1);
+        BKDTree tree = new BKDTree(documents, random.nextInt(512) + 2);
+        for (int j = 0; j < 50; j++) {
+            double[][] box = TestDocuments.randomBox(random);
+            double[] lowerPoint = box[1];
+            double[] upperPoint = box[0];
+            long matches = tree.count(upperPoint, lowerPoint);
+            int size = random.nextInt(2000);
+            long seed = random.nextLong();
+            List<Document> sample = tree.sample(upperPoint, lowerPoint, null, size, seed);
+            assert sample.size() == Math.min(size, matches);
+            Set<String> unique = new HashSet<>();
+            for (Document document : sample) {
+                assert BoundingBoxUtils.contains(upperPoint, lowerPoint, document.point);
+                assert unique.add(document.data);
+            }
+            // reproducible
+            assert sample.equals(tree.sample(upperPoint, lowerPoint, null, size, seed));
+        }
+    }
+
+    @Test
+    public void testUniform() {
+        // a grid of points, the left half of the box is covered by nodes within it and the right half is not
+        Document[] documents = new Document[200 * 200];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document(Integer.toString(i), -100 + (i % 200), -50 + 0.5 * (i / 200));
+        }
+        BKDTree tree = new BKDTree(documents, 64);
+        double[] upperPoint = new double[] {99.5, 49.75};
+        double[] lowerPoint = new double[] {-100, -50};
+        long matches = tree.count(upperPoint, lowerPoint);
+        long left = 0;
+        long total = 0;
+        for (int seed = 0; seed < 20; seed++) {
+            for (Document document : tree.sample(upperPoint, lowerPoint, null, 1000, seed)) {
+                if (document.point[0] < 0) {
+                    left++;
+                }
+                total++;
+            }
+        }
+        double expected = (double) tree.count(new double[] {-0.5, 49.75}, lowerPoint) / matches;
+        assert Math.abs((double) left / total - expected) < 0.02 : "Expected: " + expected + " got: " + (double) left / total;
+    }
+}
@@ -0,0 +1,62 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for ShardedTree.
+ */
+public class ShardedTreeTest extends AbstractTreeTest {
+
+    @Override
+    public Tree getTree(Document[] documents, int maxDocsPerLeaf) {
+        Random random = new Random();
+        int shards = Math.min(documents.length, random.nextInt(8) + 1);
+        ShardedTree.Partitioning partitioning = random.nextBoolean() ? ShardedTree.Partitioning.SPATIAL : ShardedTree.Partitioning.ROUND_ROBIN;
+        return new ShardedTree(documents, maxDocsPerLeaf, shards, partitioning, ForkJoinPool.commonPool());
+    }
+
+    @Test
+    public void testInvalidQueries() {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(1000) + 8);
+        // the first shard runs on the calling thread, the rest on the executor
+        for (int shards : new int[] {1, 8}) {
+            ShardedTree tree = new ShardedTree(documents.clone(), 16, shards, ShardedTree.Partitioning.ROUND_ROBIN, ForkJoinPool.commonPool());
+            try {
+                tree.count(new double[] {180, 90}, new double[] {-180, -90}, AttributeFilter.range(0, 1, 2));
+                assert false;
+            } catch (IllegalArgumentException e) {
+                // same exception as a single tree
+            }
+            try {
+                tree.contains(new double[] {180, 90}, new double[] {-180, -90}, AttributeFilter.range(0, 1, 2), new ArrayList<>(), null);
+                assert false;
+            } catch (IllegalArgumentException e) {
+                // same exception as a single tree
+            }
+        }
+    }
+
+    @Test
+    public void testQueriesFromTheExecutor() throws Exception {
+        Random random = new Random();
+        Document[] documents = TestDocuments.randomDocuments(random, random.nextInt(1000) + 8);
+        // a query running on the only thread of the executor runs the shard tasks queued behind itself
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            ShardedTree tree = new ShardedTree(documents, 16, 8, ShardedTree.Partitioning.ROUND_ROBIN, executor);
+            Future<Long> count = executor.submit(() -> tree.count(new double[] {180, 90}, new double[] {-180, -90}));
+            assert count.get(1, TimeUnit.MINUTES) == documents.length;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
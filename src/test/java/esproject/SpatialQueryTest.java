@@ -0,0 +1,70 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test for boolean combinations of bounding box queries.
+ */
+public class SpatialQueryTest {
+
+    @Test
+    public void testRandomCombinations() {
+        Random random = new Random();
+        int docs = random.nextInt(20000) + 20000;
+        Document[] documents = TestDocuments.randomDocuments(random, docs);
+        BKDTree tree = new BKDTree(documents, random.nextInt(1024) + 2);
+        Document[] indexed = tree.getDocuments();
+        for (int j = 0; j < 50; j++) {
+            double[][] box1 = TestDocuments.randomBox(random);
+            double[][] box2 = TestDocuments.randomBox(random);
+            double[][] box3 = TestDocuments.randomBox(random);
+            int shape = random.nextInt(3);
+            SpatialQuery query;
+            switch (shape) {
+                case 0:
+                    query = SpatialQuery.box(box1[0], box1[1]).and(SpatialQuery.box(box2[0], box2[1])).andNot(SpatialQuery.box(box3[0], box3[1]));
+                    break;
+                case 1:
+                    query = SpatialQuery.box(box1[0], box1[1]).or(SpatialQuery.box(box2[0], box2[1]).andNot(SpatialQuery.box(box3[0], box3[1])));
+                    break;
+                default:
+                    query = SpatialQuery.box(box1[0], box1[1]).and(SpatialQuery.box(box2[0], box2[1]).or(SpatialQuery.box(box3[0], box3[1])));
+            }
+            QueryStats stats = new QueryStats();
+            BitSet ordinals = tree.matching(query, stats);
+            for (int i = 0; i < indexed.length; i++) {
+                boolean in1 = BoundingBoxUtils.contains(box1[0], box1[1], indexed[i].point);
+                boolean in2 = BoundingBoxUtils.contains(box2[0], box2[1], indexed[i].point);
+                boolean in3 = BoundingBoxUtils.contains(box3[0], box3[1], indexed[i].point);
+                boolean expected = shape == 0 ? in1 && in2 && !in3 : shape == 1 ? in1 || (in2 && !in3) : in1 && (in2 || in3);
+                assert ordinals.get(i) == expected : query + " " + i;
+            }
+        }
+    }
+
+    @Test
+    public void testCollect() {
+        Document[] documents = new Document[1000];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document("doc" + i, i % 100, i / 100);
+        }
+        BKDTree tree = new BKDTree(documents, 16);
+        tree.compactPayloads(false);
+        BitSet ordinals = tree.matching(new double[] {49.5, 4.5}, new double[] {-0.5, -0.5});
+        assert ordinals.cardinality() == 250;
+        ordinals.andNot(tree.matching(new double[] {49.5, 90}, new double[] {24.5, -90}));
+        assert ordinals.cardinality() == 125;
+        List<Document> collector = new ArrayList<>();
+        tree.collect(ordinals, collector);
+        assert collector.size() == 125;
+        for (Document document : collector) {
+            assert document.point[0] < 25 && document.point[1] < 5;
+            assert document.data.equals("doc" + (int) (document.point[1] * 100 + document.point[0]));
+        }
+    }
+}
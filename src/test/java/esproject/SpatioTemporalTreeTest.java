@@ -0,0 +1,119 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test for trees whose documents have a third dimension.
+ */
+public class SpatioTemporalTreeTest {
+
+    private static Tree getTree(Document[] documents, int maxDocsPerLeaf, Random random) {
+        SplitPolicy splitPolicy = SplitPolicy.values()[random.nextInt(SplitPolicy.values().length)];
+        if (random.nextBoolean()) {
+            return new KDBTree(documents, maxDocsPerLeaf, 0, documents.length, false, splitPolicy);
+        }
+        return new BKDTree(documents, maxDocsPerLeaf, splitPolicy);
+    }
+
+    @Test
+    public void testRandomContains() {
+        Random random = new Random();
+        int docs = random.nextInt(20000) + 20000;
+        Document[] documents = new Document[docs];
+        for (int i = 0; i < docs; i++) {
+            documents[i] = new Document(Integer.toString(i), random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90, random.nextInt(86400));
+        }
+        Tree tree = getTree(documents.clone(), random.nextInt(1024) + 2, random);
+        List<Document> treeAnswer = new ArrayList<>();
+        for (int j = 0; j < 100; j++) {
+            double minLat = random.nextDouble() * 180 - 90;
+            double minValue = random.nextInt(86400);
+            double[] lowerPoint = new double[]{random.nextDouble() * 360 - 180, minLat, minValue};
+            double[] upperPoint = new double[]{random.nextDouble() * 360 - 180, Math.min(90, minLat + random.nextDouble() * 90), minValue + random.nextInt(7200)};
+            int expected = 0;
+            for (Document document : documents) {
+                if (BoundingBoxUtils.contains(upperPoint, lowerPoint, document.point)) {
+                    expected++;
+                }
+            }
+            tree.contains(upperPoint, lowerPoint, treeAnswer);
+            assert treeAnswer.size() == expected : "Expected: " + expected + " got: " + treeAnswer.size();
+            for (Document document : treeAnswer) {
+                assert document.point[2] >= lowerPoint[2] && document.point[2] <= upperPoint[2];
+            }
+            assert tree.count(upperPoint, lowerPoint) == expected;
+            treeAnswer.clear();
+        }
+    }
+
+    @Test
+    public void testValuePruning() {
+        Random random = new Random();
+        Document[] documents = new Document[1 << 16];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document(Integer.toString(i), random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90, random.nextDouble() * 86400);
+        }
+        KDBTree tree = new KDBTree(documents, 64, 0, documents.length, false, SplitPolicy.WIDEST_EXTENT);
+        // the whole world during the first hour
+        double[] upperPoint = new double[]{180, 90, 3600};
+        double[] lowerPoint = new double[]{-180, -90, 0};
+        QueryStats stats = new QueryStats();
+        tree.contains(upperPoint, lowerPoint, new ArrayList<>(), stats);
+        assert stats.pointsTested + stats.withinPoints < documents.length / 4 : stats.toString();
+        assert stats.nodesDisjoint > 0;
+    }
+
+    @Test
+    public void testDimensions() {
+        Document[] documents = new Document[] {new Document("1", 0, 0), new Document("2", 1, 1)};
+        KDBTree tree = new KDBTree(documents, 2, 0, documents.length, false, SplitPolicy.FIXED);
+        try {
+            tree.count(new double[] {2, 2, 1}, new double[] {-2, -2, 0});
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // queries without the third dimension match any value
+        documents = new Document[] {new Document("1", 0, 0, 5), new Document("2", 1, 1, 10)};
+        tree = new KDBTree(documents, 2, 0, documents.length, false, SplitPolicy.FIXED);
+        assert tree.count(new double[] {2, 2}, new double[] {-2, -2}) == 2;
+        assert tree.count(new double[] {2, 2, 7}, new double[] {-2, -2, 0}) == 1;
+        try {
+            new KDBTree(new Document[] {new Document("1", 0, 0), new Document("2", 1, 1, 10)}, 2, 0, 2, false, SplitPolicy.FIXED);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNonFiniteValues() throws IOException {
+        File dataFile = File.createTempFile("points", ".csv");
+        dataFile.deleteOnExit();
+        for (String value : new String[] {"NaN", "Infinity", "-Infinity"}) {
+            try {
+                new Document("1", 0, 0, Double.parseDouble(value));
+                assert false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            String line = "c 10 20 " + value;
+            Files.write(dataFile.toPath(), Arrays.asList("a 10 20 1", line), StandardCharsets.UTF_8);
+            try {
+                BKDTreeMain.readDocuments(dataFile);
+                assert false;
+            } catch (IllegalArgumentException e) {
+                assert e.getMessage().endsWith(line) : e.getMessage();
+            }
+        }
+    }
+}
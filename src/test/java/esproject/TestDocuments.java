@@ -0,0 +1,42 @@
+package esproject;
+
+import java.util.Random;
+
+/**
+ * Random documents and queries shared by the tests.
+ */
+final class TestDocuments {
+
+    /**
+     * Creates documents uniformly distributed over the world, the data of each document is its position.
+     *
+     * @param random the source of randomness.
+     * @param docs   the number of documents.
+     * @return the documents.
+     */
+    static Document[] randomDocuments(final Random random, final int docs) {
+        Document[] documents = new Document[docs];
+        for (int i = 0; i < docs; i++) {
+            documents[i] = new Document(Integer.toString(i), random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90);
+        }
+        return documents;
+    }
+
+    /**
+     * Creates a random query box up to 90 degrees high, it crosses the dateline when the longitude of its lower
+     * corner is bigger than the longitude of its upper corner.
+     *
+     * @param random the source of randomness.
+     * @return the upper corner and the lower corner of the box.
+     */
+    static double[][] randomBox(final Random random) {
+        double minLat = random.nextDouble() * 180 - 90;
+        double[] lowerPoint = new double[]{random.nextDouble() * 360 - 180, minLat};
+        double[] upperPoint = new double[]{random.nextDouble() * 360 - 180, Math.min(90, minLat + random.nextDouble() * 90)};
+        return new double[][]{upperPoint, lowerPoint};
+    }
+
+    private TestDocuments() {
+        //no instances
+    }
+}
@@ -0,0 +1,109 @@
+package esproject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test for merging trees without sorting their documents again.
+ */
+public class TreeMergeTest {
+
+    @Test
+    public void testRandomMerge() {
+        Random random = new Random();
+        int leaf = random.nextInt(256) + 2;
+        List<Tree> trees = new ArrayList<>();
+        List<Document> all = new ArrayList<>();
+        int numberTrees = random.nextInt(5) + 1;
+        for (int t = 0; t < numberTrees; t++) {
+            Document[] documents = new Document[random.nextInt(5000) + 1];
+            for (int i = 0; i < documents.length; i++) {
+                // few distinct longitudes so there are ties between partitions
+                double longitude = random.nextBoolean() ? random.nextInt(20) : random.nextDouble() * 360 - 180;
+                documents[i] = new Document(t + "-" + i, longitude, random.nextDouble() * 180 - 90);
+            }
+            all.addAll(Arrays.asList(documents));
+            if (random.nextBoolean()) {
+                BKDTree tree = new BKDTree(documents, random.nextInt(256) + 2);
+                if (random.nextBoolean()) {
+                    tree.compactPayloads(random.nextBoolean());
+                }
+                trees.add(tree);
+            } else {
+                trees.add(new KDBTree(documents, random.nextInt(256) + 2));
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            BKDTree merged = BKDTree.merge(trees, leaf, random.nextBoolean() ? executor : null);
+            assertPartitioned(merged);
+            BKDTree expected = new BKDTree(all.toArray(new Document[0]), leaf);
+            List<Document> mergedAnswer = new ArrayList<>();
+            List<Document> expectedAnswer = new ArrayList<>();
+            for (int j = 0; j < 100; j++) {
+                double[][] box = TestDocuments.randomBox(random);
+                double[] lowerPoint = box[1];
+                double[] upperPoint = box[0];
+                merged.contains(upperPoint, lowerPoint, mergedAnswer);
+                expected.contains(upperPoint, lowerPoint, expectedAnswer);
+                assert mergedAnswer.size() == expectedAnswer.size() : "Expected: " + expectedAnswer.size() + " got: " + mergedAnswer.size();
+                List<String> mergedData = new ArrayList<>();
+                List<String> expectedData = new ArrayList<>();
+                for (int i = 0; i < mergedAnswer.size(); i++) {
+                    mergedData.add(mergedAnswer.get(i).data);
+                    expectedData.add(expectedAnswer.get(i).data);
+                }
+                Collections.sort(mergedData);
+                Collections.sort(expectedData);
+                assert mergedData.equals(expectedData);
+                mergedAnswer.clear();
+                expectedAnswer.clear();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOnlyFixedTrees() {
+        Document[] documents = new Document[100];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new Document(Integer.toString(i), i, i % 90);
+        }
+        try {
+            BKDTree.merge(Collections.singletonList(new BKDTree(documents, 8, SplitPolicy.MAX_VARIANCE)), 8, null);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks that the longitude partitions of every tree are ordered by longitude and sorted by latitude.
+     */
+    private static void assertPartitioned(BKDTree tree) {
+        double previousMax = Double.NEGATIVE_INFINITY;
+        for (KDBTree kdbTree : tree.getTrees()) {
+            Document[] documents = kdbTree.getDocuments();
+            int[] partitions = kdbTree.longitudePartitions();
+            for (int p = 0; p < partitions.length - 1; p++) {
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = partitions[p]; i < partitions[p + 1]; i++) {
+                    assert documents[i].point[0] >= previousMax;
+                    max = Math.max(max, documents[i].point[0]);
+                    if (i > partitions[p]) {
+                        assert documents[i].point[1] >= documents[i - 1].point[1];
+                    }
+                }
+                previousMax = max;
+            }
+        }
+    }
+}